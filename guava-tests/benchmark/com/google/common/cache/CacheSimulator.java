@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+import com.google.common.primitives.Longs;
+import com.google.common.testing.FakeTicker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays recorded key traces against {@link CacheBuilder} configurations, to predict how a
+ * maximum size, concurrency level or expiration would behave on a real key stream before
+ * deploying it. For each configuration, it reports the hit rate, the number of evictions and the
+ * number of requests per second.
+ *
+ * <p>Usage: {@code CacheSimulator <trace file> <spec>...}, where each spec is a
+ * {@link CacheBuilderSpec}, for instance {@code maximumSize=1000,concurrencyLevel=4} or
+ * {@code maximumSize=1000,expireAfterAccess=10m}. A spec bounding the size of the cache without
+ * setting its {@code evictionPolicy} is replayed once for each {@link EvictionPolicy}, to compare
+ * their hit rates; set {@code evictionPolicy=lru} or {@code evictionPolicy=tiny_lfu} to replay it
+ * with a single policy.
+ *
+ * <p>A trace file holds one request per line: the requested key, optionally preceded by the time
+ * of the request, in milliseconds since the start of the trace, and whitespace. Times must not
+ * decrease; requests without a time happen at the time of the previous request. Blank lines and
+ * lines starting with {@code #} are ignored. For example:
+ *
+ * <pre>   {@code
+ *   # time key
+ *   0 user:42
+ *   15 user:7
+ *   15 user:42}</pre>
+ *
+ * <p>Time is driven by a {@link FakeTicker} advanced to the time of each request, so that
+ * expiration behaves as it did when the trace was recorded, however fast the trace is replayed.
+ * Every miss loads the key itself. The throughput only measures single-threaded replay, and
+ * includes the cost of loading.
+ */
+public final class CacheSimulator {
+
+  private CacheSimulator() {}
+
+  /**
+   * A recorded sequence of requests.
+   */
+  static final class Trace {
+    final ImmutableList<String> keys;
+    /** Time of each request, in nanoseconds since the start of the trace. */
+    final long[] times;
+
+    Trace(List<String> keys, long[] times) {
+      checkArgument(keys.size() == times.length);
+      this.keys = ImmutableList.copyOf(keys);
+      this.times = times;
+    }
+
+    int size() {
+      return keys.size();
+    }
+
+    /**
+     * Reads a trace in the format described in {@link CacheSimulator}.
+     */
+    static Trace read(File file) throws IOException {
+      return Files.readLines(file, Charsets.UTF_8, new LineProcessor<Trace>() {
+        final Splitter splitter = Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings().limit(2);
+        final List<String> keys = Lists.newArrayList();
+        final List<Long> times = Lists.newArrayList();
+        long time = 0;
+
+        @Override public boolean processLine(String line) {
+          String trimmed = CharMatcher.WHITESPACE.trimFrom(line);
+          if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return true;
+          }
+          List<String> fields = splitter.splitToList(trimmed);
+          if (fields.size() == 2) {
+            long lineTime = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fields.get(0)));
+            checkArgument(lineTime >= time, "time going backwards at line: %s", line);
+            time = lineTime;
+          }
+          keys.add(fields.get(fields.size() - 1));
+          times.add(time);
+          return true;
+        }
+
+        @Override public Trace getResult() {
+          return new Trace(keys, Longs.toArray(times));
+        }
+      });
+    }
+  }
+
+  /**
+   * The outcome of replaying a trace against a cache configuration.
+   */
+  static final class Result {
+    final CacheStats stats;
+    final long elapsedNanos;
+
+    Result(CacheStats stats, long elapsedNanos) {
+      this.stats = stats;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of requests replayed per second.
+     */
+    double throughput() {
+      return stats.requestCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override public String toString() {
+      return String.format(Locale.ROOT, "hit rate %.4f, %d evictions, %.0f requests/s",
+          stats.hitRate(), stats.evictionCount(), throughput());
+    }
+  }
+
+  /**
+   * Replays {@code trace} against a new cache configured by {@code spec}.
+   */
+  static Result simulate(Trace trace, CacheBuilderSpec spec) {
+    FakeTicker ticker = new FakeTicker();
+    LoadingCache<String, String> cache = CacheBuilder.from(spec)
+        .ticker(ticker)
+        .recordStats()
+        .build(new CacheLoader<String, String>() {
+          @Override public String load(String key) {
+            return key;
+          }
+        });
+
+    long now = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < trace.size(); i++) {
+      long time = trace.times[i];
+      ticker.advance(time - now);
+      now = time;
+      cache.getUnchecked(trace.keys.get(i));
+    }
+    cache.cleanUp();
+    long elapsedNanos = System.nanoTime() - start;
+    return new Result(cache.stats(), elapsedNanos);
+  }
+
+  /**
+   * Returns {@code spec} with each eviction policy if it bounds the size of the cache without
+   * setting a policy, or only {@code spec} otherwise.
+   */
+  static List<CacheBuilderSpec> withEvictionPolicies(CacheBuilderSpec spec) {
+    if (spec.evictionPolicy != null || (spec.maximumSize == null && spec.maximumWeight == null)) {
+      return ImmutableList.of(spec);
+    }
+    List<CacheBuilderSpec> specs = Lists.newArrayList();
+    for (EvictionPolicy policy : EvictionPolicy.values()) {
+      specs.add(CacheBuilderSpec.parse(
+          spec.toParsableString() + ",evictionPolicy=" + Ascii.toLowerCase(policy.name())));
+    }
+    return specs;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CacheSimulator <trace file> <spec>...");
+      System.exit(1);
+    }
+    Trace trace = Trace.read(new File(args[0]));
+    List<CacheBuilderSpec> specs = Lists.newArrayList();
+    for (String spec : Arrays.asList(args).subList(1, args.length)) {
+      specs.addAll(withEvictionPolicies(CacheBuilderSpec.parse(spec)));
+    }
+
+    System.out.println(trace.size() + " requests");
+    // warm up, so that the first configuration is not measured while being compiled
+    simulate(trace, specs.get(0));
+    for (CacheBuilderSpec spec : specs) {
+      System.out.println(spec.toParsableString() + ": " + simulate(trace, spec));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.cache.CacheSimulator.Trace;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Benchmark for replaying a recorded key trace against a cache configuration; see
+ * {@link CacheSimulator} for the trace format. Each repetition replays the whole trace against a
+ * new cache, and the hit rate and number of evictions are printed at the end of the experiment.
+ * Pass the trace and the configurations with {@code -Dtrace=<file>} and
+ * {@code -Dspec=<spec>,<spec>}; as Caliper splits parameter values on commas, the options of each
+ * spec are separated with {@code ;} instead. For instance,
+ * {@code -Dspec=maximumSize=1000;evictionPolicy=lru,maximumSize=1000;evictionPolicy=tiny_lfu}
+ * compares the eviction policies.
+ */
+public class CacheTraceBenchmark {
+  @Param String trace;
+  @Param String spec;
+
+  private Trace requests;
+  private CacheBuilderSpec cacheBuilderSpec;
+  private CacheStats stats;
+
+  @BeforeExperiment void setUp() throws IOException {
+    requests = Trace.read(new File(trace));
+    cacheBuilderSpec = CacheBuilderSpec.parse(spec.replace(';', ','));
+  }
+
+  @Benchmark long replay(int reps) {
+    long dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      stats = CacheSimulator.simulate(requests, cacheBuilderSpec).stats;
+      dummy += stats.hitCount();
+    }
+    return dummy;
+  }
+
+  @AfterExperiment void tearDown() {
+    if (stats != null) {
+      System.out.println(spec + ": hit rate " + stats.hitRate() + ", "
+          + stats.evictionCount() + " evictions");
+    }
+  }
+}
@@ -16,45 +16,196 @@
 
 package com.google.common.eventbus;
 
+import com.google.caliper.AfterExperiment;
 import com.google.caliper.BeforeExperiment;
 import com.google.caliper.Benchmark;
-import com.google.common.eventbus.AnnotationModule;
-import com.google.inject.Guice;
-import com.google.inject.Injector;
+import com.google.caliper.Param;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Benchmark for {@link EventBus}.
+ * Benchmark for posting events to an {@link EventBus}, an {@link AsyncEventBus} or an
+ * {@link AsyncSyncEventBus} from a single thread. See {@link EventBusContentionBenchmark} for
+ * posting from several threads.
+ *
+ * <p>Run with the allocation instrument ({@code -i allocation}) to get the number of objects and
+ * bytes allocated per post. For the asynchronous buses, each repetition includes the time the
+ * executor takes to deliver all the posted events.
  *
  * @author Eric Fellheimer
  */
 public class EventBusBenchmark {
 
-  private EventBus eventBus;
-  
-  private Injector injector;
-  
-  public EventBusTest() {
-	  super();
-	  injector = Guice.createInjector(new AnnotationModule());
-	
-  }
-  
-  
-  @BeforeExperiment
-  void setUp() {
-    eventBus = new EventBus("for benchmarking purposes");
-    this.injector.injectMembers(eventBus);
-    eventBus.register(this);
-  }
-
-  @Benchmark void postStrings(int reps) {
+  /**
+   * The kind of bus events are posted to, and how they are posted.
+   */
+  enum BusType {
+    SYNC {
+      @Override EventBus newBus(ExecutorService executor) {
+        return new EventBus("for benchmarking purposes", Subscribe.class);
+      }
+    },
+    ASYNC {
+      @Override EventBus newBus(ExecutorService executor) {
+        return new AsyncEventBus("for benchmarking purposes", executor, Subscribe.class);
+      }
+    },
+    ASYNC_SYNC_POST {
+      @Override EventBus newBus(ExecutorService executor) {
+        return new AsyncSyncEventBus("for benchmarking purposes", executor, Subscribe.class);
+      }
+    },
+    ASYNC_SYNC_FIRE {
+      @Override EventBus newBus(ExecutorService executor) {
+        return new AsyncSyncEventBus("for benchmarking purposes", executor, Subscribe.class);
+      }
+
+      @Override void post(EventBus bus, Object event) {
+        ((AsyncSyncEventBus) bus).fire(event);
+      }
+    };
+
+    abstract EventBus newBus(ExecutorService executor);
+
+    void post(EventBus bus, Object event) {
+      bus.post(event);
+    }
+
+    boolean isAsync() {
+      return this != SYNC;
+    }
+  }
+
+  @Param BusType busType;
+
+  /** Number of listeners subscribing to the posted events. */
+  @Param({"1", "10", "100"}) int subscriberCount;
+
+  /**
+   * Number of classes between the class of the posted events and the type the listeners
+   * subscribe to.
+   */
+  @Param({"0", "3"}) int hierarchyDepth;
+
+  /**
+   * Whether the subscriber methods are marked with {@link AllowConcurrentEvents}, rather than
+   * serialized by the bus.
+   */
+  @Param boolean concurrent;
+
+  private ExecutorService executor;
+  private EventBus bus;
+  private Listener[] listeners;
+  private Object event;
+
+  @BeforeExperiment void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+    bus = busType.newBus(executor);
+    listeners = new Listener[subscriberCount];
+    for (int i = 0; i < subscriberCount; i++) {
+      listeners[i] = concurrent ? new ConcurrentListener() : new Listener();
+      bus.register(listeners[i]);
+    }
+    event = newEvent(hierarchyDepth);
+  }
+
+  @AfterExperiment void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark int post(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      busType.post(bus, event);
+    }
+    return deliveries();
+  }
+
+  @Benchmark int postDeadEvent(int reps) throws Exception {
+    Object deadEvent = new Object();
+    for (int i = 0; i < reps; i++) {
+      busType.post(bus, deadEvent);
+    }
+    return deliveries();
+  }
+
+  @Benchmark int registerAndUnregister(int reps) {
+    Object listener = concurrent ? new ConcurrentListener() : new Listener();
     for (int i = 0; i < reps; i++) {
-      eventBus.post("hello there");
+      bus.register(listener);
+      bus.unregister(listener);
+    }
+    return listener.hashCode();
+  }
+
+  /**
+   * Waits until all the events posted so far have been delivered, and returns the number of
+   * deliveries.
+   */
+  private int deliveries() throws InterruptedException, ExecutionException {
+    if (busType.isAsync()) {
+      // the executor has a single thread, which runs its tasks in order
+      executor.submit(new Runnable() {
+        @Override public void run() {}
+      }).get();
+    }
+    int deliveries = 0;
+    for (Listener listener : listeners) {
+      deliveries += listener.count;
+    }
+    return deliveries;
+  }
+
+  /**
+   * Returns an event whose class extends {@link BaseEvent} through {@code depth} classes.
+   */
+  static Object newEvent(int depth) {
+    switch (depth) {
+      case 0:
+        return new BaseEvent();
+      case 1:
+        return new Depth1Event();
+      case 2:
+        return new Depth2Event();
+      case 3:
+        return new Depth3Event();
+      default:
+        throw new IllegalArgumentException("Unsupported hierarchy depth: " + depth);
     }
   }
 
-  @Subscribe
-  public void handleStrings(String string) {
-    // Nothing to do here.
+  public static class BaseEvent {}
+
+  public static class Depth1Event extends BaseEvent {}
+
+  public static class Depth2Event extends Depth1Event {}
+
+  public static class Depth3Event extends Depth2Event {}
+
+  /**
+   * Listener counting the events it receives, serialized by the bus.
+   */
+  public static class Listener {
+    int count;
+
+    @Subscribe
+    public void handle(BaseEvent event) {
+      count++;
+    }
+  }
+
+  /**
+   * Listener counting the events it receives, which the bus may call concurrently. The count may
+   * be off when it actually is called concurrently, which only matters to the contention
+   * benchmark, where it is not used.
+   */
+  public static class ConcurrentListener extends Listener {
+    @Subscribe
+    @AllowConcurrentEvents
+    @Override
+    public void handle(BaseEvent event) {
+      count++;
+    }
   }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.eventbus.EventBusBenchmark.BusType;
+import com.google.common.eventbus.EventBusBenchmark.ConcurrentListener;
+import com.google.common.eventbus.EventBusBenchmark.Listener;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmark for posting events to a bus from several threads at once. Each repetition has every
+ * posting thread post {@code postsPerThread} events, and waits until they have all been
+ * delivered.
+ *
+ * <p>With concurrent subscribers, this mostly measures the contention on the bus itself; with
+ * serialized subscribers, it also measures the contention on the subscribers.
+ */
+public class EventBusContentionBenchmark {
+
+  @Param BusType busType;
+
+  /** Number of threads posting events concurrently. */
+  @Param({"1", "2", "8"}) int postingThreads;
+
+  /** Number of listeners subscribing to the posted events. */
+  @Param({"1", "10"}) int subscriberCount;
+
+  /** Whether the subscriber methods are marked with {@link AllowConcurrentEvents}. */
+  @Param boolean concurrent;
+
+  /** Number of events each posting thread posts per repetition. */
+  @Param({"1000"}) int postsPerThread;
+
+  private ExecutorService postingExecutor;
+  private ExecutorService busExecutor;
+  private EventBus bus;
+
+  @BeforeExperiment void setUp() {
+    postingExecutor = Executors.newFixedThreadPool(postingThreads);
+    busExecutor = Executors.newSingleThreadExecutor();
+    bus = busType.newBus(busExecutor);
+    for (int i = 0; i < subscriberCount; i++) {
+      bus.register(concurrent ? new ConcurrentListener() : new Listener());
+    }
+  }
+
+  @AfterExperiment void tearDown() {
+    postingExecutor.shutdown();
+    busExecutor.shutdown();
+  }
+
+  @Benchmark int post(int reps) throws Exception {
+    final Object event = new EventBusBenchmark.BaseEvent();
+    int result = 0;
+    for (int i = 0; i < reps; i++) {
+      final CountDownLatch done = new CountDownLatch(postingThreads);
+      for (int j = 0; j < postingThreads; j++) {
+        postingExecutor.execute(new Runnable() {
+          @Override public void run() {
+            for (int k = 0; k < postsPerThread; k++) {
+              busType.post(bus, event);
+            }
+            done.countDown();
+          }
+        });
+      }
+      done.await();
+      if (busType.isAsync()) {
+        // the bus executor has a single thread, which runs its tasks in order
+        busExecutor.submit(new Runnable() {
+          @Override public void run() {}
+        }).get();
+      }
+      result += (int) done.getCount();
+    }
+    return result;
+  }
+}
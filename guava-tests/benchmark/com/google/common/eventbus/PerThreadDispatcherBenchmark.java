@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.Queues;
+
+import java.util.Queue;
+
+/**
+ * Benchmark of the {@linkplain Dispatcher#perThreadDispatchQueue() per-thread dispatcher}, compared
+ * with its previous implementation, which allocated a queue entry for every post and released its
+ * thread locals after every outermost dispatch.
+ */
+public class PerThreadDispatcherBenchmark {
+
+  enum Impl {
+    THREAD_LOCAL_QUEUE {
+      @Override Dispatcher dispatcher() {
+        return new ThreadLocalQueueDispatcher();
+      }
+    },
+    DISPATCH_CONTEXT {
+      @Override Dispatcher dispatcher() {
+        return Dispatcher.perThreadDispatchQueue();
+      }
+    };
+
+    abstract Dispatcher dispatcher();
+  }
+
+  @Param Impl impl;
+
+  /** Number of events each subscriber posts while handling an event. */
+  @Param({"0", "4"}) int reentrantPosts;
+
+  private Dispatcher dispatcher;
+  private Subscriber[] subscribers;
+  private Listener listener;
+
+  @BeforeExperiment void setUp() throws Exception {
+    dispatcher = impl.dispatcher();
+    listener = new Listener();
+    subscribers = new Subscriber[] {Subscriber.create(new EventBus(Subscribe.class), listener,
+        Listener.class.getMethod("handle", Integer.class))};
+  }
+
+  @Benchmark int dispatch(int reps) {
+    Integer event = reentrantPosts;
+    for (int i = 0; i < reps; i++) {
+      dispatcher.dispatch(event, subscribers);
+    }
+    return listener.count;
+  }
+
+  /**
+   * Listener posting {@code event} events to itself for each event it handles, unless
+   * {@code event} is 0.
+   */
+  public final class Listener {
+    int count;
+
+    @Subscribe
+    @AllowConcurrentEvents
+    public void handle(Integer event) {
+      count++;
+      for (int i = 0; i < event; i++) {
+        dispatcher.dispatch(0, subscribers);
+      }
+    }
+  }
+
+  /**
+   * The previous implementation of the per-thread dispatcher.
+   */
+  private static final class ThreadLocalQueueDispatcher extends Dispatcher {
+    private final ThreadLocal<Queue<Event>> queue =
+        new ThreadLocal<Queue<Event>>() {
+          @Override
+          protected Queue<Event> initialValue() {
+            return Queues.newArrayDeque();
+          }
+        };
+
+    private final ThreadLocal<Boolean> dispatching =
+        new ThreadLocal<Boolean>() {
+          @Override
+          protected Boolean initialValue() {
+            return false;
+          }
+        };
+
+    @Override
+    void dispatch(Object event, Subscriber[] subscribers) {
+      checkNotNull(event);
+      checkNotNull(subscribers);
+      Queue<Event> queueForThread = queue.get();
+      queueForThread.offer(new Event(event, subscribers));
+
+      if (!dispatching.get()) {
+        dispatching.set(true);
+        try {
+          Event nextEvent;
+          while ((nextEvent = queueForThread.poll()) != null) {
+            for (Subscriber subscriber : nextEvent.subscribers) {
+              if (subscriber.accepts(nextEvent.event)) {
+                subscriber.dispatchEvent(nextEvent.event);
+              }
+            }
+          }
+        } finally {
+          dispatching.remove();
+          queue.remove();
+        }
+      }
+    }
+
+    private static final class Event {
+      private final Object event;
+      private final Subscriber[] subscribers;
+
+      private Event(Object event, Subscriber[] subscribers) {
+        this.event = event;
+        this.subscribers = subscribers;
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import java.lang.reflect.Method;
+
+/**
+ * Benchmark comparing the generated {@link SubscriberInvoker} with the reflective one.
+ */
+public class SubscriberInvokerBenchmark {
+
+  enum Impl {
+    REFLECTIVE {
+      @Override SubscriberInvoker invoker(Method method) {
+        return SubscriberInvoker.reflective(method);
+      }
+    },
+    GENERATED {
+      @Override SubscriberInvoker invoker(Method method) {
+        SubscriberInvoker invoker = SubscriberInvoker.create(method);
+        if (!invoker.isGenerated()) {
+          throw new AssertionError("No accessor generated for " + method);
+        }
+        return invoker;
+      }
+    };
+
+    abstract SubscriberInvoker invoker(Method method);
+  }
+
+  @Param Impl impl;
+
+  private final Listener listener = new Listener();
+  private final Object event = new Object();
+  private SubscriberInvoker invoker;
+
+  @BeforeExperiment void setUp() throws Exception {
+    invoker = impl.invoker(Listener.class.getMethod("handle", Object.class));
+  }
+
+  @Benchmark int invoke(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      invoker.invoke(listener, event);
+    }
+    return listener.count;
+  }
+
+  /**
+   * Listener with a single, trivial, subscriber method.
+   */
+  public static class Listener {
+    int count;
+
+    public void handle(Object event) {
+      count++;
+    }
+  }
+}
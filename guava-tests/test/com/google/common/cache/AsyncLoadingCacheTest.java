@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.CacheTesting.toLocalCache;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests for {@link AsyncLoadingCache}.
+ */
+public class AsyncLoadingCacheTest extends TestCase {
+
+  /** Executor running its tasks when asked to. */
+  static class ManualExecutor implements Executor {
+    final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    @Override public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    int runAll() {
+      int count = 0;
+      for (Runnable task; (task = tasks.poll()) != null; ) {
+        task.run();
+        count++;
+      }
+      return count;
+    }
+  }
+
+  /** Loader recording the keys of each call to {@code load} or {@code loadAll}. */
+  static class BatchingLoader extends CacheLoader<Integer, String> {
+    final List<List<Integer>> batches = Lists.newArrayList();
+
+    @Override public String load(Integer key) {
+      batches.add(ImmutableList.of(key));
+      return "v" + key;
+    }
+
+    @Override public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) {
+      batches.add(ImmutableList.<Integer>copyOf(keys));
+      ImmutableMap.Builder<Integer, String> result = ImmutableMap.builder();
+      for (Integer key : keys) {
+        result.put(key, "v" + key);
+      }
+      return result.build();
+    }
+  }
+
+  public void testGet() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().recordStats().buildAsync(loader, directExecutor());
+
+    ListenableFuture<String> future = cache.get(1);
+    assertTrue(future.isDone());
+    assertEquals("v1", future.get());
+    assertEquals("v1", cache.get(1).get());
+    assertEquals(ImmutableList.of(ImmutableList.of(1)), loader.batches);
+
+    CacheStats stats = cache.synchronous().stats();
+    assertEquals(1, stats.missCount());
+    assertEquals(1, stats.hitCount());
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testGet_deduplicatesPendingLoads() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    ManualExecutor executor = new ManualExecutor();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    ListenableFuture<String> first = cache.get(1);
+    ListenableFuture<String> second = cache.get(1);
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+
+    assertEquals(1, executor.runAll());
+    assertEquals("v1", first.get());
+    assertEquals("v1", second.get());
+    assertEquals(ImmutableList.of(ImmutableList.of(1)), loader.batches);
+  }
+
+  public void testGet_coalescesConcurrentMisses() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    ManualExecutor executor = new ManualExecutor();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    ListenableFuture<String> one = cache.get(1);
+    ListenableFuture<String> two = cache.get(2);
+    ListenableFuture<ImmutableMap<Integer, String>> all = cache.getAll(ImmutableList.of(3, 2, 4));
+
+    assertEquals(1, executor.runAll());
+    assertEquals(ImmutableList.of(ImmutableList.of(1, 2, 3, 4)), loader.batches);
+    assertEquals("v1", one.get());
+    assertEquals("v2", two.get());
+    assertEquals(ImmutableMap.of(3, "v3", 2, "v2", 4, "v4"), all.get());
+    assertEquals(ImmutableList.of(3, 2, 4), all.get().keySet().asList());
+  }
+
+  public void testGetAll_recordsBatchOnce() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().recordStats().buildAsync(loader, directExecutor());
+
+    cache.getAll(ImmutableList.of(1, 2, 3)).get();
+    CacheStats stats = cache.synchronous().stats();
+    assertEquals(3, stats.missCount());
+    assertEquals(1, stats.loadSuccessCount());
+    assertEquals(0, stats.loadExceptionCount());
+    long loads = 0;
+    for (long count : toLocalCache(cache.synchronous()).diagnostics.loadTimeCounts()) {
+      loads += count;
+    }
+    assertEquals(1, loads);
+  }
+
+  public void testGetAll_present() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, directExecutor());
+
+    cache.synchronous().put(1, "one");
+    assertEquals(ImmutableMap.of(1, "one", 2, "v2"), cache.getAll(ImmutableList.of(1, 2)).get());
+    assertEquals(ImmutableList.of(ImmutableList.of(2)), loader.batches);
+  }
+
+  public void testGetAll_loadAllNotImplemented() throws Exception {
+    final List<Integer> loaded = Lists.newArrayList();
+    CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      @Override public String load(Integer key) {
+        loaded.add(key);
+        return "v" + key;
+      }
+    };
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, directExecutor());
+
+    assertEquals(ImmutableMap.of(1, "v1", 2, "v2"), cache.getAll(ImmutableList.of(1, 2)).get());
+    assertEquals(ImmutableList.of(1, 2), loaded);
+  }
+
+  public void testGetAll_missingValue() throws Exception {
+    CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      @Override public String load(Integer key) {
+        throw new AssertionError();
+      }
+
+      @Override public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) {
+        return ImmutableMap.of(1, "v1", 5, "v5");
+      }
+    };
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, directExecutor());
+
+    ListenableFuture<ImmutableMap<Integer, String>> all = cache.getAll(ImmutableList.of(1, 2));
+    try {
+      all.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof InvalidCacheLoadException);
+    }
+    // the values that were returned are kept, even if not requested
+    assertEquals(ImmutableSet.of(1, 5), cache.synchronous().asMap().keySet());
+  }
+
+  public void testGet_loadFailure() throws Exception {
+    final RuntimeException failure = new IllegalStateException();
+    CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      int calls;
+
+      @Override public String load(Integer key) {
+        if (calls++ == 0) {
+          throw failure;
+        }
+        return "v" + key;
+      }
+    };
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().recordStats().buildAsync(loader, directExecutor());
+
+    try {
+      cache.get(1).get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(failure, expected.getCause());
+    }
+    assertEquals(0, cache.synchronous().size());
+    assertEquals(1, cache.synchronous().stats().loadExceptionCount());
+
+    // a failed load is not cached
+    assertEquals("v1", cache.get(1).get());
+  }
+
+  public void testGet_nullValue() throws Exception {
+    CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      @Override public String load(Integer key) {
+        return null;
+      }
+    };
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, directExecutor());
+
+    try {
+      cache.get(1).get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof InvalidCacheLoadException);
+    }
+    assertEquals(0, cache.synchronous().size());
+  }
+
+  public void testGet_cancelDoesNotCancelLoad() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    ManualExecutor executor = new ManualExecutor();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    ListenableFuture<String> first = cache.get(1);
+    ListenableFuture<String> second = cache.get(1);
+    assertTrue(first.cancel(true));
+
+    executor.runAll();
+    assertEquals("v1", second.get());
+    assertEquals("v1", cache.synchronous().getIfPresent(1));
+  }
+
+  public void testGet_rejectedExecution() throws Exception {
+    final RuntimeException rejected = new IllegalStateException();
+    Executor executor = new Executor() {
+      @Override public void execute(Runnable task) {
+        throw rejected;
+      }
+    };
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(new BatchingLoader(), executor);
+
+    try {
+      cache.get(1).get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(rejected, expected.getCause());
+    }
+    assertEquals(0, cache.synchronous().size());
+  }
+
+  public void testSynchronous_waitsForPendingLoad() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    final ManualExecutor executor = new ManualExecutor();
+    final AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    cache.get(1);
+    Thread thread = new Thread() {
+      @Override public void run() {
+        executor.runAll();
+      }
+    };
+    thread.start();
+    // does not load again, but waits for the pending load
+    assertEquals("v1", cache.synchronous().get(1));
+    thread.join();
+    assertEquals(ImmutableList.of(ImmutableList.of(1)), loader.batches);
+  }
+
+  public void testRefresh_doesNotBlock() throws Exception {
+    BatchingLoader loader = new BatchingLoader();
+    ManualExecutor executor = new ManualExecutor();
+    AsyncLoadingCache<Integer, String> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    cache.get(1);
+    executor.runAll();
+    cache.refresh(1);
+    assertEquals("v1", cache.get(1).get());
+    assertEquals(1, loader.batches.size());
+
+    executor.runAll();
+    assertEquals(2, loader.batches.size());
+    assertEquals("v1", cache.get(1).get());
+  }
+}
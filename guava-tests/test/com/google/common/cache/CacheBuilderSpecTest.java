@@ -378,6 +378,42 @@ public class CacheBuilderSpecTest extends TestCase {
     }
   }
 
+  public void testParse_evictionPolicy() {
+    CacheBuilderSpec spec = parse("maximumSize=10,evictionPolicy=tiny_lfu");
+    assertEquals(EvictionPolicy.TINY_LFU, spec.evictionPolicy);
+    assertCacheBuilderEquivalence(
+        CacheBuilder.newBuilder().maximumSize(10).evictionPolicy(EvictionPolicy.TINY_LFU),
+        CacheBuilder.from(spec));
+    assertEquals(EvictionPolicy.LRU, parse("evictionPolicy=LRU").evictionPolicy);
+  }
+
+  public void testParse_evictionPolicyUnknown() {
+    try {
+      parse("evictionPolicy=fifo");
+      fail("Expected exception");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  public void testParse_evictionPolicyValueOmitted() {
+    try {
+      parse("evictionPolicy");
+      fail("Expected exception");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  public void testParse_evictionPolicyRepeated() {
+    try {
+      parse("evictionPolicy=lru,evictionPolicy=tiny_lfu");
+      fail("Expected exception");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
   public void testParse_accessExpirationAndWriteExpiration() {
     CacheBuilderSpec spec = parse("expireAfterAccess=10s,expireAfterWrite=9m");
     assertEquals(TimeUnit.MINUTES, spec.writeExpirationTimeUnit);
@@ -487,6 +523,8 @@ public class CacheBuilderSpecTest extends TestCase {
         .addEqualityGroup(parse("softValues"), parse("softValues"))
         .addEqualityGroup(parse("weakValues"), parse("weakValues"))
         .addEqualityGroup(parse("recordStats"), parse("recordStats"))
+        .addEqualityGroup(parse("evictionPolicy=lru"), parse("evictionPolicy=LRU"))
+        .addEqualityGroup(parse("evictionPolicy=tiny_lfu"), parse("evictionPolicy=TINY_LFU"))
         .testEquals();
   }
 
@@ -558,6 +596,7 @@ public class CacheBuilderSpecTest extends TestCase {
     assertEquals("weigher", a.weigher, b.weigher);
     assertEquals("valueEquivalence", a.valueEquivalence, b.valueEquivalence);
     assertEquals("valueStrength", a.valueStrength, b.valueStrength);
+    assertEquals("evictionPolicy", a.evictionPolicy, b.evictionPolicy);
     assertEquals("statsCounterSupplier", a.statsCounterSupplier, b.statsCounterSupplier);
     assertEquals("ticker", a.ticker, b.ticker);
     assertEquals("recordStats", a.isRecordingStats(), b.isRecordingStats());
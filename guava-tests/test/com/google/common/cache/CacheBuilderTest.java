@@ -22,6 +22,7 @@ import static com.google.common.cache.TestingRemovalListeners.countingRemovalLis
 import static com.google.common.cache.TestingRemovalListeners.nullRemovalListener;
 import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
 import static com.google.common.cache.TestingWeighers.constantWeigher;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -42,6 +43,7 @@ import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -163,6 +165,79 @@ public class CacheBuilderTest extends TestCase {
     } catch (IllegalStateException expected) {}
   }
 
+  @GwtIncompatible("evictionPolicy")
+  public void testEvictionPolicy_setTwice() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .evictionPolicy(EvictionPolicy.TINY_LFU);
+    try {
+      // even to the same value is not allowed
+      builder.evictionPolicy(EvictionPolicy.TINY_LFU);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("evictionPolicy")
+  public void testEvictionPolicy_withoutMaximumSize() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .evictionPolicy(EvictionPolicy.TINY_LFU);
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("expireAfter")
+  public void testExpireAfter_setTwice() {
+    Expiry<Object, Object> expiry = new Expiry<Object, Object>() {
+      @Override public long expireAfterCreate(Object key, Object value, long currentTime) {
+        return 0;
+      }
+    };
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().expireAfter(expiry);
+    try {
+      builder.expireAfter(expiry);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("expireAfter")
+  public void testExpireAfter_andExpireAfterWrite() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .expireAfterWrite(1, SECONDS)
+        .expireAfter(new Expiry<Object, Object>() {
+          @Override public long expireAfterCreate(Object key, Object value, long currentTime) {
+            return 0;
+          }
+        });
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("maintenanceExecutor")
+  public void testMaintenanceExecutor_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().maintenanceExecutor(directExecutor());
+    try {
+      builder.maintenanceExecutor(directExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("scheduleMaintenance")
+  public void testScheduleMaintenance_nonPositivePeriod() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      builder.scheduleMaintenance(scheduler, 0, SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
   @GwtIncompatible("maximumWeight")
   public void testMaximumSize_andWeight() {
     CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().maximumSize(16);
@@ -597,7 +672,8 @@ public class CacheBuilderTest extends TestCase {
 
   @GwtIncompatible("NullPointerTester")
   public void testNullParameters() throws Exception {
-    NullPointerTester tester = new NullPointerTester();
+    NullPointerTester tester = new NullPointerTester()
+        .setDefault(CacheLoader.class, identityLoader());
     CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
     tester.testAllPublicInstanceMethods(builder);
   }
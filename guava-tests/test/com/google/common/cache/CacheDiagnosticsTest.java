@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.CacheTesting.toLocalCache;
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.cache.CacheDiagnostics.Recorder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for {@link CacheDiagnostics}.
+ */
+public class CacheDiagnosticsTest extends TestCase {
+
+  public void testBucket() {
+    for (long nanos = 0; nanos < 8; nanos++) {
+      assertEquals(nanos, Recorder.bucket(nanos));
+      assertEquals(nanos, Recorder.upperBound((int) nanos));
+    }
+    assertEquals(8, Recorder.bucket(8));
+    assertEquals(8, Recorder.bucket(9));
+    assertEquals(9, Recorder.bucket(10));
+    assertEquals(9, Recorder.upperBound(8));
+    assertEquals(0, Recorder.bucket(-1));
+    assertEquals(Long.MAX_VALUE, Recorder.upperBound(Recorder.BUCKETS - 1));
+
+    // every time is counted by a bucket bounding it within 25%
+    for (long nanos = 1; nanos > 0; nanos += nanos / 3 + 1) {
+      long upperBound = Recorder.upperBound(Recorder.bucket(nanos));
+      assertTrue(upperBound >= nanos);
+      assertTrue(upperBound - nanos <= nanos / 4);
+      assertTrue(Recorder.bucket(upperBound + 1) > Recorder.bucket(nanos)
+          || upperBound == Long.MAX_VALUE);
+    }
+  }
+
+  public void testLoadTimePercentile() {
+    CacheDiagnostics diagnostics = diagnosticsWithLoadTimes(
+        ImmutableList.of(100L, 200L, 300L, 400L, 100000L));
+    assertEquals(Recorder.upperBound(Recorder.bucket(100)), diagnostics.loadTimePercentile(0));
+    assertEquals(Recorder.upperBound(Recorder.bucket(100)), diagnostics.loadTimePercentile(20));
+    assertEquals(Recorder.upperBound(Recorder.bucket(300)), diagnostics.loadTimePercentile(50));
+    assertEquals(Recorder.upperBound(Recorder.bucket(400)), diagnostics.loadTimePercentile(80));
+    assertEquals(
+        Recorder.upperBound(Recorder.bucket(100000)), diagnostics.loadTimePercentile(99));
+    assertEquals(
+        Recorder.upperBound(Recorder.bucket(100000)), diagnostics.loadTimePercentile(100));
+
+    try {
+      diagnostics.loadTimePercentile(101);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      diagnostics.loadTimePercentile(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testLoadTimePercentile_noLoads() {
+    CacheDiagnostics diagnostics = CacheDiagnostics.of(CacheBuilder.newBuilder().build());
+    assertEquals(0, diagnostics.loadTimePercentile(50));
+  }
+
+  public void testLoads() {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .build(new CacheLoader<Integer, Integer>() {
+          @Override public Integer load(Integer key) throws InterruptedException {
+            Thread.sleep(1);
+            return key;
+          }
+        });
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getAllPresent(ImmutableList.of(1, 2));
+
+    CacheDiagnostics diagnostics = CacheDiagnostics.of(cache);
+    assertEquals(2, diagnostics.stats().loadCount());
+    assertTrue(diagnostics.loadTimePercentile(0) >= MILLISECONDS.toNanos(1));
+    assertTrue(diagnostics.loadTimePercentile(100) >= diagnostics.loadTimePercentile(0));
+  }
+
+  public void testRemovalCount() {
+    FakeTicker ticker = new FakeTicker();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .expireAfterWrite(1, MINUTES)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+    cache.put(1, 1);
+    cache.put(1, 2);
+    cache.put(2, 2);
+    cache.put(3, 3);
+    cache.invalidate(3);
+    ticker.advance(2, MINUTES);
+    cache.cleanUp();
+
+    CacheDiagnostics diagnostics = CacheDiagnostics.of(cache);
+    assertEquals(1, diagnostics.removalCount(RemovalCause.REPLACED));
+    assertEquals(1, diagnostics.removalCount(RemovalCause.SIZE));
+    assertEquals(1, diagnostics.removalCount(RemovalCause.EXPLICIT));
+    assertEquals(1, diagnostics.removalCount(RemovalCause.EXPIRED));
+    assertEquals(0, diagnostics.removalCount(RemovalCause.COLLECTED));
+
+    long evictions = 0;
+    for (RemovalCause cause : RemovalCause.values()) {
+      if (cause.wasEvicted()) {
+        evictions += diagnostics.removalCount(cause);
+      }
+    }
+    assertEquals(diagnostics.stats().evictionCount(), evictions);
+  }
+
+  public void testWeightedSize() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .maximumWeight(1000)
+        .weigher(TestingWeighers.intValueWeigher())
+        .build();
+    cache.put(1, 10);
+    cache.put(2, 20);
+    assertEquals(30, CacheDiagnostics.of(cache).weightedSize());
+
+    cache.invalidate(1);
+    assertEquals(20, CacheDiagnostics.of(cache).weightedSize());
+  }
+
+  public void testWeightedSize_unweighted() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder().build();
+    cache.put(1, 10);
+    cache.put(2, 20);
+    assertEquals(2, CacheDiagnostics.of(cache).weightedSize());
+  }
+
+  public void testLockContention() throws InterruptedException {
+    final LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .recordStats()
+        .build(identityLoader());
+    LocalCache.Segment<?, ?> segment = toLocalCache(cache).segments[0];
+    final CountDownLatch started = new CountDownLatch(1);
+    Thread writer = new Thread() {
+      @Override public void run() {
+        started.countDown();
+        cache.put(1, 1);
+      }
+    };
+    segment.lock();
+    try {
+      writer.start();
+      started.await();
+      while (!segment.hasQueuedThreads()) {
+        Thread.yield();
+      }
+      Thread.sleep(10);
+    } finally {
+      segment.unlock();
+    }
+    writer.join();
+
+    CacheDiagnostics diagnostics = CacheDiagnostics.of(cache);
+    assertEquals(1, diagnostics.segmentCount());
+    assertEquals(1, diagnostics.contendedLockCount());
+    assertEquals(1, diagnostics.contendedLockCount(0));
+    assertTrue(diagnostics.lockWaitTime() > 0);
+    assertEquals(diagnostics.lockWaitTime(), diagnostics.lockWaitTime(0));
+    try {
+      diagnostics.lockWaitTime(1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+  }
+
+  public void testNotRecordingStats() {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(1)
+        .build(identityLoader());
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.invalidateAll();
+
+    CacheDiagnostics diagnostics = CacheDiagnostics.of(cache);
+    assertEquals(toLocalCache(cache).segments.length, diagnostics.segmentCount());
+    for (RemovalCause cause : RemovalCause.values()) {
+      assertEquals(0, diagnostics.removalCount(cause));
+    }
+    assertEquals(0, diagnostics.contendedLockCount());
+    assertEquals(0, diagnostics.lockWaitTime());
+    assertEquals(0, diagnostics.readDropCount());
+  }
+
+  public void testOf_notLocalCache() {
+    Cache<Integer, Integer> cache = new AbstractCache<Integer, Integer>() {
+      @Override public Integer getIfPresent(Object key) {
+        return null;
+      }
+    };
+    try {
+      CacheDiagnostics.of(cache);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  private static CacheDiagnostics diagnosticsWithLoadTimes(Iterable<Long> loadTimes) {
+    Recorder recorder = new Recorder();
+    for (long nanos : loadTimes) {
+      recorder.recordLoad(nanos);
+    }
+    return new CacheDiagnostics(new CacheStats(0, 0, 0, 0, 0, 0), recorder.loadTimeCounts(),
+        recorder.removalCounts(), 0, 0, new long[1], new long[1]);
+  }
+}
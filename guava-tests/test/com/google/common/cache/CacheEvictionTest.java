@@ -18,6 +18,7 @@ import static com.google.common.cache.TestingCacheLoaders.identityLoader;
 import static com.google.common.cache.TestingRemovalListeners.countingRemovalListener;
 import static com.google.common.cache.TestingWeighers.constantWeigher;
 import static com.google.common.cache.TestingWeighers.intKeyWeigher;
+import static com.google.common.cache.TestingWeighers.intValueWeigher;
 import static com.google.common.truth.Truth.assertThat;
 import static java.util.Arrays.asList;
 
@@ -250,6 +251,61 @@ public class CacheEvictionTest extends TestCase {
     assertThat(keySet).has().exactly(0, 7, 8, 15, 9, 1);
   }
 
+  public void testEviction_tinyLfu() {
+    // test frequency-based admission within a single segment
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .build(loader);
+    CacheTesting.warmUp(cache, 0, 10);
+    Set<Integer> keySet = cache.asMap().keySet();
+    assertThat(keySet).has().exactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+    // make 0 to 4 popular
+    for (int i = 0; i < 3; i++) {
+      getAll(cache, asList(0, 1, 2, 3, 4));
+      CacheTesting.drainRecencyQueues(cache);
+    }
+
+    // a scan of keys read once does not flush the popular keys, as an lru cache would
+    for (int i = 100; i < 200; i++) {
+      cache.getUnchecked(i);
+      CacheTesting.drainRecencyQueues(cache);
+    }
+    assertEquals(10, keySet.size());
+    assertThat(keySet).has().allOf(0, 1, 2, 3, 4);
+  }
+
+  public void testEviction_tinyLfu_updateNeverEvictsKey() {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(10)
+        .weigher(intValueWeigher())
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .build(identityLoader());
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, 1);
+    }
+    // make 0 to 8 popular, leaving 9 cold
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 9; j++) {
+        cache.getIfPresent(j);
+      }
+      CacheTesting.drainRecencyQueues(cache);
+    }
+
+    // the heavier values overflow the segment, but only other entries are evicted
+    cache.put(9, 2);
+    assertEquals(Integer.valueOf(2), cache.getIfPresent(9));
+    assertEquals(Integer.valueOf(2), cache.asMap().replace(9, 3));
+    assertEquals(Integer.valueOf(3), cache.getIfPresent(9));
+    assertTrue(cache.asMap().replace(9, 3, 4));
+    assertEquals(Integer.valueOf(4), cache.getIfPresent(9));
+    assertEquals(7, cache.size());
+  }
+
   public void testEviction_overweight() {
     // test weighted lru within a single segment
     IdentityLoader<Integer> loader = identityLoader();
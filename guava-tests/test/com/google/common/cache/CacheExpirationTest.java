@@ -18,7 +18,10 @@ import static com.google.common.cache.TestingCacheLoaders.identityLoader;
 import static com.google.common.cache.TestingRemovalListeners.countingRemovalListener;
 import static com.google.common.truth.Truth.assertThat;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.cache.TestingCacheLoaders.IdentityLoader;
 import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
@@ -30,7 +33,9 @@ import junit.framework.TestCase;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -70,6 +75,18 @@ public class CacheExpirationTest extends TestCase {
     checkExpiration(cache, loader, ticker, removalListener);
   }
 
+  public void testExpiration_expireAfter() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<String, Integer> removalListener = countingRemovalListener();
+    WatchedCreatorLoader loader = new WatchedCreatorLoader();
+    LoadingCache<String, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfter(new FixedExpiry(EXPIRING_TIME, MILLISECONDS))
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(loader);
+    checkExpiration(cache, loader, ticker, removalListener);
+  }
+
   private void checkExpiration(LoadingCache<String, Integer> cache, WatchedCreatorLoader loader,
       FakeTicker ticker, CountingRemovalListener<String, Integer> removalListener) {
 
@@ -119,6 +136,18 @@ public class CacheExpirationTest extends TestCase {
     runExpirationTest(cache, loader, ticker, removalListener);
   }
 
+  public void testExpiringGet_expireAfter() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<String, Integer> removalListener = countingRemovalListener();
+    WatchedCreatorLoader loader = new WatchedCreatorLoader();
+    LoadingCache<String, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfter(new FixedExpiry(EXPIRING_TIME, MILLISECONDS))
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(loader);
+    runExpirationTest(cache, loader, ticker, removalListener);
+  }
+
   private void runExpirationTest(LoadingCache<String, Integer> cache, WatchedCreatorLoader loader,
       FakeTicker ticker, CountingRemovalListener<String, Integer> removalListener) {
 
@@ -394,6 +423,164 @@ public class CacheExpirationTest extends TestCase {
     assertThat(keySet).has().exactly(3, 6);
   }
 
+  public void testExpirationOrder_variable() {
+    // each key lives for as many seconds as its value
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfter(new Expiry<Integer, Integer>() {
+          @Override public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return SECONDS.toNanos(value);
+          }
+        })
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    for (int i = 1; i <= 5; i++) {
+      cache.getUnchecked(i);
+    }
+    // values longer than the first levels of the timer wheel
+    cache.put(6, (int) MINUTES.toSeconds(10));
+    cache.put(7, (int) DAYS.toSeconds(3));
+
+    Set<Integer> keySet = cache.asMap().keySet();
+    assertThat(keySet).has().exactly(1, 2, 3, 4, 5, 6, 7);
+
+    ticker.advance(2500, MILLISECONDS);
+    assertThat(keySet).has().exactly(3, 4, 5, 6, 7);
+
+    // replacing a value restarts its expiration
+    cache.put(3, 10);
+    ticker.advance(5, SECONDS);
+    assertThat(keySet).has().exactly(3, 6, 7);
+
+    cache.cleanUp();
+    // four expired entries and a replaced one
+    assertEquals(5, removalListener.getCount());
+    assertEquals(3, cache.size());
+
+    ticker.advance(10, MINUTES);
+    cache.cleanUp();
+    assertThat(keySet).has().exactly(7);
+    assertEquals(1, cache.size());
+
+    ticker.advance(3, DAYS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(8, removalListener.getCount());
+    assertEquals(Integer.valueOf(7), removalListener.getLastEvictedKey());
+    assertSame(RemovalCause.EXPIRED, removalListener.getLastNotification().getCause());
+  }
+
+  public void testExpirationOrder_variableAfterRead() {
+    FakeTicker ticker = new FakeTicker();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfter(new Expiry<Integer, Integer>() {
+          @Override public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return SECONDS.toNanos(10);
+          }
+
+          @Override public long expireAfterRead(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            // odd keys are kept alive by reads
+            return (key % 2 == 0) ? currentDuration : SECONDS.toNanos(10);
+          }
+        })
+        .ticker(ticker)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    for (int i = 0; i < 4; i++) {
+      cache.getUnchecked(i);
+    }
+
+    ticker.advance(8, SECONDS);
+    getAll(cache, asList(0, 1, 2, 3));
+    ticker.advance(8, SECONDS);
+    cache.cleanUp();
+    assertThat(cache.asMap().keySet()).has().exactly(1, 3);
+    assertEquals(2, cache.size());
+
+    ticker.advance(8, SECONDS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+  }
+
+  public void testExpiration_variableReadShortens() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfter(new Expiry<Integer, Integer>() {
+          @Override public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return DAYS.toNanos(1);
+          }
+
+          @Override public long expireAfterRead(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            return SECONDS.toNanos(1);
+          }
+        })
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    cache.getUnchecked(1);
+    assertEquals(Integer.valueOf(1), cache.getIfPresent(1));
+
+    ticker.advance(2, SECONDS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(1, removalListener.getCount());
+    assertSame(RemovalCause.EXPIRED, removalListener.getLastNotification().getCause());
+  }
+
+  public void testExpiration_variableReadShortens_lockHeld() throws InterruptedException {
+    FakeTicker ticker = new FakeTicker();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfter(new Expiry<Integer, Integer>() {
+          @Override public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return DAYS.toNanos(1);
+          }
+
+          @Override public long expireAfterRead(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            return SECONDS.toNanos(1);
+          }
+        })
+        .ticker(ticker)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    cache.getUnchecked(1);
+
+    // the read does not wait for the lock, and leaves the entry to the next drain
+    final LocalCache.Segment<Integer, Integer> segment =
+        CacheTesting.toLocalCache(cache).segments[0];
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch read = new CountDownLatch(1);
+    Thread holder = new Thread() {
+      @Override public void run() {
+        segment.lock();
+        try {
+          locked.countDown();
+          read.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        } finally {
+          segment.unlock();
+        }
+      }
+    };
+    holder.start();
+    locked.await();
+    assertEquals(Integer.valueOf(1), cache.getIfPresent(1));
+    read.countDown();
+    holder.join();
+
+    ticker.advance(2, SECONDS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+  }
+
   private void runRemovalScheduler(LoadingCache<String, Integer> cache,
       CountingRemovalListener<String, Integer> removalListener,
       WatchedCreatorLoader loader,
@@ -446,6 +633,19 @@ public class CacheExpirationTest extends TestCase {
     }
   }
 
+  /** Expires every entry after the same duration, as if it expired after write. */
+  private static class FixedExpiry extends Expiry<Object, Object> {
+    final long nanos;
+
+    FixedExpiry(long duration, TimeUnit unit) {
+      this.nanos = unit.toNanos(duration);
+    }
+
+    @Override public long expireAfterCreate(Object key, Object value, long currentTime) {
+      return nanos;
+    }
+  }
+
   private static class WatchedCreatorLoader extends CacheLoader<String, Integer> {
     boolean wasCalled = false; // must be set in load()
     String keyPrefix = KEY_PREFIX;
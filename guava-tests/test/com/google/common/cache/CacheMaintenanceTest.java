@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+import static com.google.common.cache.TestingRemovalListeners.countingRemovalListener;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.AsyncLoadingCacheTest.ManualExecutor;
+import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Tests for {@link CacheBuilder#maintenanceExecutor} and {@link CacheBuilder#scheduleMaintenance}.
+ */
+public class CacheMaintenanceTest extends TestCase {
+
+  public void testMaintenanceExecutor_notificationsAfterWrite() {
+    ManualExecutor executor = new ManualExecutor();
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maintenanceExecutor(executor)
+        .removalListener(removalListener)
+        .build();
+
+    cache.put(1, 1);
+    // nothing to do after a write without notifications
+    assertTrue(executor.tasks.isEmpty());
+
+    cache.invalidate(1);
+    cache.put(2, 2);
+    cache.invalidate(2);
+    assertEquals(0, removalListener.getCount());
+
+    // the segment only has one pending task
+    assertEquals(1, executor.runAll());
+    assertEquals(2, removalListener.getCount());
+  }
+
+  public void testMaintenanceExecutor_cleanUpAfterReads() {
+    FakeTicker ticker = new FakeTicker();
+    ManualExecutor executor = new ManualExecutor();
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfterWrite(1, SECONDS)
+        .maintenanceExecutor(executor)
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(identityLoader());
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    ticker.advance(2, SECONDS);
+    cache.put(3, 3);
+    // the write expired the entries, but did not notify the listener
+    assertEquals(1, cache.size());
+    assertEquals(0, removalListener.getCount());
+    executor.runAll();
+    assertEquals(2, removalListener.getCount());
+
+    // reads do not expire entries themselves
+    ticker.advance(2, SECONDS);
+    for (int i = 0; i <= LocalCache.DRAIN_THRESHOLD; i++) {
+      assertNull(cache.getIfPresent(3));
+    }
+    assertEquals(1, cache.size());
+    assertEquals(1, executor.runAll());
+    assertEquals(0, cache.size());
+    assertEquals(3, removalListener.getCount());
+  }
+
+  public void testMaintenanceExecutor_rejected() {
+    Executor executor = new Executor() {
+      @Override public void execute(Runnable task) {
+        throw new RejectedExecutionException();
+      }
+    };
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .maintenanceExecutor(executor)
+        .removalListener(removalListener)
+        .build();
+
+    cache.put(1, 1);
+    cache.invalidate(1);
+    // maintenance ran on the calling thread instead
+    assertEquals(1, removalListener.getCount());
+  }
+
+  public void testScheduleMaintenance_idleCache() throws InterruptedException {
+    FakeTicker ticker = new FakeTicker();
+    final CountDownLatch removed = new CountDownLatch(2);
+    RemovalListener<Integer, Integer> removalListener = new RemovalListener<Integer, Integer>() {
+      @Override public void onRemoval(RemovalNotification<Integer, Integer> notification) {
+        assertEquals(RemovalCause.EXPIRED, notification.getCause());
+        removed.countDown();
+      }
+    };
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+          .expireAfterAccess(1, SECONDS)
+          .scheduleMaintenance(scheduler, 10, MILLISECONDS)
+          .removalListener(removalListener)
+          .ticker(ticker)
+          .build();
+      cache.put(1, 1);
+      cache.put(2, 2);
+
+      // the cache is no longer used, but its entries still expire
+      ticker.advance(2, SECONDS);
+      assertTrue(removed.await(10, SECONDS));
+      assertEquals(0, cache.size());
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.CacheTesting.toLocalCache;
+import static com.google.common.cache.DiskStoreTest.INTEGER;
+import static com.google.common.cache.OffHeapCacheTest.UTF_8;
+import static com.google.common.cache.TestingRemovalListeners.countingRemovalListener;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the overflow of the entries evicted from a cache to disk, with
+ * {@link CacheBuilder#overflowToDisk}.
+ */
+public class CacheOverflowTest extends TestCase {
+
+  private File file;
+  private CountingLoader loader;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("CacheOverflowTest", ".tmp");
+    loader = new CountingLoader();
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  public void testOverflow() {
+    CountingRemovalListener<Integer, String> removalListener = countingRemovalListener();
+    LoadingCache<Integer, String> cache = newBuilder()
+        .removalListener(removalListener)
+        .recordStats()
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    assertEquals(1, removalListener.getCount());
+    assertEquals(1, overflow(cache).size());
+
+    // loaded from the disk, which evicts 2 in turn
+    assertEquals("value-1", cache.getUnchecked(1));
+    assertEquals(3, loader.count.get());
+    assertEquals(4, cache.stats().loadSuccessCount());
+    assertEquals(1, overflow(cache).size());
+    assertEquals("value-2", cache.getUnchecked(2));
+    assertEquals(3, loader.count.get());
+  }
+
+  public void testOverflow_getIfPresent() {
+    LoadingCache<Integer, String> cache = newBuilder().build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    assertNull(cache.getIfPresent(1));
+    assertEquals(1, overflow(cache).size());
+  }
+
+  public void testOverflow_invalidate() {
+    LoadingCache<Integer, String> cache = newBuilder().build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    cache.invalidate(1);
+    assertEquals(0, overflow(cache).size());
+    cache.getUnchecked(1);
+    assertEquals(4, loader.count.get());
+
+    cache.invalidateAll();
+    assertEquals(0, overflow(cache).size());
+  }
+
+  public void testOverflow_put() {
+    LoadingCache<Integer, String> cache = newBuilder().build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    cache.put(1, "one");
+    // 2 was evicted in turn
+    assertNull(overflow(cache).remove(1));
+    assertEquals("one", cache.getUnchecked(1));
+  }
+
+  public void testOverflow_putBeforeNotification() {
+    LoadingCache<Integer, String> cache = newBuilder()
+        .removalListener(TestingRemovalListeners.<Integer, String>nullRemovalListener())
+        .build(loader);
+    LocalCache.Segment<?, ?> segment = toLocalCache(cache).segments[0];
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    // holding the lock defers the removal notifications
+    segment.lock();
+    try {
+      cache.getUnchecked(3);
+      cache.put(1, "one");
+    } finally {
+      segment.unlock();
+    }
+    cache.cleanUp();
+    assertNull(overflow(cache).remove(1));
+
+    LoadingCache<Integer, String> restarted = newBuilder().build(loader);
+    assertEquals("value-1", restarted.getUnchecked(1));
+    assertEquals(4, loader.count.get());
+  }
+
+  public void testOverflow_restart() {
+    LoadingCache<Integer, String> cache = newBuilder().build(loader);
+    for (int i = 0; i < 10; i++) {
+      cache.getUnchecked(i);
+    }
+    cache.cleanUp();
+
+    LoadingCache<Integer, String> restarted = newBuilder().build(loader);
+    for (int i = 0; i < 8; i++) {
+      assertEquals("value-" + i, restarted.getUnchecked(i));
+    }
+    assertEquals(10, loader.count.get());
+  }
+
+  public void testOverflowToDisk_requiresMaximumSize() {
+    CacheBuilder<Integer, String> builder =
+        CacheBuilder.newBuilder().overflowToDisk(file, 1024, INTEGER, UTF_8);
+    try {
+      builder.build(loader);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testOverflowToDisk_expiration() {
+    try {
+      newBuilder().expireAfterWrite(1, MINUTES).build(loader);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      newBuilder().expireAfterAccess(1, MINUTES).build(loader);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      newBuilder().refreshAfterWrite(1, MINUTES).build(loader);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      newBuilder().expireAfter(new Expiry<Integer, String>() {
+        @Override public long expireAfterCreate(Integer key, String value, long currentTime) {
+          return Long.MAX_VALUE;
+        }
+      }).build(loader);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testOverflowToDisk_setTwice() {
+    CacheBuilder<Integer, String> builder =
+        CacheBuilder.newBuilder().overflowToDisk(file, 1024, INTEGER, UTF_8);
+    try {
+      builder.overflowToDisk(file, 1024, INTEGER, UTF_8);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testOverflowToDisk_tooSmall() {
+    try {
+      CacheBuilder.newBuilder().overflowToDisk(file, 10, INTEGER, UTF_8);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  private CacheBuilder<Integer, String> newBuilder() {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .overflowToDisk(file, 1024, INTEGER, UTF_8);
+  }
+
+  private static DiskStore<?, ?> overflow(Cache<?, ?> cache) {
+    return toLocalCache(cache).overflow;
+  }
+
+  static final class CountingLoader extends CacheLoader<Integer, String> {
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public String load(Integer key) {
+      count.incrementAndGet();
+      return "value-" + key;
+    }
+  }
+}
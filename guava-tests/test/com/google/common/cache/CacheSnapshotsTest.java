@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.DiskStoreTest.INTEGER;
+import static com.google.common.cache.OffHeapCacheTest.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link CacheSnapshots}.
+ */
+public class CacheSnapshotsTest extends TestCase {
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final ByteSink sink = new ByteSink() {
+    @Override public OutputStream openStream() {
+      bytes.reset();
+      return bytes;
+    }
+  };
+
+  public void testEntries() throws IOException {
+    Cache<Integer, String> cache = newCache();
+    assertEquals(5, CacheSnapshots.writeEntries(cache, 10, INTEGER, UTF_8, sink));
+
+    Cache<Integer, String> restored = CacheBuilder.newBuilder().build();
+    assertEquals(5, CacheSnapshots.readEntries(snapshot(), INTEGER, UTF_8, restored));
+    assertEquals(cache.asMap(), restored.asMap());
+  }
+
+  public void testEntries_hottestFirst() throws IOException {
+    Cache<Integer, String> cache = newCache();
+    CacheSnapshots.writeEntries(cache, 10, INTEGER, UTF_8, sink);
+    assertEquals(ImmutableList.of(2, 5, 4, 3, 1), CacheSnapshots.readKeys(snapshot(), INTEGER));
+
+    // the restored cache uses its entries in the same order
+    Cache<Integer, String> restored = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .build();
+    CacheSnapshots.readEntries(snapshot(), INTEGER, UTF_8, restored);
+    CacheSnapshots.writeKeys(restored, 10, INTEGER, sink);
+    assertEquals(ImmutableList.of(2, 5, 4, 3, 1), CacheSnapshots.readKeys(snapshot(), INTEGER));
+  }
+
+  public void testEntries_offHeap() throws IOException {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .buildOffHeap(UTF_8);
+    for (int i = 1; i <= 5; i++) {
+      cache.put(i, "value-" + i);
+    }
+    cache.getIfPresent(2);
+    assertEquals(5, CacheSnapshots.writeEntries(cache, 10, INTEGER, UTF_8, sink));
+    assertEquals(ImmutableList.of(2, 5, 4, 3, 1), CacheSnapshots.readKeys(snapshot(), INTEGER));
+
+    Cache<Integer, String> restored = CacheBuilder.newBuilder().buildOffHeap(UTF_8);
+    assertEquals(5, CacheSnapshots.readEntries(snapshot(), INTEGER, UTF_8, restored));
+    assertEquals("value-3", restored.getIfPresent(3));
+
+    assertEquals(2, CacheSnapshots.writeKeys(cache, 2, INTEGER, sink));
+    assertEquals(ImmutableList.of(2, 5), CacheSnapshots.readKeys(snapshot(), INTEGER));
+  }
+
+  public void testKeys_limit() throws IOException {
+    Cache<Integer, String> cache = newCache();
+    assertEquals(2, CacheSnapshots.writeKeys(cache, 2, INTEGER, sink));
+    assertEquals(ImmutableList.of(2, 5), CacheSnapshots.readKeys(snapshot(), INTEGER));
+
+    assertEquals(0, CacheSnapshots.writeKeys(cache, 0, INTEGER, sink));
+    assertEquals(ImmutableList.of(), CacheSnapshots.readKeys(snapshot(), INTEGER));
+  }
+
+  public void testKeys_loadAgain() throws Exception {
+    Cache<Integer, String> cache = newCache();
+    CacheSnapshots.writeKeys(cache, 10, INTEGER, sink);
+
+    final AtomicInteger loads = new AtomicInteger();
+    LoadingCache<Integer, String> restored = CacheBuilder.newBuilder()
+        .build(new CacheLoader<Integer, String>() {
+          @Override public String load(Integer key) {
+            loads.incrementAndGet();
+            return "value-" + key;
+          }
+        });
+    ImmutableMap<Integer, String> loaded =
+        restored.getAll(CacheSnapshots.readKeys(snapshot(), INTEGER));
+    assertEquals(5, loads.get());
+    assertEquals(cache.asMap(), loaded);
+  }
+
+  public void testKeys_unorderedCache() throws IOException {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().build();
+    for (int i = 0; i < 5; i++) {
+      cache.put(i, "value-" + i);
+    }
+    assertEquals(3, CacheSnapshots.writeKeys(cache, 3, INTEGER, sink));
+    ImmutableList<Integer> keys = CacheSnapshots.readKeys(snapshot(), INTEGER);
+    assertEquals(3, ImmutableSet.copyOf(keys).size());
+    assertTrue(cache.asMap().keySet().containsAll(keys));
+  }
+
+  public void testReadEntries_keysSnapshot() throws IOException {
+    CacheSnapshots.writeKeys(newCache(), 10, INTEGER, sink);
+    Cache<Integer, String> restored = CacheBuilder.newBuilder().build();
+    try {
+      CacheSnapshots.readEntries(snapshot(), INTEGER, UTF_8, restored);
+      fail();
+    } catch (IOException expected) {}
+    assertEquals(0, restored.size());
+  }
+
+  public void testReadKeys_notSnapshot() {
+    try {
+      CacheSnapshots.readKeys(ByteSource.wrap(new byte[] {1, 2, 3, 4, 5}), INTEGER);
+      fail();
+    } catch (IOException expected) {}
+  }
+
+  public void testWriteKeys_negativeLimit() throws IOException {
+    try {
+      CacheSnapshots.writeKeys(newCache(), -1, INTEGER, sink);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  /** Returns a cache of five entries, in the order 2, 5, 4, 3, 1 from the most recently used. */
+  private static Cache<Integer, String> newCache() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .build();
+    for (int i = 1; i <= 5; i++) {
+      cache.put(i, "value-" + i);
+    }
+    cache.getIfPresent(2);
+    return cache;
+  }
+
+  private ByteSource snapshot() {
+    return ByteSource.wrap(bytes.toByteArray());
+  }
+}
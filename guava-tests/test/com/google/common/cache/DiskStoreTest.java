@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.OffHeapCacheTest.UTF_8;
+
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link DiskStore}.
+ */
+public class DiskStoreTest extends TestCase {
+
+  /** Serializes integers as four bytes. */
+  static final ValueSerializer<Integer> INTEGER = new ValueSerializer<Integer>() {
+    @Override public byte[] serialize(Integer value) {
+      return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    @Override public Integer deserialize(ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+  };
+
+  // a record of an integer key and a value of 7 characters
+  private static final int RECORD_SIZE = 9 + 4 + 7;
+
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("DiskStoreTest", ".tmp");
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  public void testPutAndRemove() throws IOException {
+    DiskStore<Integer, String> store = open(1024);
+    assertNull(store.remove(1));
+    store.put(1, "one");
+    store.put(2, "");
+    assertEquals(2, store.size());
+    assertEquals("one", store.remove(1));
+    assertNull(store.remove(1));
+    assertEquals("", store.remove(2));
+    assertEquals(0, store.size());
+  }
+
+  public void testPut_replaces() throws IOException {
+    DiskStore<Integer, String> store = open(1024);
+    store.put(1, "one");
+    store.put(1, "uno");
+    assertEquals(1, store.size());
+    assertEquals(2, store.recordCount());
+    assertEquals("uno", store.remove(1));
+  }
+
+  public void testPut_tooLarge() throws IOException {
+    DiskStore<Integer, String> store = open(DiskStore.HEADER_SIZE + RECORD_SIZE);
+    store.put(1, "value-1");
+    store.put(2, "value-22");
+    assertEquals(1, store.size());
+    assertNull(store.remove(2));
+    assertEquals("value-1", store.remove(1));
+  }
+
+  public void testInvalidate() throws IOException {
+    DiskStore<Integer, String> store = open(1024);
+    store.put(1, "one");
+    store.put(2, "two");
+    store.invalidate(1);
+    store.invalidate(3);
+    assertNull(store.remove(1));
+    assertEquals(1, store.size());
+
+    store.invalidateAll();
+    assertEquals(0, store.size());
+    assertEquals(0, store.recordCount());
+    assertNull(store.remove(2));
+  }
+
+  public void testPut_dropsOldestRecords() throws IOException {
+    DiskStore<Integer, String> store = open(DiskStore.HEADER_SIZE + 5 * RECORD_SIZE);
+    for (int i = 0; i < 5; i++) {
+      store.put(i, "value-" + i);
+    }
+    assertEquals(5, store.size());
+
+    store.put(5, "value-5");
+    assertEquals(5, store.size());
+    assertNull(store.remove(0));
+    store.put(6, "value-6");
+    assertNull(store.remove(1));
+    for (int i = 2; i <= 6; i++) {
+      assertEquals("value-" + i, store.remove(i));
+    }
+  }
+
+  public void testPut_reclaimsDeadRecords() throws IOException {
+    DiskStore<Integer, String> store = open(DiskStore.HEADER_SIZE + 5 * RECORD_SIZE);
+    store.put(0, "value-0");
+    for (int i = 1; i < 100; i++) {
+      store.put(i, "value-" + (i % 10));
+      store.invalidate(i);
+    }
+    // the oldest record was overwritten
+    assertEquals(0, store.size());
+    assertNull(store.remove(0));
+  }
+
+  public void testRecover() throws IOException {
+    DiskStore<Integer, String> store = open(DiskStore.HEADER_SIZE + 5 * RECORD_SIZE);
+    for (int i = 0; i < 7; i++) {
+      store.put(i, "value-" + i);
+    }
+    store.invalidate(4);
+    store.force();
+
+    DiskStore<Integer, String> recovered = open(DiskStore.HEADER_SIZE + 5 * RECORD_SIZE);
+    assertEquals(4, recovered.size());
+    assertNull(recovered.remove(1));
+    assertNull(recovered.remove(4));
+    assertEquals("value-2", recovered.remove(2));
+    assertEquals("value-6", recovered.remove(6));
+  }
+
+  public void testRecover_otherSize() throws IOException {
+    DiskStore<Integer, String> store = open(1024);
+    store.put(1, "one");
+    assertEquals(0, open(2048).size());
+  }
+
+  public void testRecover_corruptedFile() throws IOException {
+    DiskStore<Integer, String> store = open(1024);
+    store.put(1, "one");
+    store.put(2, "two");
+    store.force();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      // the key length of the first record
+      raf.seek(DiskStore.HEADER_SIZE);
+      raf.writeInt(1 << 20);
+    } finally {
+      raf.close();
+    }
+    DiskStore<Integer, String> recovered = open(1024);
+    assertEquals(0, recovered.size());
+    recovered.put(3, "three");
+    assertEquals("three", recovered.remove(3));
+  }
+
+  public void testPut_random() throws IOException {
+    Random random = new Random(0);
+    DiskStore<Integer, String> store = open(DiskStore.HEADER_SIZE + 1000);
+    Map<Integer, String> expected = Maps.newHashMap();
+    for (int i = 0; i < 10000; i++) {
+      int key = random.nextInt(50);
+      switch (random.nextInt(4)) {
+        case 0:
+          store.invalidate(key);
+          expected.remove(key);
+          break;
+        case 1:
+          String value = store.remove(key);
+          if (value != null) {
+            assertEquals(expected.get(key), value);
+          }
+          expected.remove(key);
+          break;
+        default:
+          StringBuilder builder = new StringBuilder();
+          for (int length = random.nextInt(100); length > 0; length--) {
+            builder.append((char) ('a' + random.nextInt(26)));
+          }
+          store.put(key, builder.toString());
+          expected.put(key, builder.toString());
+      }
+    }
+
+    // only old records may be missing, also after recovering them
+    DiskStore<Integer, String> recovered = open(DiskStore.HEADER_SIZE + 1000);
+    assertEquals(store.size(), recovered.size());
+    for (int key = 0; key < 50; key++) {
+      String value = recovered.remove(key);
+      if (value != null) {
+        assertEquals(expected.get(key), value);
+      }
+    }
+  }
+
+  private DiskStore<Integer, String> open(int size) throws IOException {
+    return DiskStore.open(file, size, INTEGER, UTF_8);
+  }
+}
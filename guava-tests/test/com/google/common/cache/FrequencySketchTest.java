@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FrequencySketch}.
+ */
+public class FrequencySketchTest extends TestCase {
+
+  public void testFrequency_unknown() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    assertEquals(0, sketch.frequency(42));
+  }
+
+  public void testIncrement() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    for (int i = 1; i <= 10; i++) {
+      sketch.increment(42);
+      assertEquals(i, sketch.frequency(42));
+    }
+  }
+
+  public void testIncrement_saturates() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(42);
+    }
+    assertEquals(15, sketch.frequency(42));
+  }
+
+  public void testIncrement_negativeHash() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    sketch.increment(-1);
+    sketch.increment(Integer.MIN_VALUE);
+    sketch.increment(Integer.MIN_VALUE);
+    assertTrue(sketch.frequency(-1) >= 1);
+    assertTrue(sketch.frequency(Integer.MIN_VALUE) >= 2);
+  }
+
+  public void testReset() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    for (int i = 0; i < 15; i++) {
+      sketch.increment(42);
+    }
+    // the sketch of 64 words is halved after 640 increments
+    boolean reset = false;
+    for (int i = 1; i < 640; i++) {
+      sketch.increment(1000 + i);
+      if (sketch.frequency(42) < 15) {
+        reset = true;
+        break;
+      }
+    }
+    assertTrue(reset);
+    assertEquals(7, sketch.frequency(42));
+  }
+
+  public void testZeroMaximumSize() {
+    FrequencySketch sketch = new FrequencySketch(0);
+    sketch.increment(42);
+    assertEquals(1, sketch.frequency(42));
+  }
+}
@@ -1977,6 +1977,22 @@ public class LocalCacheTest extends TestCase {
     }
   }
 
+  public void testRecordRead_drainsFullBuffer() {
+    LocalCache<Object, Object> map = makeLocalCache(
+        createCacheBuilder().concurrencyLevel(1).maximumSize(10).recordStats());
+    Segment<Object, Object> segment = map.segments[0];
+    Object key = new Object();
+    ReferenceEntry<Object, Object> entry =
+        createDummyEntry(key, map.hash(key), new Object(), null);
+    segment.recordWrite(entry, 1, map.ticker.read());
+
+    // without postReadCleanup, reads overflow the buffer while the lock is available
+    for (int i = 0; i < 4 * ReadBuffer.STRIPE_CAPACITY; i++) {
+      segment.recordRead(entry, map.ticker.read());
+    }
+    assertEquals(0, map.diagnostics.readDrops.sum());
+  }
+
   public void testRecordReadOnGet() {
     for (CacheBuilder<Object, Object> builder : allEvictingMakers()) {
       LocalCache<Object, Object> map = makeLocalCache(builder.concurrencyLevel(1));
@@ -2248,7 +2264,7 @@ public class LocalCacheTest extends TestCase {
       it.next();
       it.remove();
     }
-    segment.evictEntries();
+    segment.evictEntries(entry);
     assertEquals(maxSize, map.size());
     assertEquals(originalMap, map);
   }
@@ -2680,6 +2696,42 @@ public class LocalCacheTest extends TestCase {
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
       this.previousWrite = previous;
     }
+
+    private long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
+
+    private ReferenceEntry<K, V> nextInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      return nextInTimerWheel;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      this.nextInTimerWheel = next;
+    }
+
+    private ReferenceEntry<K, V> previousInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      return previousInTimerWheel;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      this.previousInTimerWheel = previous;
+    }
   }
 
   static class DummyValueReference<K, V> implements ValueReference<K, V> {
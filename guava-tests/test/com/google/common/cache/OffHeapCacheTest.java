@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Callables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link CacheBuilder#buildOffHeap}.
+ */
+public class OffHeapCacheTest extends TestCase {
+
+  /** Serializes strings as UTF-8. */
+  static final ValueSerializer<String> UTF_8 = new ValueSerializer<String>() {
+    @Override public byte[] serialize(String value) {
+      return value.getBytes(Charsets.UTF_8);
+    }
+
+    @Override public String deserialize(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return new String(bytes, Charsets.UTF_8);
+    }
+  };
+
+  public void testPutAndGet() throws Exception {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().recordStats().buildOffHeap(UTF_8);
+    assertNull(cache.getIfPresent(1));
+    cache.put(1, "one");
+    cache.put(2, "");
+    assertEquals("one", cache.getIfPresent(1));
+    assertEquals("", cache.getIfPresent(2));
+    assertEquals(2, cache.size());
+
+    cache.put(1, "uno");
+    assertEquals("uno", cache.getIfPresent(1));
+    assertEquals("uno", cache.get(1, Callables.returning("ignored")));
+    assertEquals("three", cache.get(3, Callables.returning("three")));
+    assertEquals(3, cache.size());
+
+    CacheStats stats = cache.stats();
+    assertEquals(4, stats.hitCount());
+    assertEquals(2, stats.missCount());
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testGet_nullValue() throws Exception {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().buildOffHeap(UTF_8);
+    try {
+      cache.get(1, Callables.<String>returning(null));
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(0, cache.size());
+  }
+
+  public void testGet_loadFailure() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().buildOffHeap(UTF_8);
+    final RuntimeException failure = new IllegalStateException();
+    try {
+      cache.get(1, new Callable<String>() {
+        @Override public String call() {
+          throw failure;
+        }
+      });
+      fail();
+    } catch (UncheckedExecutionException expected) {
+      assertSame(failure, expected.getCause());
+    } catch (ExecutionException e) {
+      fail();
+    }
+  }
+
+  public void testGet_evictedOnLoad() throws Exception {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().maximumSize(0).buildOffHeap(UTF_8);
+    CountingCallable loader = new CountingCallable("one");
+    assertEquals("one", cache.get(1, loader));
+    assertEquals(1, loader.count);
+    assertEquals(0, cache.size());
+  }
+
+  public void testGet_rejectedByTinyLfu() throws Exception {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .buildOffHeap(UTF_8);
+    cache.put(1, "one");
+    cache.put(2, "two");
+    for (int i = 0; i < 10; i++) {
+      cache.getIfPresent(1);
+      cache.getIfPresent(2);
+    }
+    CountingCallable loader = new CountingCallable("three");
+    assertEquals("three", cache.get(3, loader));
+    assertEquals(1, loader.count);
+    assertNull(cache.getIfPresent(3));
+    assertEquals("one", cache.getIfPresent(1));
+    assertEquals("two", cache.getIfPresent(2));
+  }
+
+  public void testLargeValue() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().buildOffHeap(UTF_8);
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() <= SlabAllocator.SLAB_SIZE) {
+      builder.append("0123456789");
+    }
+    String value = builder.toString();
+    cache.put(1, value);
+    assertEquals(value, cache.getIfPresent(1));
+  }
+
+  public void testMaximumWeight_boundsSerializedBytes() {
+    QueuingRemovalListener<Integer, String> removalListener = queuingRemovalListener();
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(10)
+        .removalListener(removalListener)
+        .buildOffHeap(UTF_8);
+    cache.put(1, "aaaa");
+    cache.put(2, "bbbb");
+    cache.put(3, "cccc");
+    assertNull(cache.getIfPresent(1));
+    assertEquals(2, cache.size());
+
+    RemovalNotification<Integer, String> notification = removalListener.poll();
+    assertEquals(Integer.valueOf(1), notification.getKey());
+    assertEquals("aaaa", notification.getValue());
+    assertEquals(RemovalCause.SIZE, notification.getCause());
+    assertTrue(removalListener.isEmpty());
+  }
+
+  public void testRemovalListener_replacedAndInvalidated() {
+    QueuingRemovalListener<Integer, String> removalListener = queuingRemovalListener();
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .removalListener(removalListener)
+        .buildOffHeap(UTF_8);
+    cache.put(1, "one");
+    cache.put(1, "uno");
+    cache.invalidate(1);
+    cache.put(2, "two");
+    cache.invalidateAll();
+
+    assertNotification(removalListener.poll(), 1, "one", RemovalCause.REPLACED);
+    assertNotification(removalListener.poll(), 1, "uno", RemovalCause.EXPLICIT);
+    assertNotification(removalListener.poll(), 2, "two", RemovalCause.EXPLICIT);
+    assertTrue(removalListener.isEmpty());
+    assertEquals(0, cache.size());
+  }
+
+  public void testExpireAfterWrite() {
+    FakeTicker ticker = new FakeTicker();
+    QueuingRemovalListener<Integer, String> removalListener = queuingRemovalListener();
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(1, SECONDS)
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .buildOffHeap(UTF_8);
+    cache.put(1, "one");
+    ticker.advance(2, SECONDS);
+    assertNull(cache.getIfPresent(1));
+    cache.cleanUp();
+    assertNotification(removalListener.poll(), 1, "one", RemovalCause.EXPIRED);
+  }
+
+  public void testFreedChunksReused() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().buildOffHeap(UTF_8);
+    SlabAllocator allocator = ((OffHeapCache<Integer, String>) cache).allocator;
+    for (int i = 0; i < 10000; i++) {
+      cache.put(i % 10, "value " + i);
+    }
+    // all the values are in the same size class, and only ten of them are live at a time
+    assertEquals(SlabAllocator.SLAB_SIZE, allocator.reservedBytes());
+    assertEquals("value 9999", cache.getIfPresent(9));
+  }
+
+  public void testRead_concurrentRemoval() throws Exception {
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch removed = new CountDownLatch(1);
+    final AtomicReference<String> read = new AtomicReference<String>();
+    ValueSerializer<String> serializer = new ValueSerializer<String>() {
+      @Override public byte[] serialize(String value) {
+        return UTF_8.serialize(value);
+      }
+
+      @Override public String deserialize(ByteBuffer buffer) {
+        reading.countDown();
+        try {
+          removed.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        return UTF_8.deserialize(buffer);
+      }
+    };
+    final Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .buildOffHeap(serializer);
+    cache.put(1, "one");
+    Thread reader = new Thread() {
+      @Override public void run() {
+        read.set(cache.getIfPresent(1));
+      }
+    };
+    reader.start();
+    reading.await();
+
+    // the chunk of the value being read is not reused
+    cache.invalidate(1);
+    cache.put(2, "two");
+    removed.countDown();
+    reader.join();
+    assertEquals("one", read.get());
+  }
+
+  public void testBuildOffHeap_unsupportedSettings() {
+    Weigher<Object, Object> weigher = new Weigher<Object, Object>() {
+      @Override public int weigh(Object key, Object value) {
+        return 1;
+      }
+    };
+    try {
+      CacheBuilder.newBuilder().maximumWeight(1).weigher(weigher).buildOffHeap(UTF_8);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().weakValues().buildOffHeap(UTF_8);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().refreshAfterWrite(1, SECONDS).buildOffHeap(UTF_8);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  private static void assertNotification(RemovalNotification<Integer, String> notification,
+      int key, String value, RemovalCause cause) {
+    assertEquals(Integer.valueOf(key), notification.getKey());
+    assertEquals(value, notification.getValue());
+    assertEquals(cause, notification.getCause());
+  }
+
+  /** Returns a value, counting the calls. */
+  static final class CountingCallable implements Callable<String> {
+    final String value;
+    int count;
+
+    CountingCallable(String value) {
+      this.value = value;
+    }
+
+    @Override public String call() {
+      count++;
+      return value;
+    }
+  }
+}
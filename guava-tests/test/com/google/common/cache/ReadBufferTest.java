@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.ReadBuffer.STRIPE_CAPACITY;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for {@link ReadBuffer}.
+ */
+public class ReadBufferTest extends TestCase {
+
+  public void testEmpty() {
+    ReadBuffer<Integer> buffer = new ReadBuffer<Integer>();
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.peek());
+    assertNull(buffer.poll());
+  }
+
+  public void testOfferAndPoll_singleThreadInOrder() {
+    ReadBuffer<Integer> buffer = new ReadBuffer<Integer>();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertEquals(10, buffer.size());
+    assertEquals(ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ImmutableList.copyOf(buffer));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), buffer.peek());
+      assertEquals(Integer.valueOf(i), buffer.poll());
+    }
+    assertTrue(buffer.isEmpty());
+  }
+
+  public void testOffer_full() {
+    ReadBuffer<Integer> buffer = new ReadBuffer<Integer>();
+    for (int i = 0; i < STRIPE_CAPACITY; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertFalse(buffer.offer(STRIPE_CAPACITY));
+    assertEquals(STRIPE_CAPACITY, buffer.size());
+
+    // polling makes room again
+    assertEquals(Integer.valueOf(0), buffer.poll());
+    assertTrue(buffer.offer(STRIPE_CAPACITY));
+    buffer.clear();
+    assertTrue(buffer.isEmpty());
+  }
+
+  public void testOffer_wrapsAround() {
+    ReadBuffer<Integer> buffer = new ReadBuffer<Integer>();
+    for (int i = 0; i < 10 * STRIPE_CAPACITY; i++) {
+      assertTrue(buffer.offer(i));
+      assertEquals(Integer.valueOf(i), buffer.poll());
+    }
+    assertTrue(buffer.isEmpty());
+  }
+
+  public void testOffer_null() {
+    ReadBuffer<Integer> buffer = new ReadBuffer<Integer>();
+    try {
+      buffer.offer(null);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testOffer_concurrent() throws InterruptedException {
+    final ReadBuffer<Integer> buffer = new ReadBuffer<Integer>();
+    final int threadCount = 4;
+    final CountDownLatch done = new CountDownLatch(threadCount);
+    for (int t = 0; t < threadCount; t++) {
+      final int base = t * 1000;
+      new Thread() {
+        @Override public void run() {
+          for (int i = 0; i < 1000; i++) {
+            buffer.offer(base + i);
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    // drain concurrently, as the segment would
+    List<Integer> polled = Lists.newArrayList();
+    while (done.getCount() > 0) {
+      Integer e = buffer.poll();
+      if (e != null) {
+        polled.add(e);
+      }
+    }
+    done.await();
+    for (Integer e; (e = buffer.poll()) != null; ) {
+      polled.add(e);
+    }
+
+    // elements may be dropped, but never duplicated
+    Set<Integer> distinct = Sets.newHashSet(polled);
+    assertEquals(polled.size(), distinct.size());
+    for (int e : distinct) {
+      assertTrue(e >= 0 && e < threadCount * 1000);
+    }
+    assertTrue(buffer.isEmpty());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.SlabAllocator.SLAB_SIZE;
+
+import com.google.common.collect.Sets;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link SlabAllocator}.
+ */
+public class SlabAllocatorTest extends TestCase {
+
+  public void testChunkShift() {
+    assertEquals(6, SlabAllocator.chunkShift(0));
+    assertEquals(6, SlabAllocator.chunkShift(1));
+    assertEquals(6, SlabAllocator.chunkShift(64));
+    assertEquals(7, SlabAllocator.chunkShift(65));
+    assertEquals(20, SlabAllocator.chunkShift(SLAB_SIZE));
+    assertEquals(21, SlabAllocator.chunkShift(SLAB_SIZE + 1));
+  }
+
+  public void testAllocate_distinctChunks() {
+    SlabAllocator allocator = new SlabAllocator();
+    Set<Long> chunks = Sets.newHashSet();
+    for (int i = 0; i < 100; i++) {
+      long chunk = allocator.allocate(100);
+      assertEquals(0, SlabAllocator.offset(chunk) % 128);
+      assertTrue(chunks.add(chunk));
+    }
+    // a single slab holds all the chunks of that size
+    assertEquals(SLAB_SIZE, allocator.reservedBytes());
+
+    // other sizes use other slabs
+    allocator.allocate(10);
+    assertEquals(2 * SLAB_SIZE, allocator.reservedBytes());
+  }
+
+  public void testAllocate_slabsFilledUp() {
+    SlabAllocator allocator = new SlabAllocator();
+    long first = allocator.allocate(SLAB_SIZE / 2);
+    long second = allocator.allocate(SLAB_SIZE / 2);
+    assertEquals(SlabAllocator.slabIndex(first), SlabAllocator.slabIndex(second));
+    long third = allocator.allocate(SLAB_SIZE / 2);
+    assertFalse(SlabAllocator.slabIndex(first) == SlabAllocator.slabIndex(third));
+    assertEquals(2 * SLAB_SIZE, allocator.reservedBytes());
+  }
+
+  public void testFree_reused() {
+    SlabAllocator allocator = new SlabAllocator();
+    long chunk = allocator.allocate(1000);
+    allocator.allocate(1000);
+    allocator.free(chunk, 1000);
+    // any size of the same class reuses the chunk
+    assertEquals(chunk, allocator.allocate(600));
+    assertEquals(SLAB_SIZE, allocator.reservedBytes());
+  }
+
+  public void testAllocate_largerThanSlab() {
+    SlabAllocator allocator = new SlabAllocator();
+    int size = SLAB_SIZE + 1;
+    long chunk = allocator.allocate(size);
+    assertEquals(0, SlabAllocator.offset(chunk));
+    ByteBuffer slab = allocator.slab(chunk);
+    assertTrue(slab.isDirect());
+    assertEquals(size, slab.capacity());
+    assertEquals(size, allocator.reservedBytes());
+
+    allocator.free(chunk, size);
+    assertEquals(0, allocator.reservedBytes());
+    // the index of the slab is reused
+    assertEquals(chunk, allocator.allocate(size));
+  }
+
+  public void testAllocate_negative() {
+    SlabAllocator allocator = new SlabAllocator();
+    try {
+      allocator.allocate(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+}
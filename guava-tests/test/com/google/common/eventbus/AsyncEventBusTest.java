@@ -16,14 +16,21 @@
 
 package com.google.common.eventbus;
 
+import com.google.common.base.Predicates;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.inject.Guice;
-import com.google.inject.Injector;
+import com.google.common.collect.Range;
 
 import junit.framework.TestCase;
 
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Test case for {@link AsyncEventBus}.
@@ -36,20 +43,11 @@ public class AsyncEventBusTest extends TestCase {
   /** The executor we use to fake asynchronicity. */
   private FakeExecutor executor;
   private AsyncEventBus bus;
-  
-  private Injector injector;
-  
-  public AsyncEventBusTest() {
-	  super();
-	  injector = Guice.createInjector(new AnnotationModule());
-	
-  }
 
   @Override protected void setUp() throws Exception {
     super.setUp();
     executor = new FakeExecutor();
-    bus = new AsyncEventBus(executor);
-    this.injector.injectMembers(bus);
+    bus = new AsyncEventBus(executor, Subscribe.class);
   }
 
   public void testBasicDistribution() {
@@ -73,6 +71,96 @@ public class AsyncEventBusTest extends TestCase {
     assertEquals("Correct string should be delivered.", EVENT, events.get(0));
   }
 
+  public void testRegister_filterRunsBeforeExecutor() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher, Predicates.<Object>equalTo("accepted"));
+
+    bus.post("rejected");
+    assertTrue("Rejected events should not reach the executor.", executor.getTasks().isEmpty());
+
+    bus.post("accepted");
+    List<Runnable> tasks = executor.getTasks();
+    assertEquals("One event dispatch task should be queued.", 1, tasks.size());
+    tasks.get(0).run();
+    assertEquals(ImmutableList.of("accepted"), catcher.getEvents());
+  }
+
+  public void testPostAll_oneTaskPerSubscriber() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    bus.postAll(ImmutableList.of("a", "b", "c"));
+
+    List<Runnable> tasks = executor.getTasks();
+    assertEquals("One batch dispatch task should be queued.", 1, tasks.size());
+
+    tasks.get(0).run();
+
+    assertEquals("All events should be delivered in order.",
+        ImmutableList.of("a", "b", "c"), catcher.getEvents());
+  }
+
+  public void testMailbox_oneTaskPerSubscriber() {
+    AsyncEventBus mailboxBus =
+        new AsyncEventBus("mailbox", executor, SerializationMode.MAILBOX, Subscribe.class);
+    StringCatcher catcher = new StringCatcher();
+    mailboxBus.register(catcher);
+
+    mailboxBus.post("a");
+    mailboxBus.post("b");
+    mailboxBus.post("c");
+
+    List<Runnable> tasks = executor.getTasks();
+    assertEquals("One mailbox drain task should be queued.", 1, tasks.size());
+
+    tasks.get(0).run();
+    assertEquals("All events should be delivered in order.",
+        ImmutableList.of("a", "b", "c"), catcher.getEvents());
+
+    mailboxBus.post("d");
+    assertEquals("An idle mailbox should be scheduled again.", 2, tasks.size());
+    tasks.get(1).run();
+    assertEquals(ImmutableList.of("a", "b", "c", "d"), catcher.getEvents());
+  }
+
+  public void testMailbox_serializesWithoutBlocking() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    AsyncEventBus mailboxBus =
+        new AsyncEventBus("mailbox", pool, SerializationMode.MAILBOX, Subscribe.class);
+    SerialCatcher catcher = new SerialCatcher();
+    mailboxBus.register(catcher);
+
+    int count = 10000;
+    for (int i = 0; i < count; i++) {
+      mailboxBus.post(i);
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertFalse("Subscriber was called concurrently.", catcher.overlapped);
+    assertEquals("Events should be delivered in posting order.",
+        ContiguousSet.create(Range.closedOpen(0, count), DiscreteDomain.integers()).asList(),
+        catcher.events);
+  }
+
+  /**
+   * Records integers, noting whether it was ever entered by two threads at once.
+   */
+  public static class SerialCatcher {
+    private final AtomicBoolean busy = new AtomicBoolean();
+    final List<Integer> events = Lists.newArrayList();
+    volatile boolean overlapped;
+
+    @Subscribe
+    public void handle(Integer event) {
+      if (!busy.compareAndSet(false, true)) {
+        overlapped = true;
+      }
+      events.add(event);
+      busy.set(false);
+    }
+  }
+
   /**
    * An {@link Executor} wanna-be that simply records the tasks it's given.
    * Arguably the Worst Executor Ever.
@@ -18,15 +18,25 @@ package com.google.common.eventbus;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
+import com.google.common.collect.Range;
 import com.google.common.util.concurrent.Uninterruptibles;
 
 import junit.framework.TestCase;
 
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link Dispatcher} implementations.
@@ -36,7 +46,7 @@ import java.util.concurrent.CyclicBarrier;
 
 public class DispatcherTest extends TestCase {
 
-  private final EventBus bus = new EventBus();
+  private final EventBus bus = new EventBus(Subscribe.class);
 
   private final IntegerSubscriber i1 = new IntegerSubscriber("i1");
   private final IntegerSubscriber i2 = new IntegerSubscriber("i2");
@@ -70,6 +80,35 @@ public class DispatcherTest extends TestCase {
         ).inOrder();
   }
 
+  public void testPerThreadQueuedDispatcher_manyReentrantEvents() {
+    dispatcher = Dispatcher.perThreadDispatchQueue();
+    final List<Integer> received = Lists.newArrayList();
+    final Subscriber[] subscribers = new Subscriber[1];
+    Object listener = new Object() {
+      @Subscribe
+      public void handleInteger(Integer integer) {
+        received.add(integer);
+        if (integer == 0) {
+          // more than the initial capacity of the queue
+          for (int i = 1; i <= 100; i++) {
+            dispatcher.dispatch(i, subscribers);
+          }
+        }
+      }
+    };
+    subscribers[0] = subscriber(bus, listener, "handleInteger", Integer.class);
+
+    List<Integer> expected = ContiguousSet.create(
+        Range.closed(0, 100), DiscreteDomain.integers()).asList();
+    dispatcher.dispatch(0, subscribers);
+    assertEquals(expected, received);
+
+    // the queue of the thread is reused
+    received.clear();
+    dispatcher.dispatch(0, subscribers);
+    assertEquals(expected, received);
+  }
+
   public void testLegacyAsyncDispatcher() {
     dispatcher = Dispatcher.legacyAsync();
 
@@ -128,6 +167,252 @@ public class DispatcherTest extends TestCase {
         ).inOrder();
   }
 
+  public void testBoundedAsyncDispatcher_dropNewest() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.DROP_NEWEST);
+    dispatcher.dispatch("a", ImmutableList.of(stringSubscribers.get(0)).iterator());
+    dispatcher.dispatch("b", ImmutableList.of(stringSubscribers.get(1)).iterator());
+    assertEquals(1, dispatcher.queueDepth());
+
+    runAll(executor);
+    assertEquals(0, dispatcher.queueDepth());
+    assertEquals(ImmutableList.of(s1), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_dropOldest() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.DROP_OLDEST);
+    dispatcher.dispatch("a", ImmutableList.of(stringSubscribers.get(0)).iterator());
+    dispatcher.dispatch("b", ImmutableList.of(stringSubscribers.get(1)).iterator());
+    assertEquals(1, dispatcher.queueDepth());
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(s2), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_oneDrainerPerPost() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 10, OverflowPolicy.DROP_NEWEST);
+    dispatcher.dispatch("a", stringSubscribers.iterator());
+    // the pending drain task will take both deliveries
+    assertEquals(1, executor.getTasks().size());
+
+    runAll(executor);
+    assertEquals(1, executor.getTasks().size());
+    assertEquals(ImmutableList.of(s1, s2), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_dropOldestConcurrently() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.DROP_OLDEST);
+    final CountDownLatch done = new CountDownLatch(4);
+    for (int i = 0; i < 4; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            dispatcher.dispatch("foo", stringSubscribers.iterator());
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, dispatcher.queueDepth());
+  }
+
+  public void testBoundedAsyncDispatcher_callerRuns() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.CALLER_RUNS);
+    dispatcher.dispatch("a", ImmutableList.of(stringSubscribers.get(0)).iterator());
+    dispatcher.dispatch("b", ImmutableList.of(stringSubscribers.get(1)).iterator());
+    // the second delivery didn't fit, so it was made by the posting thread
+    assertEquals(ImmutableList.of(s2), ImmutableList.copyOf(dispatchedSubscribers));
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(s2, s1), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_block() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.BLOCK);
+    for (int i = 0; i < 10; i++) {
+      dispatcher.dispatch("foo", stringSubscribers.iterator());
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(0, dispatcher.queueDepth());
+    assertEquals(20, dispatchedSubscribers.size());
+  }
+
+  public void testBoundedAsyncDispatcher_urgentFirst() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 2, OverflowPolicy.DROP_NEWEST);
+    Subscriber urgent = subscriber(bus, s2, "handleStringUrgently", String.class);
+    dispatcher.dispatch("a", ImmutableList.of(stringSubscribers.get(0)).iterator());
+    dispatcher.dispatch("b", ImmutableList.of(urgent).iterator());
+    assertEquals(2, dispatcher.queueDepth());
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(s2, s1), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_urgentSharesCapacity() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.DROP_NEWEST);
+    Subscriber urgent = subscriber(bus, s2, "handleStringUrgently", String.class);
+    dispatcher.dispatch("a", ImmutableList.of(stringSubscribers.get(0)).iterator());
+    dispatcher.dispatch("b", ImmutableList.of(urgent).iterator());
+    assertEquals(1, dispatcher.queueDepth());
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(s1), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_dropOldestPrefersNonUrgent() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 2, OverflowPolicy.DROP_OLDEST);
+    Subscriber urgent = subscriber(bus, s2, "handleStringUrgently", String.class);
+    dispatcher.dispatch("a", ImmutableList.of(urgent).iterator());
+    dispatcher.dispatch("b", ImmutableList.of(stringSubscribers.get(0)).iterator());
+    dispatcher.dispatch("c", ImmutableList.of(urgent).iterator());
+    assertEquals(2, dispatcher.queueDepth());
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(s2, s2), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testBoundedAsyncDispatcher_batches() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 1, OverflowPolicy.DROP_NEWEST);
+    PositionSubscriber p1 = new PositionSubscriber();
+    Subscriber subscriber = subscriber(bus, p1, "handlePosition", Position.class);
+    dispatcher.dispatchBatches(ImmutableMap.<Subscriber, List<Object>>of(
+        subscriber, ImmutableList.<Object>of(new Position(1), new Position(2))));
+    // a batch is a single delivery, and the queue is now full
+    dispatcher.dispatchBatches(ImmutableMap.<Subscriber, List<Object>>of(
+        subscriber, ImmutableList.<Object>of(new Position(3))));
+    assertEquals(1, dispatcher.queueDepth());
+    assertTrue(p1.positions.isEmpty());
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(1, 2), p1.positions);
+  }
+
+  public void testBoundedAsyncDispatcher_urgentBatchesFirst() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.boundedAsync(executor, 2, OverflowPolicy.DROP_NEWEST);
+    Subscriber urgent = subscriber(bus, s2, "handleStringUrgently", String.class);
+    dispatcher.dispatchBatches(ImmutableMap.<Subscriber, List<Object>>of(
+        stringSubscribers.get(0), ImmutableList.<Object>of("a", "b")));
+    dispatcher.dispatchBatches(ImmutableMap.<Subscriber, List<Object>>of(
+        urgent, ImmutableList.<Object>of("c")));
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(s2, s1, s1), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testCoalescingDispatcher() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.coalescing(executor, Dispatcher.immediate());
+    PositionSubscriber p1 = new PositionSubscriber();
+    Subscriber subscriber = subscriber(bus, p1, "handlePosition", Position.class);
+    for (int i = 0; i < 3; i++) {
+      dispatcher.dispatch(new Position(i), new Subscriber[] {subscriber});
+    }
+    assertEquals(1, executor.getTasks().size());
+
+    runAll(executor);
+    assertEquals(ImmutableList.of(2), p1.positions);
+
+    // a new event is pending again once the previous one was delivered
+    dispatcher.dispatch(new Position(3), new Subscriber[] {subscriber});
+    assertEquals(2, executor.getTasks().size());
+    executor.getTasks().get(1).run();
+    assertEquals(ImmutableList.of(2, 3), p1.positions);
+  }
+
+  public void testCoalescingDispatcher_deliversThroughDelegate() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    AsyncEventBusTest.FakeExecutor drainExecutor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.coalescing(
+        executor, Dispatcher.boundedAsync(drainExecutor, 1, OverflowPolicy.DROP_NEWEST));
+    PositionSubscriber p1 = new PositionSubscriber();
+    PositionSubscriber p2 = new PositionSubscriber();
+    Subscriber[] subscribers = {
+        subscriber(bus, p1, "handlePosition", Position.class),
+        subscriber(bus, p2, "handlePosition", Position.class)};
+    dispatcher.dispatch(new Position(1), subscribers);
+    dispatcher.dispatch(new Position(2), subscribers);
+    assertEquals(2, executor.getTasks().size());
+
+    // the latest events are queued by the bounded dispatcher, which drops the second one
+    runAll(executor);
+    assertEquals(1, dispatcher.queueDepth());
+    assertTrue(p1.positions.isEmpty());
+    runAll(drainExecutor);
+    assertEquals(ImmutableList.of(2), p1.positions);
+    assertTrue(p2.positions.isEmpty());
+  }
+
+  public void testCoalescingDispatcher_otherEventsDelegated() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    dispatcher = Dispatcher.coalescing(executor, Dispatcher.immediate());
+    dispatcher.dispatch("hello", stringSubscribers.iterator());
+    assertTrue(executor.getTasks().isEmpty());
+    assertEquals(ImmutableList.of(s1, s2), ImmutableList.copyOf(dispatchedSubscribers));
+  }
+
+  public void testPartitionedDispatcher() {
+    AsyncEventBusTest.FakeExecutor[] lanes = {
+        new AsyncEventBusTest.FakeExecutor(), new AsyncEventBusTest.FakeExecutor()};
+    dispatcher = Dispatcher.partitioned(lanes, new Function<Object, Integer>() {
+      @Override
+      public Integer apply(Object event) {
+        int value = ((Position) event).value;
+        return value < 0 ? null : value / 10;
+      }
+    });
+    PositionSubscriber p1 = new PositionSubscriber();
+    Subscriber subscriber = subscriber(bus, p1, "handlePosition", Position.class);
+    for (int i = 0; i < 10; i++) {
+      dispatcher.dispatch(new Position(i), new Subscriber[] {subscriber});
+      dispatcher.dispatch(new Position(10 + i), new Subscriber[] {subscriber});
+      dispatcher.dispatch(new Position(20 + i), new Subscriber[] {subscriber});
+    }
+    dispatcher.dispatch(new Position(-1), new Subscriber[] {subscriber});
+
+    for (AsyncEventBusTest.FakeExecutor lane : lanes) {
+      p1.positions.clear();
+      runAll(lane);
+      // the events of each key are all in one lane, in order
+      for (int key = 0; key < 3; key++) {
+        List<Integer> keyPositions = Lists.newArrayList();
+        for (int position : p1.positions) {
+          if (position >= 0 && position / 10 == key) {
+            keyPositions.add(position);
+          }
+        }
+        assertTrue(keyPositions.isEmpty()
+            || keyPositions.equals(ContiguousSet.create(
+                Range.closedOpen(key * 10, key * 10 + 10), DiscreteDomain.integers()).asList()));
+      }
+    }
+    // events without a key go to the first lane
+    p1.positions.clear();
+    lanes[0].getTasks().get(lanes[0].getTasks().size() - 1).run();
+    assertEquals(ImmutableList.of(-1), p1.positions);
+  }
+
+  private static void runAll(AsyncEventBusTest.FakeExecutor executor) {
+    for (Runnable task : ImmutableList.copyOf(executor.getTasks())) {
+      task.run();
+    }
+  }
+
   private static Subscriber subscriber(
       EventBus bus, Object target,
       String methodName, Class<?> eventType) {
@@ -138,6 +423,27 @@ public class DispatcherTest extends TestCase {
     }
   }
 
+  /**
+   * Coalesced event type.
+   */
+  @Coalesced
+  public static final class Position {
+    final int value;
+
+    Position(int value) {
+      this.value = value;
+    }
+  }
+
+  public static final class PositionSubscriber {
+    final List<Integer> positions = Lists.newArrayList();
+
+    @Subscribe
+    public void handlePosition(Position position) {
+      positions.add(position.value);
+    }
+  }
+
   public final class IntegerSubscriber {
     private final String name;
 
@@ -169,6 +475,12 @@ public class DispatcherTest extends TestCase {
       dispatchedSubscribers.add(this);
     }
 
+    @Subscribe
+    @SubscriberPriority(1)
+    public void handleStringUrgently(String string) {
+      dispatchedSubscribers.add(this);
+    }
+
     @Override
     public String toString() {
       return name;
@@ -25,10 +25,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.inject.Guice;
-import com.google.inject.Injector;
 
 /**
  * Test case for {@link EventBus}.
@@ -40,19 +41,10 @@ public class EventBusTest extends TestCase {
   private static final String BUS_IDENTIFIER = "test-bus";
 
   private EventBus bus;
-  
-  private Injector injector;
-  
-  public EventBusTest() {
-	  super();
-	  injector = Guice.createInjector(new AnnotationModule());
-	
-  }
 
   @Override protected void setUp() throws Exception {
     super.setUp();
-    bus = new EventBus(BUS_IDENTIFIER);
-    this.injector.injectMembers(bus);
+    bus = new EventBus(BUS_IDENTIFIER, Subscribe.class);
   }
 
   public void testBasicCatcherDistribution() {
@@ -134,8 +126,7 @@ public class EventBusTest extends TestCase {
   public void testSubscriberThrowsException() throws Exception{
     final RecordingSubscriberExceptionHandler handler =
         new RecordingSubscriberExceptionHandler();
-    final EventBus eventBus = new EventBus(handler);
-    this.injector.injectMembers(eventBus);
+    final EventBus eventBus = new EventBus(handler, Subscribe.class);
     
     final RuntimeException exception =
         new RuntimeException("but culottes have a tendancy to ride up!");
@@ -172,8 +163,7 @@ public class EventBusTest extends TestCase {
           SubscriberExceptionContext context) {
         throw new RuntimeException();
       }
-    });
-    this.injector.injectMembers(eventBus);
+    }, Subscribe.class);
     
     final Object subscriber = new Object() {
       @Subscribe
@@ -215,6 +205,172 @@ public class EventBusTest extends TestCase {
         EVENT, events.get(0).getEvent());
   }
 
+  public void testPostAll() {
+    StringCatcher catcher = new StringCatcher();
+    final List<Object> objectEvents = Lists.newArrayList();
+    Object objCatcher = new Object() {
+      @SuppressWarnings("unused")
+      @Subscribe public void eat(Object food) {
+        objectEvents.add(food);
+      }
+    };
+    bus.register(catcher);
+    bus.register(objCatcher);
+
+    Object objEvent = new Object();
+    bus.postAll(ImmutableList.of("a", objEvent, "b"));
+
+    assertEquals("Strings should be delivered in order.",
+        ImmutableList.of("a", "b"), catcher.getEvents());
+    assertEquals("Objects should be delivered in order.",
+        ImmutableList.of("a", objEvent, "b"), objectEvents);
+  }
+
+  public void testRegister_filter() {
+    StringCatcher catcher = new StringCatcher();
+    GhostCatcher ghostCatcher = new GhostCatcher();
+    bus.register(catcher, Predicates.<Object>equalTo("b"));
+    bus.register(ghostCatcher);
+
+    bus.post("a");
+    bus.postAll(ImmutableList.of("a", "b"));
+    assertEquals(ImmutableList.of("b"), catcher.getEvents());
+    assertTrue("Filtered events should not be dead.", ghostCatcher.getEvents().isEmpty());
+
+    bus.unregister(catcher);
+    bus.post("b");
+    assertEquals(ImmutableList.of("b"), catcher.getEvents());
+  }
+
+  public void testStats() throws Exception {
+    EventBus statsBus = new EventBus(BUS_IDENTIFIER, new EventBus.SimpleStatsCounter(),
+        Subscribe.class);
+    StringCatcher catcher = new StringCatcher();
+    statsBus.register(catcher);
+    statsBus.register(new Object() {
+      @Subscribe
+      public void throwExceptionOn(String message) {
+        throw new RuntimeException(message);
+      }
+    });
+
+    statsBus.post(EVENT);
+    statsBus.postAll(ImmutableList.of(EVENT, EVENT));
+    statsBus.post(1);
+
+    EventBusStats stats = statsBus.stats();
+    // no DeadEvent is posted, since nobody subscribes to it
+    assertEquals(4, stats.postCount());
+    assertEquals(1, stats.deadEventCount());
+    assertEquals(ImmutableMap.of(Integer.class, 1L), stats.deadEventCounts());
+    assertEquals(3, stats.exceptionCount());
+    assertEquals(ImmutableSet.of(String.class), stats.dispatchLatencies().keySet());
+    assertEquals(1, stats.dispatchLatencies().get(String.class).count());
+    LatencyStats catcherLatencies = stats.subscriberLatencies()
+        .get(StringCatcher.class.getMethod("hereHaveAString", String.class));
+    assertEquals(3, catcherLatencies.count());
+  }
+
+  public void testStats_deadEvents() {
+    EventBus statsBus = new EventBus(BUS_IDENTIFIER, new EventBus.SimpleStatsCounter(),
+        Subscribe.class);
+    GhostCatcher catcher = new GhostCatcher();
+    statsBus.register(catcher);
+
+    statsBus.post(EVENT);
+    statsBus.postAll(ImmutableList.of(1, EVENT));
+
+    EventBusStats stats = statsBus.stats();
+    // the three DeadEvents are posted too
+    assertEquals(6, stats.postCount());
+    assertEquals(3, stats.deadEventCount());
+    assertEquals(ImmutableMap.of(String.class, 2L, Integer.class, 1L), stats.deadEventCounts());
+    assertEquals(3, catcher.getEvents().size());
+  }
+
+  public void testStats_disabled() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    bus.post(EVENT);
+    assertEquals(0, bus.stats().postCount());
+    assertTrue(bus.stats().subscriberLatencies().isEmpty());
+  }
+
+  public void testRegisterWeakly() {
+    StringCatcher catcher = new StringCatcher();
+    bus.registerWeakly(catcher);
+    bus.post(EVENT);
+    assertEquals(ImmutableList.of(EVENT), catcher.getEvents());
+
+    bus.unregister(catcher);
+    bus.post(EVENT);
+    assertEquals(ImmutableList.of(EVENT), catcher.getEvents());
+  }
+
+  public void testPostSticky() {
+    bus.postSticky("first");
+    bus.postSticky(EVENT);
+    assertEquals(EVENT, bus.getStickyEvent(String.class));
+    assertNull(bus.getStickyEvent(Integer.class));
+
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    assertEquals(ImmutableList.of(EVENT), catcher.getEvents());
+
+    // listeners of a supertype receive it too
+    final List<Object> objectEvents = Lists.newArrayList();
+    bus.register(new Object() {
+      @Subscribe
+      public void eat(Object food) {
+        objectEvents.add(food);
+      }
+    });
+    assertEquals(ImmutableList.<Object>of(EVENT), objectEvents);
+
+    assertEquals(EVENT, bus.removeStickyEvent(String.class));
+    StringCatcher lateCatcher = new StringCatcher();
+    bus.register(lateCatcher);
+    assertTrue(lateCatcher.getEvents().isEmpty());
+  }
+
+  public void testFire_notCoalesced() {
+    AsyncEventBusTest.FakeExecutor executor = new AsyncEventBusTest.FakeExecutor();
+    AsyncSyncEventBus asyncSyncBus = new AsyncSyncEventBus(executor, Subscribe.class);
+    DispatcherTest.PositionSubscriber subscriber = new DispatcherTest.PositionSubscriber();
+    asyncSyncBus.register(subscriber);
+    for (int i = 0; i < 3; i++) {
+      asyncSyncBus.fire(new DispatcherTest.Position(i));
+    }
+    while (!executor.getTasks().isEmpty()) {
+      executor.getTasks().remove(0).run();
+    }
+    assertEquals(ImmutableList.of(0, 1, 2), subscriber.positions);
+
+    // posted events are still coalesced
+    subscriber.positions.clear();
+    for (int i = 0; i < 3; i++) {
+      asyncSyncBus.post(new DispatcherTest.Position(i));
+    }
+    while (!executor.getTasks().isEmpty()) {
+      executor.getTasks().remove(0).run();
+    }
+    assertEquals(ImmutableList.of(2), subscriber.positions);
+  }
+
+  public void testPostAll_deadEvents() {
+    GhostCatcher catcher = new GhostCatcher();
+    bus.register(catcher);
+
+    bus.postAll(new Object[] {EVENT, new DeadEvent(this, EVENT)});
+
+    List<DeadEvent> events = catcher.getEvents();
+    assertEquals("Both dead events should be delivered.", 2, events.size());
+    assertEquals("The explicit DeadEvent must not be re-wrapped.",
+        EVENT, events.get(0).getEvent());
+    assertEquals("The dead event should wrap the original event.",
+        EVENT, events.get(1).getEvent());
+  }
+
   public void testMissingSubscribe() {
     bus.register(new Object());
   }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link LatencyStats}.
+ */
+public class LatencyStatsTest extends TestCase {
+
+  public void testEmpty() {
+    LatencyStats stats = new LatencyStats.Recorder().snapshot();
+    assertEquals(0, stats.count());
+    assertEquals(0, stats.totalTime());
+    assertEquals(0.0, stats.averageTime());
+    assertEquals(0, stats.percentile(50));
+    assertEquals(0, stats.percentile(100));
+  }
+
+  public void testRecord() {
+    LatencyStats.Recorder recorder = new LatencyStats.Recorder();
+    recorder.record(0);
+    recorder.record(1);
+    recorder.record(1000);
+    recorder.record(1023);
+    recorder.record(Long.MAX_VALUE / 2);
+    LatencyStats stats = recorder.snapshot();
+
+    assertEquals(5, stats.count());
+    assertEquals(0 + 1 + 1000 + 1023 + Long.MAX_VALUE / 2, stats.totalTime());
+    assertEquals(1, stats.bucketCount(0));
+    assertEquals(1, stats.bucketCount(1));
+    assertEquals(2, stats.bucketCount(10));
+    assertEquals(1, stats.bucketCount(LatencyStats.BUCKET_COUNT - 1));
+
+    assertEquals(1, stats.percentile(0));
+    assertEquals(2, stats.percentile(40));
+    assertEquals(1024, stats.percentile(50));
+    assertEquals(1024, stats.percentile(80));
+    assertEquals(Long.MAX_VALUE, stats.percentile(100));
+  }
+
+  public void testBucketIndex() {
+    assertEquals(0, LatencyStats.bucketIndex(-1));
+    assertEquals(0, LatencyStats.bucketIndex(0));
+    assertEquals(1, LatencyStats.bucketIndex(1));
+    assertEquals(2, LatencyStats.bucketIndex(2));
+    assertEquals(2, LatencyStats.bucketIndex(3));
+    assertEquals(11, LatencyStats.bucketIndex(1024));
+    assertEquals(LatencyStats.BUCKET_COUNT - 1, LatencyStats.bucketIndex(Long.MAX_VALUE));
+  }
+
+  public void testPercentile_outOfRange() {
+    LatencyStats stats = new LatencyStats.Recorder().snapshot();
+    try {
+      stats.percentile(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      stats.percentile(101);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testEquals() {
+    LatencyStats.Recorder recorder = new LatencyStats.Recorder();
+    recorder.record(100);
+    LatencyStats first = recorder.snapshot();
+    assertEquals(first, recorder.snapshot());
+    assertEquals(first.hashCode(), recorder.snapshot().hashCode());
+    recorder.record(100);
+    assertFalse(first.equals(recorder.snapshot()));
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Tests for {@link SubscriberInvoker}.
+ */
+public class SubscriberInvokerTest extends TestCase {
+
+  private static final Object FIXTURE_ARGUMENT = new Object();
+
+  public void testCreate_publicMethodIsGenerated() {
+    assertTrue(SubscriberInvoker.create(method(PublicListener.class, "handleObject"))
+        .isGenerated());
+    assertTrue(SubscriberInvoker.create(method(PublicListener.class, "handleAndReturnLong"))
+        .isGenerated());
+    assertTrue(SubscriberInvoker.create(method(PublicInterface.class, "handle")).isGenerated());
+  }
+
+  public void testCreate_inaccessibleMethodIsReflective() {
+    assertFalse(SubscriberInvoker.create(method(PublicListener.class, "packagePrivate"))
+        .isGenerated());
+    assertFalse(SubscriberInvoker.create(method(PrivateListener.class, "handle")).isGenerated());
+    assertFalse(SubscriberInvoker.create(method(PublicListener.class, "handlePrivateEvent"))
+        .isGenerated());
+  }
+
+  public void testInvoke_generated() throws Exception {
+    PublicListener listener = new PublicListener();
+    SubscriberInvoker.create(method(PublicListener.class, "handleObject"))
+        .invoke(listener, FIXTURE_ARGUMENT);
+    assertSame(FIXTURE_ARGUMENT, listener.argument);
+
+    listener.argument = null;
+    SubscriberInvoker.create(method(PublicListener.class, "handleAndReturnLong"))
+        .invoke(listener, FIXTURE_ARGUMENT);
+    assertSame(FIXTURE_ARGUMENT, listener.argument);
+  }
+
+  public void testInvoke_generatedInterfaceMethod() throws Exception {
+    PublicListener listener = new PublicListener();
+    SubscriberInvoker.create(method(PublicInterface.class, "handle"))
+        .invoke(listener, "event");
+    assertEquals("event", listener.argument);
+  }
+
+  public void testInvoke_reflective() throws Exception {
+    PublicListener listener = new PublicListener();
+    SubscriberInvoker.reflective(method(PublicListener.class, "handleObject"))
+        .invoke(listener, FIXTURE_ARGUMENT);
+    assertSame(FIXTURE_ARGUMENT, listener.argument);
+
+    PrivateListener privateListener = new PrivateListener();
+    SubscriberInvoker.create(method(PrivateListener.class, "handle"))
+        .invoke(privateListener, FIXTURE_ARGUMENT);
+    assertSame(FIXTURE_ARGUMENT, privateListener.argument);
+  }
+
+  public void testInvoke_exceptionWrapping() throws Exception {
+    Method method = method(PublicListener.class, "throwException");
+    for (SubscriberInvoker invoker : invokers(method)) {
+      try {
+        invoker.invoke(new PublicListener(), FIXTURE_ARGUMENT);
+        fail("Invokers of methods that throw must throw InvocationTargetException");
+      } catch (InvocationTargetException expected) {
+        assertTrue(expected.getCause() instanceof IntentionalException);
+      }
+    }
+  }
+
+  public void testInvoke_errorPassthrough() throws Exception {
+    Method method = method(PublicListener.class, "throwError");
+    for (SubscriberInvoker invoker : invokers(method)) {
+      try {
+        invoker.invoke(new PublicListener(), FIXTURE_ARGUMENT);
+        fail("Invokers of methods that throw Errors must rethrow them");
+      } catch (JudgmentError expected) {
+      }
+    }
+  }
+
+  private static SubscriberInvoker[] invokers(Method method) {
+    return new SubscriberInvoker[] {
+        SubscriberInvoker.create(method), SubscriberInvoker.reflective(method)};
+  }
+
+  private static Method method(Class<?> clazz, String name) {
+    for (Method method : clazz.getDeclaredMethods()) {
+      if (method.getName().equals(name)) {
+        return method;
+      }
+    }
+    throw new AssertionError(name);
+  }
+
+  /**
+   * Interface with a subscriber method, to check {@code invokeinterface} accessors.
+   */
+  public interface PublicInterface {
+    void handle(String event);
+  }
+
+  /**
+   * Listener whose public methods can be called by a generated accessor.
+   */
+  public static class PublicListener implements PublicInterface {
+    Object argument;
+
+    public void handleObject(Object event) {
+      argument = event;
+    }
+
+    @Override
+    public void handle(String event) {
+      argument = event;
+    }
+
+    public long handleAndReturnLong(Object event) {
+      argument = event;
+      return 42L;
+    }
+
+    void packagePrivate(Object event) {
+      argument = event;
+    }
+
+    public void handlePrivateEvent(PrivateEvent event) {
+      argument = event;
+    }
+
+    public void throwException(Object event) throws IntentionalException {
+      throw new IntentionalException();
+    }
+
+    public void throwError(Object event) {
+      throw new JudgmentError();
+    }
+  }
+
+  private static class PrivateListener {
+    Object argument;
+
+    public void handle(Object event) {
+      argument = event;
+    }
+  }
+
+  private static class PrivateEvent {
+  }
+
+  /**
+   * Local exception subclass to check variety of exception thrown.
+   */
+  public static class IntentionalException extends Exception {
+    private static final long serialVersionUID = -2500191180248181379L;
+  }
+
+  /**
+   * Local Error subclass to check variety of error thrown.
+   */
+  public static class JudgmentError extends Error {
+    private static final long serialVersionUID = 634248373797713373L;
+  }
+}
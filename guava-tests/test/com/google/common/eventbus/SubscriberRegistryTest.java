@@ -18,10 +18,16 @@ package com.google.common.eventbus;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
+import com.google.common.testing.GcFinalization;
 
 import junit.framework.TestCase;
 
+import java.lang.ref.WeakReference;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link SubscriberRegistry}.
@@ -30,7 +36,8 @@ import java.util.Iterator;
  */
 public class SubscriberRegistryTest extends TestCase {
 
-  private final SubscriberRegistry registry = new SubscriberRegistry(new EventBus());
+  private final SubscriberRegistry registry =
+      new SubscriberRegistry(new EventBus(Subscribe.class), Subscribe.class);
 
   public void testRegister() {
     assertEquals(0, registry.getSubscribersForTesting(String.class).size());
@@ -85,6 +92,68 @@ public class SubscriberRegistryTest extends TestCase {
     }
   }
 
+  public void testRegister_twice() {
+    StringSubscriber s1 = new StringSubscriber();
+    assertEquals(1, registry.register(s1, null).length);
+    assertEquals(0, registry.register(s1, null).length);
+    assertEquals(0, registry.registerWeakly(s1, null).length);
+    assertEquals(1, registry.getSubscribersForTesting(String.class).size());
+
+    registry.unregister(s1);
+    assertTrue(registry.getSubscribersForTesting(String.class).isEmpty());
+    assertEquals(1, registry.register(s1, null).length);
+  }
+
+  public void testRegister_invokersSharedAcrossBuses() {
+    SubscriberRegistry other =
+        new SubscriberRegistry(new EventBus(Subscribe.class), Subscribe.class);
+    Subscriber[] subscribers = registry.register(new StringSubscriber(), null);
+    Subscriber[] otherSubscribers = other.register(new StringSubscriber(), null);
+    assertSame(subscribers[0].invoker, otherSubscribers[0].invoker);
+  }
+
+  public void testUnregister_concurrentWithRegister() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      final SubscriberRegistry registry =
+          new SubscriberRegistry(new EventBus(Subscribe.class), Subscribe.class);
+      final StringSubscriber listener = new StringSubscriber();
+      final CyclicBarrier barrier = new CyclicBarrier(2);
+      FutureTask<Void> unregister = new FutureTask<Void>(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          barrier.await();
+          while (true) {
+            try {
+              registry.unregister(listener);
+              return null;
+            } catch (IllegalArgumentException notRegisteredYet) {
+            }
+          }
+        }
+      });
+      new Thread(unregister).start();
+      barrier.await();
+      registry.register(listener);
+      unregister.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  public void testUnregister_noSubscriberMethods() {
+    registry.unregister(new Object());
+  }
+
+  public void testGetDispatchSubscribers_deadEventClass() {
+    StringSubscriber s1 = new StringSubscriber();
+    registry.register(s1);
+    assertEquals(0, registry.getDispatchSubscribers(Integer.class).length);
+
+    // removing subscribers keeps the class dead, adding some revives it
+    registry.unregister(s1);
+    assertEquals(0, registry.getDispatchSubscribers(Integer.class).length);
+    registry.register(new IntegerSubscriber());
+    assertEquals(1, registry.getDispatchSubscribers(Integer.class).length);
+  }
+
   public void testGetSubscribers() {
     assertEquals(0, Iterators.size(registry.getSubscribers("")));
 
@@ -151,6 +220,83 @@ public class SubscriberRegistryTest extends TestCase {
     assertFalse(two.hasNext());
   }
 
+  public void testGetDispatchSubscribers_cachedUntilRegistrationChanges() {
+    Subscriber[] none = registry.getDispatchSubscribers(String.class);
+    assertEquals(0, none.length);
+    assertSame(none, registry.getDispatchSubscribers(String.class));
+
+    StringSubscriber s1 = new StringSubscriber();
+    registry.register(s1);
+    Subscriber[] one = registry.getDispatchSubscribers(String.class);
+    assertEquals(1, one.length);
+    assertSame(one, registry.getDispatchSubscribers(String.class));
+
+    registry.register(new ObjectSubscriber());
+    assertEquals(2, registry.getDispatchSubscribers(String.class).length);
+    assertEquals(1, registry.getDispatchSubscribers(Object.class).length);
+    assertEquals(1, one.length);
+
+    registry.unregister(s1);
+    assertEquals(1, registry.getDispatchSubscribers(String.class).length);
+  }
+
+  public void testGetDispatchSubscribers_orderedByPriority() {
+    ObjectSubscriber normalObject = new ObjectSubscriber();
+    LowPrioritySubscriber low = new LowPrioritySubscriber();
+    StringSubscriber normalString = new StringSubscriber();
+    HighPrioritySubscriber high = new HighPrioritySubscriber();
+    registry.register(normalObject);
+    registry.register(low);
+    registry.register(normalString);
+    registry.register(high);
+
+    Subscriber[] subscribers = registry.getDispatchSubscribers(String.class);
+    assertEquals(4, subscribers.length);
+    assertSame(high, subscribers[0].target);
+    assertSame(normalString, subscribers[1].target);
+    assertSame(normalObject, subscribers[2].target);
+    assertSame(low, subscribers[3].target);
+  }
+
+  public void testRegisterWeakly() {
+    StringSubscriber s1 = new StringSubscriber();
+    registry.registerWeakly(s1, null);
+    assertEquals(1, registry.getDispatchSubscribers(String.class).length);
+    assertSame(s1, registry.getDispatchSubscribers(String.class)[0].target());
+
+    // unregistering works as for strongly registered listeners
+    registry.unregister(s1);
+    assertEquals(0, registry.getDispatchSubscribers(String.class).length);
+  }
+
+  public void testRegisterWeakly_collectedListenersArePurged() {
+    WeakReference<Object> listener = registerWeakStringSubscriber();
+    Subscriber subscriber = registry.getDispatchSubscribers(String.class)[0];
+    GcFinalization.awaitClear(listener);
+    assertNull(subscriber.target());
+
+    // the reference is enqueued some time after being cleared
+    GcFinalization.awaitDone(new GcFinalization.FinalizationPredicate() {
+      @Override
+      public boolean isDone() {
+        registry.purgeCollectedListeners();
+        return registry.getDispatchSubscribers(String.class).length == 0;
+      }
+    });
+
+    StringSubscriber s2 = new StringSubscriber();
+    registry.register(s2);
+    Subscriber[] subscribers = registry.getDispatchSubscribers(String.class);
+    assertEquals(1, subscribers.length);
+    assertSame(s2, subscribers[0].target);
+  }
+
+  private WeakReference<Object> registerWeakStringSubscriber() {
+    StringSubscriber listener = new StringSubscriber();
+    registry.registerWeakly(listener, null);
+    return new WeakReference<Object>(listener);
+  }
+
   public static class StringSubscriber {
 
     @Subscribe
@@ -172,6 +318,22 @@ public class SubscriberRegistryTest extends TestCase {
     }
   }
 
+  public static class HighPrioritySubscriber {
+
+    @Subscribe
+    @SubscriberPriority(10)
+    public void handle(String s) {
+    }
+  }
+
+  public static class LowPrioritySubscriber {
+
+    @Subscribe
+    @SubscriberPriority(-1)
+    public void handle(Object o) {
+    }
+  }
+
   public void testFlattenHierarchy() {
     assertEquals(
         ImmutableSet.of(
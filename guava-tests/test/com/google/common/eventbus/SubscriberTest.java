@@ -17,6 +17,7 @@
 package com.google.common.eventbus;
 
 import com.google.common.testing.EqualsTester;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import junit.framework.TestCase;
 
@@ -39,7 +40,7 @@ public class SubscriberTest extends TestCase {
 
   @Override
   protected void setUp() throws Exception {
-    bus = new EventBus();
+    bus = new EventBus(Subscribe.class);
     methodCalled = false;
     methodArgument = null;
   }
@@ -53,6 +54,18 @@ public class SubscriberTest extends TestCase {
     assertFalse(s2 instanceof Subscriber.SynchronizedSubscriber);
   }
 
+  public void testCreate_mailbox() {
+    EventBus mailboxBus = new AsyncEventBus(
+        "mailbox", MoreExecutors.directExecutor(), SerializationMode.MAILBOX, Subscribe.class);
+    Subscriber s1 = Subscriber.create(mailboxBus, this, getTestSubscriberMethod("recordingMethod"));
+    assertTrue(s1 instanceof Subscriber.MailboxSubscriber);
+
+    // a thread-safe method needs no mailbox
+    Subscriber s2 = Subscriber.create(mailboxBus, this, getTestSubscriberMethod("threadSafeMethod"));
+    assertFalse(s2 instanceof Subscriber.MailboxSubscriber);
+    assertFalse(s2 instanceof Subscriber.SynchronizedSubscriber);
+  }
+
   public void testInvokeSubscriberMethod_basicMethodCall() throws Throwable {
     Method method = getTestSubscriberMethod("recordingMethod");
     Subscriber subscriber = Subscriber.create(bus, this, method);
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A semi-persistent mapping from keys to values, whose values are loaded asynchronously. Unlike
+ * {@link LoadingCache}, no method of this interface blocks the caller while values are loaded:
+ * they return a {@link ListenableFuture} of the values instead.
+ *
+ * <p>Values are loaded by the {@link CacheLoader} and on the {@link Executor} passed to
+ * {@link CacheBuilder#buildAsync}. All the keys that are requested while no load is running on the
+ * executor are loaded together, with a single call to {@link CacheLoader#loadAll}, whether they
+ * were requested by one call to {@link #getAll} or by many concurrent calls to {@link #get}. If
+ * the loader does not implement {@code loadAll}, those keys are loaded one after the other with
+ * {@link CacheLoader#load}. A key that is already being loaded, synchronously or not, is not loaded
+ * again: its callers share the result of the pending load.
+ *
+ * <p>Implementations of this interface are expected to be thread-safe, and can be safely accessed
+ * by multiple concurrent threads.
+ */
+@Beta
+@GwtIncompatible("To be supported")
+public interface AsyncLoadingCache<K, V> {
+
+  /**
+   * Returns a future of the value associated with {@code key} in this cache, loading that value
+   * if necessary. The returned future is already done if the value was present. Cancelling it has
+   * no effect on the load, which other callers may be waiting for.
+   *
+   * <p>The future fails with the exception thrown by the loader if loading fails, or with an
+   * {@link CacheLoader.InvalidCacheLoadException} if the loader returns no value for {@code key}.
+   */
+  ListenableFuture<V> get(K key);
+
+  /**
+   * Returns a future of a map of the values associated with {@code keys}, loading those values if
+   * necessary. The returned map contains entries that were already cached, combined with newly
+   * loaded entries; it will never contain null keys or values, and iterates in the order of
+   * {@code keys}. The future fails if the value of any of the keys fails to load.
+   */
+  ListenableFuture<ImmutableMap<K, V>> getAll(Iterable<? extends K> keys);
+
+  /**
+   * Loads a new value for {@code key}, without blocking the caller. While the new value is loading
+   * the previous value, if any, will continue to be returned by {@code get(key)}. See
+   * {@link LoadingCache#refresh}.
+   */
+  void refresh(K key);
+
+  /**
+   * Returns a view of this cache as a {@link LoadingCache}, whose methods block while values are
+   * loaded. Both share the same entries and statistics.
+   */
+  LoadingCache<K, V> synchronous();
+}
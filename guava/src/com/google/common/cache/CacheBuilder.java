@@ -33,10 +33,13 @@ import com.google.common.cache.AbstractCache.SimpleStatsCounter;
 import com.google.common.cache.AbstractCache.StatsCounter;
 import com.google.common.cache.LocalCache.Strength;
 
+import java.io.File;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ConcurrentModificationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -134,6 +137,11 @@ import javax.annotation.CheckReturnValue;
  * {@linkplain #weakValues weakValues}, or {@linkplain #softValues softValues} perform periodic
  * maintenance.
  *
+ * <p>The maintenance that follows reads and writes can be moved off the calling threads with
+ * {@link #maintenanceExecutor}, and caches can also be maintained periodically, even when idle,
+ * with {@link #scheduleMaintenance}. Entries evicted by size can be kept in a file with
+ * {@link #overflowToDisk}.
+ *
  * <p>The caches produced by {@code CacheBuilder} are serializable, and the deserialized caches
  * retain all the configuration properties of the original cache. Note that the serialized form does
  * <i>not</i> include cache contents, but only configuration.
@@ -221,6 +229,8 @@ public final class CacheBuilder<K, V> {
   long maximumSize = UNSET_INT;
   long maximumWeight = UNSET_INT;
   Weigher<? super K, ? super V> weigher;
+  Expiry<? super K, ? super V> expiry;
+  EvictionPolicy evictionPolicy;
 
   Strength keyStrength;
   Strength valueStrength;
@@ -234,6 +244,13 @@ public final class CacheBuilder<K, V> {
 
   RemovalListener<? super K, ? super V> removalListener;
   Ticker ticker;
+  Executor maintenanceExecutor;
+  ScheduledExecutorService maintenanceScheduler;
+  long maintenancePeriodNanos = UNSET_INT;
+  File overflowFile;
+  long overflowBytes = UNSET_INT;
+  ValueSerializer<?> overflowKeySerializer;
+  ValueSerializer<?> overflowValueSerializer;
 
   Supplier<? extends StatsCounter> statsCounterSupplier = NULL_STATS_COUNTER;
 
@@ -487,6 +504,31 @@ public final class CacheBuilder<K, V> {
     return me;
   }
 
+  /**
+   * Specifies the policy used to choose which entries to evict when the cache exceeds its
+   * {@linkplain #maximumSize maximum size} or {@linkplain #maximumWeight maximum weight}, and use
+   * of this method requires a corresponding call to one of these methods prior to calling
+   * {@link #build}. By default, the least recently used entries are evicted.
+   *
+   * <p>{@link EvictionPolicy#TINY_LFU} keeps frequently used entries from being flushed by scans of
+   * entries that are only used once.
+   *
+   * @param evictionPolicy the policy used to choose which entries to evict
+   * @throws IllegalStateException if an eviction policy was already set
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> evictionPolicy(EvictionPolicy evictionPolicy) {
+    checkState(this.evictionPolicy == null, "eviction policy was already set to %s",
+        this.evictionPolicy);
+    this.evictionPolicy = checkNotNull(evictionPolicy);
+    return this;
+  }
+
+  EvictionPolicy getEvictionPolicy() {
+    return MoreObjects.firstNonNull(evictionPolicy, EvictionPolicy.LRU);
+  }
+
   long getMaximumWeight() {
     if (expireAfterWriteNanos == 0 || expireAfterAccessNanos == 0) {
       return 0;
@@ -649,6 +691,47 @@ public final class CacheBuilder<K, V> {
         ? DEFAULT_EXPIRATION_NANOS : expireAfterAccessNanos;
   }
 
+  /**
+   * Specifies that each entry should be automatically removed from the cache once a duration
+   * computed by {@code expiry} for that entry has elapsed after the entry's creation, the most
+   * recent replacement of its value, or its last access. Unlike {@link #expireAfterWrite} and
+   * {@link #expireAfterAccess}, this lets entries of the same cache live for different durations,
+   * for instance when the time to live of a value comes with it. Expiring an entry takes constant
+   * time however many different durations the cache holds.
+   *
+   * <p>This method can not be combined with {@link #expireAfterWrite} or
+   * {@link #expireAfterAccess}.
+   *
+   * <p>Expired entries may be counted in {@link Cache#size}, but will never be visible to read or
+   * write operations. Expired entries are cleaned up as part of the routine maintenance described
+   * in the class javadoc; the cleanup of entries expiring after less than a second may be delayed
+   * by up to a second.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}, as {@link #weigher} does.
+   *
+   * @param expiry the expiry computing how long each entry lives
+   * @throws IllegalStateException if an expiry was already set
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> expireAfter(
+      Expiry<? super K1, ? super V1> expiry) {
+    checkState(this.expiry == null, "expiry was already set to %s", this.expiry);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.expiry = checkNotNull(expiry);
+    return me;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  <K1 extends K, V1 extends V> Expiry<K1, V1> getExpiry() {
+    return (Expiry<K1, V1>) expiry;
+  }
+
   /**
    * Specifies that active entries are eligible for automatic refresh once a fixed duration has
    * elapsed after the entry's creation, or the most recent replacement of its value. The semantics
@@ -710,6 +793,149 @@ public final class CacheBuilder<K, V> {
     return recordsTime ? Ticker.systemTicker() : NULL_TICKER;
   }
 
+  /**
+   * Specifies the executor running the routine maintenance described in the class documentation
+   * above, including the delivery of removal notifications, that would otherwise run on the
+   * threads reading or writing the cache. This keeps occasional bursts of cleanup, or a slow
+   * {@linkplain #removalListener removal listener}, from adding to the latency of cache
+   * operations. Writes still evict and expire entries before completing.
+   *
+   * <p>Maintenance tasks are cheap and never block, except when calling the removal listener; a
+   * task is not submitted while the previous task for the same part of the cache has not started.
+   * If {@code executor} rejects a task, the maintenance runs on the calling thread.
+   *
+   * @param executor the executor running maintenance tasks
+   * @throws IllegalStateException if a maintenance executor was already set
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> maintenanceExecutor(Executor executor) {
+    checkState(maintenanceExecutor == null, "maintenance executor was already set to %s",
+        maintenanceExecutor);
+    this.maintenanceExecutor = checkNotNull(executor);
+    return this;
+  }
+
+  Executor getMaintenanceExecutor() {
+    return maintenanceExecutor;
+  }
+
+  /**
+   * Specifies that each cache created by this builder should perform its routine maintenance every
+   * {@code period} on {@code scheduler}, as {@link Cache#cleanUp} would. Unlike the maintenance
+   * following reads and writes, this removes expired and collected entries from caches that are
+   * no longer used, and notifies the {@linkplain #removalListener removal listener} of them in a
+   * timely manner.
+   *
+   * <p>The scheduled task does not keep the cache from being garbage collected, and stops running
+   * once it has been collected.
+   *
+   * @param scheduler the executor running the maintenance of the cache
+   * @param period the time between the end of a maintenance and the start of the next one
+   * @param unit the unit that {@code period} is expressed in
+   * @throws IllegalArgumentException if {@code period} is not positive
+   * @throws IllegalStateException if scheduled maintenance was already set
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> scheduleMaintenance(
+      ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+    checkNotNull(scheduler);
+    checkNotNull(unit);
+    checkState(maintenanceScheduler == null, "maintenance was already scheduled on %s",
+        maintenanceScheduler);
+    checkArgument(period > 0, "period must be positive: %s %s", period, unit);
+    this.maintenanceScheduler = scheduler;
+    this.maintenancePeriodNanos = unit.toNanos(period);
+    return this;
+  }
+
+  ScheduledExecutorService getMaintenanceScheduler() {
+    return maintenanceScheduler;
+  }
+
+  long getMaintenancePeriodNanos() {
+    return maintenancePeriodNanos;
+  }
+
+  /**
+   * Specifies that each entry evicted by {@linkplain #maximumSize(long) size} from caches created
+   * by this builder should be written to the first {@code maxBytes} of {@code file}, which is
+   * mapped into memory, and that loads should read an entry written there before calling the
+   * {@link CacheLoader}. This bounds the heap used by the cache without losing the entries it can
+   * not hold, and recovers them when a cache is built again on the same file, for instance after
+   * a restart.
+   *
+   * <p>The file holds the most recently evicted entries: when it is full, the oldest entries are
+   * discarded to make room. Entries are written with {@code keySerializer} and
+   * {@code valueSerializer}; an entry too large for the file is discarded. A value found in the
+   * file is removed from it and stored in the cache as a loaded value, so that it is recorded as
+   * a successful load and its key is not passed to the loader. Only the loads of single keys read
+   * the file: {@link Cache#getIfPresent}, {@link LoadingCache#refresh}, bulk loads with
+   * {@link CacheLoader#loadAll} and the loads of {@linkplain #buildAsync asynchronous} caches
+   * ignore it. Writing or invalidating an entry discards any value
+   * written for its key. Since the file does not record when its entries expire, caches that
+   * overflow to disk can not expire or refresh their entries.
+   *
+   * <p>Changes to the file are written to the storage device by the operating system, or when
+   * {@link Cache#cleanUp} is called. Caches sharing a file must not be used at the same time, and
+   * the file is not part of the serialized form of the cache.
+   *
+   * <p><b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache
+   * builder reference; instead use the reference this method <i>returns</i>, as with
+   * {@link #removalListener}.
+   *
+   * @param file the file storing the evicted entries, which is created if it does not exist
+   * @param maxBytes the number of bytes of {@code file} storing the evicted entries
+   * @param keySerializer converts keys to and from bytes
+   * @param valueSerializer converts values to and from bytes
+   * @return the cache builder reference that should be used instead of {@code this} for any
+   *     remaining configuration and cache building
+   * @throws IllegalArgumentException if {@code maxBytes} is less than 64 or greater than
+   *     {@link Integer#MAX_VALUE}
+   * @throws IllegalStateException if an overflow file was already set
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  @CheckReturnValue
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> overflowToDisk(File file,
+      long maxBytes, ValueSerializer<K1> keySerializer, ValueSerializer<V1> valueSerializer) {
+    checkNotNull(file);
+    checkNotNull(keySerializer);
+    checkNotNull(valueSerializer);
+    checkState(overflowFile == null, "overflow file was already set to %s", overflowFile);
+    checkArgument(maxBytes >= DiskStore.MIN_SIZE && maxBytes <= Integer.MAX_VALUE,
+        "maxBytes must be in [%s, %s]: %s", DiskStore.MIN_SIZE, Integer.MAX_VALUE, maxBytes);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.overflowFile = file;
+    me.overflowBytes = maxBytes;
+    me.overflowKeySerializer = keySerializer;
+    me.overflowValueSerializer = valueSerializer;
+    return me;
+  }
+
+  File getOverflowFile() {
+    return overflowFile;
+  }
+
+  long getOverflowBytes() {
+    return overflowBytes;
+  }
+
+  // Only the builders returned by overflowToDisk set the serializers.
+  @SuppressWarnings("unchecked")
+  <K1 extends K> ValueSerializer<K1> getOverflowKeySerializer() {
+    return (ValueSerializer<K1>) overflowKeySerializer;
+  }
+
+  @SuppressWarnings("unchecked")
+  <V1 extends V> ValueSerializer<V1> getOverflowValueSerializer() {
+    return (ValueSerializer<V1>) overflowValueSerializer;
+  }
+
   /**
    * Specifies a listener instance that caches should notify each time an entry is removed for any
    * {@linkplain RemovalCause reason}. Each cache created by this builder will invoke this listener
@@ -786,9 +1012,37 @@ public final class CacheBuilder<K, V> {
   public <K1 extends K, V1 extends V> LoadingCache<K1, V1> build(
       CacheLoader<? super K1, V1> loader) {
     checkWeightWithWeigher();
+    checkEvictionPolicy();
+    checkExpiry();
+    checkOverflow();
     return new LocalCache.LocalLoadingCache<K1, V1>(this, loader);
   }
 
+  /**
+   * Builds a cache, which either returns an already-loaded value for a given key or loads it
+   * asynchronously using the supplied {@code CacheLoader}, returning futures of the values rather
+   * than blocking. Values are loaded on {@code executor}; keys requested while no load is running
+   * on it are loaded together with a single call to {@link CacheLoader#loadAll}, and keys that are
+   * already loading are not loaded again. Refreshes are also performed on {@code executor}.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @param executor the executor running the loader
+   * @return a cache having the requested features
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> AsyncLoadingCache<K1, V1> buildAsync(
+      CacheLoader<? super K1, V1> loader, Executor executor) {
+    checkWeightWithWeigher();
+    checkEvictionPolicy();
+    checkExpiry();
+    checkOverflow();
+    return new LocalCache.LocalAsyncLoadingCache<K1, V1>(this, loader, executor);
+  }
+
   /**
    * Builds a cache which does not automatically load values when keys are requested.
    *
@@ -803,14 +1057,76 @@ public final class CacheBuilder<K, V> {
    */
   public <K1 extends K, V1 extends V> Cache<K1, V1> build() {
     checkWeightWithWeigher();
+    checkEvictionPolicy();
+    checkExpiry();
+    checkOverflow();
     checkNonLoadingCache();
     return new LocalCache.LocalManualCache<K1, V1>(this);
   }
 
+  /**
+   * Builds a cache which stores its values outside of the Java heap, in direct
+   * {@link java.nio.ByteBuffer} slabs, so that large caches do not lengthen garbage collection
+   * pauses. Only the keys, and the location of each value, are kept on the heap. Values are
+   * converted to bytes by {@code serializer} when they are stored, and back each time they are
+   * read, so that reads return distinct but equivalent instances.
+   *
+   * <p>If {@link #maximumWeight} is specified, it bounds the total size in bytes of the serialized
+   * values, and no weigher may be specified. The memory held outside of the heap also includes
+   * the rounding of each value to a power of two bytes, and the memory freed by removed values,
+   * which is only reused by values of a similar size. The {@linkplain #removalListener removal
+   * listener} is notified with deserialized values. The caches built by this method do not support
+   * {@link #weakValues}, {@link #softValues}, {@link #expireAfter} or {@link Cache#asMap}.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param serializer converts values to and from bytes
+   * @return a cache having the requested features
+   * @throws IllegalStateException if this builder has settings off-heap caches do not support
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> Cache<K1, V1> buildOffHeap(ValueSerializer<V1> serializer) {
+    checkNotNull(serializer);
+    checkState(weigher == null, "off-heap caches weigh values by their serialized size");
+    checkState(valueStrength == null, "off-heap caches can not reference values weakly or softly");
+    checkState(expiry == null, "off-heap caches do not support expireAfter");
+    checkState(overflowFile == null, "off-heap caches do not support overflowToDisk");
+    checkEvictionPolicy();
+    checkNonLoadingCache();
+    return new OffHeapCache<K1, V1>(this, serializer);
+  }
+
   private void checkNonLoadingCache() {
     checkState(refreshNanos == UNSET_INT, "refreshAfterWrite requires a LoadingCache");
   }
 
+  private void checkEvictionPolicy() {
+    if (evictionPolicy != null) {
+      checkState(maximumSize != UNSET_INT || maximumWeight != UNSET_INT,
+          "evictionPolicy requires maximumSize or maximumWeight");
+    }
+  }
+
+  private void checkExpiry() {
+    if (expiry != null) {
+      checkState(expireAfterWriteNanos == UNSET_INT && expireAfterAccessNanos == UNSET_INT,
+          "expireAfter can not be combined with expireAfterWrite or expireAfterAccess");
+    }
+  }
+
+  private void checkOverflow() {
+    if (overflowFile != null) {
+      checkState(maximumSize != UNSET_INT || maximumWeight != UNSET_INT,
+          "overflowToDisk requires maximumSize or maximumWeight");
+      checkState(keyStrength == null, "overflowToDisk requires strong keys");
+      checkState(expireAfterWriteNanos == UNSET_INT && expireAfterAccessNanos == UNSET_INT
+          && expiry == null && refreshNanos == UNSET_INT,
+          "overflowToDisk can not be combined with expiration or refreshAfterWrite");
+    }
+  }
+
   private void checkWeightWithWeigher() {
     if (weigher == null) {
       checkState(maximumWeight == UNSET_INT, "maximumWeight requires weigher");
@@ -844,12 +1160,18 @@ public final class CacheBuilder<K, V> {
     if (maximumWeight != UNSET_INT) {
       s.add("maximumWeight", maximumWeight);
     }
+    if (evictionPolicy != null) {
+      s.add("evictionPolicy", Ascii.toLowerCase(evictionPolicy.toString()));
+    }
     if (expireAfterWriteNanos != UNSET_INT) {
       s.add("expireAfterWrite", expireAfterWriteNanos + "ns");
     }
     if (expireAfterAccessNanos != UNSET_INT) {
       s.add("expireAfterAccess", expireAfterAccessNanos + "ns");
     }
+    if (expiry != null) {
+      s.addValue("expiry");
+    }
     if (keyStrength != null) {
       s.add("keyStrength", Ascii.toLowerCase(keyStrength.toString()));
     }
@@ -865,6 +1187,15 @@ public final class CacheBuilder<K, V> {
     if (removalListener != null) {
       s.addValue("removalListener");
     }
+    if (maintenanceExecutor != null) {
+      s.addValue("maintenanceExecutor");
+    }
+    if (maintenanceScheduler != null) {
+      s.add("maintenancePeriod", maintenancePeriodNanos + "ns");
+    }
+    if (overflowFile != null) {
+      s.add("overflowFile", overflowFile);
+    }
     return s.toString();
   }
 }
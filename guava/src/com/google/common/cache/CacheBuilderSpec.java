@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Splitter;
@@ -27,6 +28,7 @@ import com.google.common.cache.LocalCache.Strength;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -52,6 +54,8 @@ import javax.annotation.Nullable;
  * <li>{@code softValues}: sets {@link CacheBuilder#softValues}.
  * <li>{@code weakValues}: sets {@link CacheBuilder#weakValues}.
  * <li>{@code recordStats}: sets {@link CacheBuilder#recordStats}.
+ * <li>{@code evictionPolicy=[policy]}: sets {@link CacheBuilder#evictionPolicy} to the
+ *     {@link EvictionPolicy} of that name, such as {@code lru} or {@code tiny_lfu}, in any case.
  * </ul>
  *
  * <p>The set of supported keys will grow as {@code CacheBuilder} evolves, but existing keys
@@ -103,6 +107,7 @@ public final class CacheBuilderSpec {
           .put("softValues", new ValueStrengthParser(Strength.SOFT))
           .put("weakValues", new ValueStrengthParser(Strength.WEAK))
           .put("recordStats", new RecordStatsParser())
+          .put("evictionPolicy", new EvictionPolicyParser())
           .put("expireAfterAccess", new AccessDurationParser())
           .put("expireAfterWrite", new WriteDurationParser())
           .put("refreshAfterWrite", new RefreshDurationParser())
@@ -116,6 +121,7 @@ public final class CacheBuilderSpec {
   @VisibleForTesting Strength keyStrength;
   @VisibleForTesting Strength valueStrength;
   @VisibleForTesting Boolean recordStats;
+  @VisibleForTesting EvictionPolicy evictionPolicy;
   @VisibleForTesting long writeExpirationDuration;
   @VisibleForTesting TimeUnit writeExpirationTimeUnit;
   @VisibleForTesting long accessExpirationDuration;
@@ -205,6 +211,9 @@ public final class CacheBuilderSpec {
     if (recordStats != null && recordStats) {
       builder.recordStats();
     }
+    if (evictionPolicy != null) {
+      builder.evictionPolicy(evictionPolicy);
+    }
     if (writeExpirationTimeUnit != null) {
       builder.expireAfterWrite(writeExpirationDuration, writeExpirationTimeUnit);
     }
@@ -247,6 +256,7 @@ public final class CacheBuilderSpec {
         keyStrength,
         valueStrength,
         recordStats,
+        evictionPolicy,
         durationInNanos(writeExpirationDuration, writeExpirationTimeUnit),
         durationInNanos(accessExpirationDuration, accessExpirationTimeUnit),
         durationInNanos(refreshDuration, refreshTimeUnit));
@@ -268,6 +278,7 @@ public final class CacheBuilderSpec {
         && Objects.equal(keyStrength, that.keyStrength)
         && Objects.equal(valueStrength, that.valueStrength)
         && Objects.equal(recordStats, that.recordStats)
+        && Objects.equal(evictionPolicy, that.evictionPolicy)
         && Objects.equal(durationInNanos(writeExpirationDuration, writeExpirationTimeUnit),
             durationInNanos(that.writeExpirationDuration, that.writeExpirationTimeUnit))
         && Objects.equal(durationInNanos(accessExpirationDuration, accessExpirationTimeUnit),
@@ -405,6 +416,24 @@ public final class CacheBuilderSpec {
     }
   }
 
+  /** Parse evictionPolicy */
+  static class EvictionPolicyParser implements ValueParser {
+
+    @Override
+    public void parse(CacheBuilderSpec spec, String key, @Nullable String value) {
+      checkArgument(value != null && !value.isEmpty(), "value of key %s omitted", key);
+      checkArgument(spec.evictionPolicy == null,
+          "%s was already set to %s", key, spec.evictionPolicy);
+      try {
+        spec.evictionPolicy = EvictionPolicy.valueOf(Ascii.toUpperCase(value));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            String.format("key %s value set to %s, must be one of %s",
+                key, value, Arrays.toString(EvictionPolicy.values())), e);
+      }
+    }
+  }
+
   /** Base class for parsing times with durations */
   abstract static class DurationParser implements ValueParser {
     protected abstract void parseDuration(
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.base.Ascii;
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.LocalCache.LocalManualCache;
+import com.google.common.cache.LocalCache.Segment;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A snapshot of the statistics of a cache built by {@link CacheBuilder}, which extend its
+ * {@link CacheStats} with figures helping to tell whether the cache is too small, or slowed down
+ * by contention:
+ *
+ * <ul>
+ * <li>the distribution of load times, as percentiles
+ * <li>the number of entries removed for each {@linkplain RemovalCause cause}
+ * <li>the time spent by threads waiting for the lock of each segment of the cache
+ * <li>the number of reads that were not recorded for the eviction of entries, because the buffers
+ *     recording them were full or contended
+ * <li>the current weighted size of the cache
+ * </ul>
+ *
+ * <p>Like {@link Cache#stats}, the statistics other than the weighted size are only recorded by
+ * caches built with {@link CacheBuilder#recordStats}, and are zero for other caches. Recording
+ * them costs a few counter updates when entries are loaded or removed, when reads are lost, and
+ * when a thread blocks on a segment lock; taking a snapshot briefly locks each segment.
+ */
+@Beta
+@GwtIncompatible("To be supported")
+public final class CacheDiagnostics {
+  private final CacheStats stats;
+  private final long[] loadTimeCounts;
+  private final long[] removalCounts;
+  private final long readDropCount;
+  private final long weightedSize;
+  private final long[] lockWaitTimes;
+  private final long[] contendedLockCounts;
+
+  CacheDiagnostics(CacheStats stats, long[] loadTimeCounts, long[] removalCounts,
+      long readDropCount, long weightedSize, long[] lockWaitTimes, long[] contendedLockCounts) {
+    this.stats = stats;
+    this.loadTimeCounts = loadTimeCounts;
+    this.removalCounts = removalCounts;
+    this.readDropCount = readDropCount;
+    this.weightedSize = weightedSize;
+    this.lockWaitTimes = lockWaitTimes;
+    this.contendedLockCounts = contendedLockCounts;
+  }
+
+  /**
+   * Returns a snapshot of the statistics of {@code cache}. Note that this may be an inconsistent
+   * view, as the cache may be used concurrently.
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@link CacheBuilder}
+   */
+  public static CacheDiagnostics of(Cache<?, ?> cache) {
+    checkNotNull(cache);
+    if (cache instanceof OffHeapCache) {
+      return of(((OffHeapCache<?, ?>) cache).slots);
+    }
+    checkArgument(cache instanceof LocalManualCache, "%s was not built by CacheBuilder", cache);
+    LocalCache<?, ?> localCache = ((LocalManualCache<?, ?>) cache).localCache;
+
+    Recorder recorder = localCache.diagnostics;
+    int segmentCount = localCache.segments.length;
+    long weightedSize = 0;
+    long[] lockWaitTimes = new long[segmentCount];
+    long[] contendedLockCounts = new long[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      Segment<?, ?> segment = localCache.segments[i];
+      segment.lock();
+      try {
+        weightedSize += segment.totalWeight;
+        lockWaitTimes[i] = segment.lockWaitNanos;
+        contendedLockCounts[i] = segment.contendedLockCount;
+      } finally {
+        segment.unlock();
+      }
+    }
+    return (recorder == null)
+        ? new CacheDiagnostics(cache.stats(), new long[Recorder.BUCKETS],
+            new long[RemovalCause.values().length], 0, weightedSize, lockWaitTimes,
+            contendedLockCounts)
+        : new CacheDiagnostics(cache.stats(), recorder.loadTimeCounts(), recorder.removalCounts(),
+            recorder.readDrops.sum(), weightedSize, lockWaitTimes, contendedLockCounts);
+  }
+
+  /**
+   * Returns the {@link CacheStats} of the cache.
+   */
+  public CacheStats stats() {
+    return stats;
+  }
+
+  /**
+   * Returns an upper bound of the given percentile of the times spent loading new values, in
+   * nanoseconds, or zero if no value was loaded. For instance, {@code loadTimePercentile(99)}
+   * returns a time at least as long as 99% of the load times. Load times are recorded with a
+   * precision of 25%. A bulk load counts as a single load.
+   *
+   * @throws IllegalArgumentException if {@code percentile} is not in the range [0, 100]
+   */
+  public long loadTimePercentile(double percentile) {
+    checkArgument(percentile >= 0.0 && percentile <= 100.0,
+        "percentile must be in [0, 100]: %s", percentile);
+    long total = 0;
+    for (long count : loadTimeCounts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+    long seen = 0;
+    for (int bucket = 0; bucket < loadTimeCounts.length; bucket++) {
+      seen += loadTimeCounts[bucket];
+      if (seen >= rank) {
+        return Recorder.upperBound(bucket);
+      }
+    }
+    throw new AssertionError();
+  }
+
+  /**
+   * Returns the number of entries removed from the cache for {@code cause}. The causes for which
+   * {@link RemovalCause#wasEvicted} is true add up to {@link CacheStats#evictionCount}.
+   */
+  public long removalCount(RemovalCause cause) {
+    return removalCounts[cause.ordinal()];
+  }
+
+  /**
+   * Returns the number of reads that were not recorded for the eviction of the entries read,
+   * because too many threads were reading the same segment of the cache at once. Such reads make
+   * eviction slightly less accurate.
+   */
+  public long readDropCount() {
+    return readDropCount;
+  }
+
+  /**
+   * Returns the sum of the weights of the entries of the cache, as computed by its
+   * {@linkplain CacheBuilder#weigher weigher}, or the number of entries if it has none. This is
+   * the figure bounded by {@linkplain CacheBuilder#maximumWeight maximumWeight} and
+   * {@linkplain CacheBuilder#maximumSize(long) maximumSize}.
+   */
+  public long weightedSize() {
+    return weightedSize;
+  }
+
+  /**
+   * Returns the number of segments of the cache, each holding a part of its entries behind a
+   * lock.
+   */
+  public int segmentCount() {
+    return lockWaitTimes.length;
+  }
+
+  /**
+   * Returns the total time threads spent waiting for the lock of a segment, in nanoseconds.
+   */
+  public long lockWaitTime() {
+    long total = 0;
+    for (long time : lockWaitTimes) {
+      total += time;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the time threads spent waiting for the lock of the given segment, in nanoseconds.
+   *
+   * @throws IndexOutOfBoundsException if {@code segment} is not in [0, {@link #segmentCount})
+   */
+  public long lockWaitTime(int segment) {
+    checkElementIndex(segment, lockWaitTimes.length);
+    return lockWaitTimes[segment];
+  }
+
+  /**
+   * Returns the number of times a thread had to wait for the lock of a segment.
+   */
+  public long contendedLockCount() {
+    long total = 0;
+    for (long count : contendedLockCounts) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of times a thread had to wait for the lock of the given segment.
+   *
+   * @throws IndexOutOfBoundsException if {@code segment} is not in [0, {@link #segmentCount})
+   */
+  public long contendedLockCount(int segment) {
+    checkElementIndex(segment, contendedLockCounts.length);
+    return contendedLockCounts[segment];
+  }
+
+  @Override
+  public String toString() {
+    MoreObjects.ToStringHelper s = MoreObjects.toStringHelper(this)
+        .add("stats", stats)
+        .add("loadTimeMedian", loadTimePercentile(50))
+        .add("loadTime99thPercentile", loadTimePercentile(99));
+    for (RemovalCause cause : RemovalCause.values()) {
+      s.add(Ascii.toLowerCase(cause.name()) + "Count", removalCount(cause));
+    }
+    return s.add("readDropCount", readDropCount)
+        .add("weightedSize", weightedSize)
+        .add("lockWaitTime", lockWaitTime())
+        .add("contendedLockCount", contendedLockCount())
+        .toString();
+  }
+
+  /**
+   * Records the statistics of a cache that are shared by its segments.
+   */
+  static final class Recorder {
+    /**
+     * Load times are counted in buckets of 2 bits of precision: 4 buckets for each power of two,
+     * the first 8 buckets counting the times from 0 to 7 nanoseconds exactly.
+     */
+    static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+    final AtomicLongArray loadTimes = new AtomicLongArray(BUCKETS);
+    final LongAddable[] removals = new LongAddable[RemovalCause.values().length];
+    final LongAddable readDrops = LongAddables.create();
+
+    Recorder() {
+      for (int i = 0; i < removals.length; i++) {
+        removals[i] = LongAddables.create();
+      }
+    }
+
+    void recordLoad(long nanos) {
+      loadTimes.incrementAndGet(bucket(nanos));
+    }
+
+    void recordRemoval(RemovalCause cause) {
+      removals[cause.ordinal()].increment();
+    }
+
+    void recordReadDrop() {
+      readDrops.increment();
+    }
+
+    long[] loadTimeCounts() {
+      long[] counts = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = loadTimes.get(i);
+      }
+      return counts;
+    }
+
+    long[] removalCounts() {
+      long[] counts = new long[removals.length];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = removals[i].sum();
+      }
+      return counts;
+    }
+
+    static int bucket(long nanos) {
+      if (nanos < 4) {
+        return (int) Math.max(nanos, 0);
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      int mantissa = (int) (nanos >>> (exponent - 2)) & 3;
+      return 4 * (exponent - 1) + mantissa;
+    }
+
+    /** Returns the longest time counted by {@code bucket}. */
+    static long upperBound(int bucket) {
+      if (bucket < 4) {
+        return bucket;
+      }
+      int exponent = bucket / 4 + 1;
+      long lowerBound = (long) (4 + bucket % 4) << (exponent - 2);
+      return lowerBound + (1L << (exponent - 2)) - 1;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.cache.LocalCache.LocalManualCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Static methods saving the contents of a {@link Cache} to a compact binary snapshot, and
+ * restoring them, so that a cache built when an application restarts can be warmed up with the
+ * entries that were in use before.
+ *
+ * <p>Snapshots list the most recently used entries first: a snapshot limited to a number of
+ * entries holds the hottest entries of the cache. The entries of a cache built by
+ * {@link CacheBuilder} are only ordered by use if the cache is bounded by
+ * {@linkplain CacheBuilder#maximumSize(long) size} or
+ * {@linkplain CacheBuilder#expireAfterAccess expires after access}, since other caches do not
+ * track the use of their entries; the entries of other caches are saved in the iteration order
+ * of {@link Cache#asMap}. Caches {@linkplain CacheBuilder#buildOffHeap stored off-heap} are
+ * ordered like the caches of {@code CacheBuilder} configured in the same way.
+ *
+ * <p>A snapshot may hold entries, which are restored with {@link #readEntries}, or only keys. The
+ * keys of a snapshot, read with {@link #readKeys}, can be loaded again in parallel by an
+ * {@link AsyncLoadingCache}, or in bulk by a {@link LoadingCache}:
+ *
+ * <pre>   {@code
+ *
+ *   cache.getAll(CacheSnapshots.readKeys(snapshot, keySerializer));}</pre>
+ *
+ * <p>The keys and values are converted to bytes by {@link ValueSerializer}s; a snapshot is read
+ * with serializers compatible with those that wrote it.
+ */
+@Beta
+@GwtIncompatible("To be supported")
+public final class CacheSnapshots {
+  private CacheSnapshots() {}
+
+  /** Identifies snapshots. */
+  private static final int MAGIC = 0x47435350;
+
+  private static final byte KEYS = 0;
+  private static final byte ENTRIES = 1;
+
+  /**
+   * Writes up to {@code limit} entries of {@code cache} to {@code sink}, the most recently used
+   * first, and returns the number of entries written.
+   *
+   * @throws IllegalArgumentException if {@code limit} is negative
+   * @throws IOException if an I/O error occurs in the process of writing to {@code sink}
+   */
+  public static <K, V> int writeEntries(Cache<K, V> cache, int limit,
+      ValueSerializer<? super K> keySerializer, ValueSerializer<? super V> valueSerializer,
+      ByteSink sink) throws IOException {
+    checkNotNull(valueSerializer);
+    return write(cache, limit, keySerializer, valueSerializer, sink);
+  }
+
+  /**
+   * Writes up to {@code limit} keys of {@code cache} to {@code sink}, the most recently used
+   * first, and returns the number of keys written.
+   *
+   * @throws IllegalArgumentException if {@code limit} is negative
+   * @throws IOException if an I/O error occurs in the process of writing to {@code sink}
+   */
+  public static <K> int writeKeys(Cache<K, ?> cache, int limit,
+      ValueSerializer<? super K> keySerializer, ByteSink sink) throws IOException {
+    return write(cache, limit, keySerializer, null, sink);
+  }
+
+  /**
+   * Reads the entries of a snapshot written by {@link #writeEntries} from {@code source} and
+   * stores them in {@code cache}, replacing the values it holds for the same keys, and returns
+   * the number of entries read. The least recently used entries are stored first, so that a
+   * cache ordering its entries by use orders them as they were when the snapshot was written.
+   *
+   * @throws IOException if an I/O error occurs in the process of reading from {@code source}, or
+   *     if {@code source} is not a snapshot of entries
+   */
+  public static <K, V> int readEntries(ByteSource source, ValueSerializer<K> keySerializer,
+      ValueSerializer<V> valueSerializer, Cache<? super K, ? super V> cache) throws IOException {
+    checkNotNull(keySerializer);
+    checkNotNull(valueSerializer);
+    checkNotNull(cache);
+    List<Entry<K, V>> entries;
+    Closer closer = Closer.create();
+    try {
+      DataInputStream in = closer.register(new DataInputStream(source.openBufferedStream()));
+      if (readHeader(in) != ENTRIES) {
+        throw new IOException("Not a snapshot of entries");
+      }
+      int count = readCount(in);
+      entries = Lists.newArrayList();
+      for (int i = 0; i < count; i++) {
+        K key = read(in, keySerializer);
+        entries.add(Maps.immutableEntry(key, read(in, valueSerializer)));
+      }
+    } catch (Throwable e) {
+      throw closer.rethrow(e);
+    } finally {
+      closer.close();
+    }
+    for (Entry<K, V> entry : Lists.reverse(entries)) {
+      cache.put(entry.getKey(), entry.getValue());
+    }
+    return entries.size();
+  }
+
+  /**
+   * Reads the keys of a snapshot written by {@link #writeKeys} or {@link #writeEntries} from
+   * {@code source}, and returns them in the order they were written, the most recently used
+   * first.
+   *
+   * @throws IOException if an I/O error occurs in the process of reading from {@code source}, or
+   *     if {@code source} is not a snapshot
+   */
+  public static <K> ImmutableList<K> readKeys(ByteSource source, ValueSerializer<K> keySerializer)
+      throws IOException {
+    checkNotNull(keySerializer);
+    Closer closer = Closer.create();
+    try {
+      DataInputStream in = closer.register(new DataInputStream(source.openBufferedStream()));
+      boolean hasValues = readHeader(in) == ENTRIES;
+      int count = readCount(in);
+      ImmutableList.Builder<K> keys = ImmutableList.builder();
+      for (int i = 0; i < count; i++) {
+        keys.add(read(in, keySerializer));
+        if (hasValues) {
+          skip(in);
+        }
+      }
+      return keys.build();
+    } catch (Throwable e) {
+      throw closer.rethrow(e);
+    } finally {
+      closer.close();
+    }
+  }
+
+  private static <K, V> int write(Cache<K, V> cache, int limit,
+      ValueSerializer<? super K> keySerializer, ValueSerializer<? super V> valueSerializer,
+      ByteSink sink) throws IOException {
+    checkNotNull(keySerializer);
+    checkNotNull(sink);
+    checkArgument(limit >= 0, "limit must not be negative: %s", limit);
+    List<Entry<K, V>> entries = hottestEntries(cache, limit);
+
+    Closer closer = Closer.create();
+    try {
+      DataOutputStream out = closer.register(new DataOutputStream(sink.openBufferedStream()));
+      out.writeInt(MAGIC);
+      out.writeByte((valueSerializer == null) ? KEYS : ENTRIES);
+      out.writeInt(entries.size());
+      for (Entry<K, V> entry : entries) {
+        write(out, keySerializer.serialize(entry.getKey()));
+        if (valueSerializer != null) {
+          write(out, valueSerializer.serialize(entry.getValue()));
+        }
+      }
+      out.flush();
+    } catch (Throwable e) {
+      throw closer.rethrow(e);
+    } finally {
+      closer.close();
+    }
+    return entries.size();
+  }
+
+  private static <K, V> List<Entry<K, V>> hottestEntries(Cache<K, V> cache, int limit) {
+    if (cache instanceof LocalManualCache) {
+      return ((LocalManualCache<K, V>) cache).localCache.hottestEntries(limit);
+    }
+    if (cache instanceof OffHeapCache) {
+      // its asMap view is not supported
+      return ((OffHeapCache<K, V>) cache).hottestEntries(limit);
+    }
+    return Lists.newArrayList(Iterables.limit(cache.asMap().entrySet(), limit));
+  }
+
+  private static void write(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte readHeader(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a cache snapshot");
+    }
+    byte type = in.readByte();
+    if (type != KEYS && type != ENTRIES) {
+      throw new IOException("Unknown snapshot type: " + type);
+    }
+    return type;
+  }
+
+  private static int readCount(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count < 0) {
+      throw new IOException("Negative count in snapshot: " + count);
+    }
+    return count;
+  }
+
+  private static <T> T read(DataInputStream in, ValueSerializer<T> serializer)
+      throws IOException {
+    int length = readCount(in);
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return serializer.deserialize(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+  }
+
+  private static void skip(DataInputStream in) throws IOException {
+    int length = readCount(in);
+    if (in.skipBytes(length) != length) {
+      throw new IOException("Truncated snapshot");
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The overflow tier of a cache built with {@link CacheBuilder#overflowToDisk}: a bounded store of
+ * the entries evicted by size, in a memory-mapped file.
+ *
+ * <p>The file is a circular log of records, each holding a serialized key and value. Records are
+ * appended at the tail of the log; when the file is full, the records at its head are dropped,
+ * oldest first, to make room. Invalidated records are only marked dead, and are reclaimed the same
+ * way. An in-memory index locates the live record of each key.
+ *
+ * <p>The header of the file locates the head and the tail of the log, so that a store reopening
+ * the file of a previous store, for instance after a restart, recovers its entries. The file is
+ * only written through the mapping; {@link #force} writes it to the storage device.
+ */
+@GwtIncompatible("To be supported")
+final class DiskStore<K, V> {
+
+  /** Identifies the files written by this class. */
+  private static final int MAGIC = 0x47434453;
+
+  // header: magic, capacity, head, tail, record count
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int HEAD_OFFSET = 8;
+  private static final int TAIL_OFFSET = 12;
+  private static final int RECORDS_OFFSET = 16;
+  static final int HEADER_SIZE = 20;
+
+  // record: key length, value length, state, key, value
+  private static final int VALUE_LENGTH_OFFSET = 4;
+  private static final int STATE_OFFSET = 8;
+  private static final int RECORD_HEADER_SIZE = 9;
+
+  private static final byte LIVE = 1;
+  private static final byte DEAD = 0;
+
+  /** Replaces the key length of a record to mark the end of the log before the end of the file. */
+  private static final int WRAP = -1;
+
+  /** The smallest file a store may use. */
+  static final int MIN_SIZE = 64;
+
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final ValueSerializer<K> keySerializer;
+  private final ValueSerializer<V> valueSerializer;
+
+  /**
+   * The position of the live record of each key. Only written while holding the lock of the
+   * store, and read without it to skip the invalidation of keys that are not stored.
+   */
+  private final ConcurrentMap<Object, Integer> index = new ConcurrentHashMap<Object, Integer>();
+
+  /** Position of the oldest record. */
+  @GuardedBy("this")
+  private int head;
+
+  /** Position of the next record. */
+  @GuardedBy("this")
+  private int tail;
+
+  /** Number of records, live or dead, between the head and the tail. */
+  @GuardedBy("this")
+  private int records;
+
+  private DiskStore(MappedByteBuffer buffer, ValueSerializer<K> keySerializer,
+      ValueSerializer<V> valueSerializer) {
+    this.buffer = buffer;
+    this.capacity = buffer.capacity();
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+  }
+
+  /**
+   * Returns a store using the first {@code size} bytes of {@code file}, recovering the entries
+   * written to it by a previous store of the same size, if any.
+   */
+  static <K, V> DiskStore<K, V> open(File file, int size, ValueSerializer<K> keySerializer,
+      ValueSerializer<V> valueSerializer) throws IOException {
+    DiskStore<K, V> store = new DiskStore<K, V>(Files.map(file, MapMode.READ_WRITE, size),
+        checkNotNull(keySerializer), checkNotNull(valueSerializer));
+    synchronized (store) {
+      if (!store.recover()) {
+        store.reset();
+      }
+    }
+    return store;
+  }
+
+  /** Returns the number of live records. */
+  int size() {
+    return index.size();
+  }
+
+  /**
+   * Stores {@code value} for {@code key}, replacing any stored value. Values too large for the file
+   * are not stored.
+   */
+  synchronized void put(K key, V value) {
+    removeRecord(key);
+    // the serializers may reuse their arrays
+    byte[] keyBytes = keySerializer.serialize(key).clone();
+    byte[] valueBytes = valueSerializer.serialize(value);
+    long recordSize = (long) RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length;
+    if (recordSize > capacity - HEADER_SIZE) {
+      return;
+    }
+    int position = allocate((int) recordSize);
+    buffer.putInt(position, keyBytes.length);
+    buffer.putInt(position + VALUE_LENGTH_OFFSET, valueBytes.length);
+    buffer.put(position + STATE_OFFSET, LIVE);
+    ByteBuffer record = buffer.duplicate();
+    record.position(position + RECORD_HEADER_SIZE);
+    record.put(keyBytes);
+    record.put(valueBytes);
+    index.put(key, position);
+    writeHeader();
+  }
+
+  /** Removes and returns the value stored for {@code key}, or returns null if there is none. */
+  @Nullable
+  V remove(Object key) {
+    if (!index.containsKey(key)) {
+      return null;
+    }
+    synchronized (this) {
+      Integer position = index.get(key);
+      if (position == null) {
+        return null;
+      }
+      V value = valueSerializer.deserialize(value(position));
+      removeRecord(key);
+      return value;
+    }
+  }
+
+  /** Discards the value stored for {@code key}, if any. */
+  void invalidate(Object key) {
+    if (index.containsKey(key)) {
+      synchronized (this) {
+        removeRecord(key);
+      }
+    }
+  }
+
+  /** Discards all the stored values. */
+  synchronized void invalidateAll() {
+    index.clear();
+    reset();
+  }
+
+  /** Writes the changes to the file to the storage device. */
+  void force() {
+    buffer.force();
+  }
+
+  @GuardedBy("this")
+  private void removeRecord(Object key) {
+    Integer position = index.remove(key);
+    if (position != null) {
+      buffer.put(position + STATE_OFFSET, DEAD);
+    }
+  }
+
+  /** Returns the position of a new record of {@code size} bytes, dropping old records as needed. */
+  @GuardedBy("this")
+  private int allocate(int size) {
+    if (records == 0) {
+      head = tail = HEADER_SIZE;
+    }
+    if (tail + size > capacity) {
+      // the records between the tail and the end of the file are overwritten by the next lap
+      while (records > 0 && head >= tail) {
+        dropHead();
+      }
+      if (tail + 4 <= capacity) {
+        buffer.putInt(tail, WRAP);
+      }
+      tail = HEADER_SIZE;
+    }
+    while (records > 0 && head >= tail && head < tail + size) {
+      dropHead();
+    }
+    int position = tail;
+    tail += size;
+    records++;
+    return position;
+  }
+
+  @GuardedBy("this")
+  private void dropHead() {
+    if (buffer.get(head + STATE_OFFSET) == LIVE) {
+      index.remove(keySerializer.deserialize(key(head)), head);
+    }
+    head = next(head);
+    records--;
+  }
+
+  /** Returns the position of the record following the record at {@code position}. */
+  @GuardedBy("this")
+  private int next(int position) {
+    int next = position + RECORD_HEADER_SIZE + buffer.getInt(position)
+        + buffer.getInt(position + VALUE_LENGTH_OFFSET);
+    if (next + 4 > capacity || buffer.getInt(next) == WRAP) {
+      return HEADER_SIZE;
+    }
+    return next;
+  }
+
+  private ByteBuffer key(int position) {
+    return slice(position + RECORD_HEADER_SIZE, buffer.getInt(position));
+  }
+
+  private ByteBuffer value(int position) {
+    int keyLength = buffer.getInt(position);
+    return slice(position + RECORD_HEADER_SIZE + keyLength,
+        buffer.getInt(position + VALUE_LENGTH_OFFSET));
+  }
+
+  private ByteBuffer slice(int position, int length) {
+    ByteBuffer slice = buffer.asReadOnlyBuffer();
+    slice.limit(position + length);
+    slice.position(position);
+    return slice.slice();
+  }
+
+  @GuardedBy("this")
+  private void writeHeader() {
+    buffer.putInt(HEAD_OFFSET, head);
+    buffer.putInt(TAIL_OFFSET, tail);
+    buffer.putInt(RECORDS_OFFSET, records);
+  }
+
+  @GuardedBy("this")
+  private void reset() {
+    head = tail = HEADER_SIZE;
+    records = 0;
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    writeHeader();
+  }
+
+  /**
+   * Rebuilds the index from the records of the file, returning whether the file holds a valid
+   * log.
+   */
+  @GuardedBy("this")
+  private boolean recover() {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(CAPACITY_OFFSET) != capacity) {
+      return false;
+    }
+    head = buffer.getInt(HEAD_OFFSET);
+    tail = buffer.getInt(TAIL_OFFSET);
+    records = buffer.getInt(RECORDS_OFFSET);
+    if (!isRecordPosition(head) || tail < HEADER_SIZE || tail > capacity || records < 0
+        || records > capacity / RECORD_HEADER_SIZE) {
+      return false;
+    }
+    try {
+      int position = head;
+      for (int i = 0; i < records; i++) {
+        if (!isRecordPosition(position) || buffer.getInt(position) < 0
+            || buffer.getInt(position + VALUE_LENGTH_OFFSET) < 0) {
+          return false;
+        }
+        if (buffer.get(position + STATE_OFFSET) == LIVE) {
+          index.put(keySerializer.deserialize(key(position)), position);
+        }
+        position = next(position);
+      }
+      return true;
+    } catch (RuntimeException e) {
+      // a corrupted record
+      index.clear();
+      return false;
+    }
+  }
+
+  private boolean isRecordPosition(int position) {
+    return position >= HEADER_SIZE && position <= capacity - RECORD_HEADER_SIZE;
+  }
+
+  @VisibleForTesting
+  synchronized int recordCount() {
+    return records;
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+
+/**
+ * The policy a cache bounded by {@link CacheBuilder#maximumSize} or
+ * {@link CacheBuilder#maximumWeight} follows to choose which entries to evict, see
+ * {@link CacheBuilder#evictionPolicy}.
+ *
+ * <p>Eviction happens independently in each segment of the cache, so both policies only
+ * approximate their ideal behavior over the whole cache.
+ */
+@Beta
+@GwtIncompatible("To be supported")
+public enum EvictionPolicy {
+  /**
+   * Evicts the least recently used entry. This is the default policy.
+   */
+  LRU,
+
+  /**
+   * Evicts the least recently used entry, unless the entry whose addition made the cache exceed
+   * its maximum was used less often, recently, than that entry; the new entry is evicted instead
+   * in that case. Recent use frequencies are estimated with a compact sketch of a few bits per
+   * entry, which forgets old uses over time.
+   *
+   * <p>This keeps entries that are read often from being flushed by entries read only once, such
+   * as those of a scan, at the cost of keeping some new entries out of the cache until they have
+   * been used repeatedly. Workloads whose popular entries are stable, or skewed towards a small
+   * set of entries, usually get a higher hit rate than with {@link #LRU}; workloads that mostly
+   * read recently added entries may get a lower one.
+   */
+  TINY_LFU
+}
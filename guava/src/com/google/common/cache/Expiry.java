@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+
+/**
+ * Computes how long each entry of a cache lives, when that depends on the entry, for instance
+ * because the time to live of a value comes with the value. See
+ * {@link CacheBuilder#expireAfter}.
+ *
+ * <p>Each method returns the duration, in nanoseconds, after which the entry expires from the
+ * time of the operation, or 0 for the entry to expire immediately. Times are read from the ticker
+ * of the cache, so they are only meaningful relative to each other. Methods are called while the
+ * segment of the entry is locked, except for {@link #expireAfterRead}; none of them should block.
+ *
+ * <p>Only {@link #expireAfterCreate} must be implemented. By default, replacing a value is treated
+ * like creating it, and reading a value does not change when it expires.
+ */
+@Beta
+@GwtIncompatible("To be supported")
+public abstract class Expiry<K, V> {
+
+  /**
+   * Returns how long the entry lives after being created, either loaded or put in the cache.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current time, in nanoseconds
+   * @return the duration until the entry expires, in nanoseconds
+   */
+  public abstract long expireAfterCreate(K key, V value, long currentTime);
+
+  /**
+   * Returns how long the entry lives after its value was replaced, either reloaded or put in the
+   * cache. Returning {@code currentDuration} keeps the expiration time unchanged.
+   *
+   * <p>The default implementation returns {@code expireAfterCreate(key, value, currentTime)}.
+   *
+   * @param key the key of the entry
+   * @param value the new value of the entry
+   * @param currentTime the current time, in nanoseconds
+   * @param currentDuration the remaining duration until the entry expires, in nanoseconds
+   * @return the duration until the entry expires, in nanoseconds
+   */
+  public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+    return expireAfterCreate(key, value, currentTime);
+  }
+
+  /**
+   * Returns how long the entry lives after being read. Returning {@code currentDuration} keeps the
+   * expiration time unchanged.
+   *
+   * <p>The default implementation returns {@code currentDuration}.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current time, in nanoseconds
+   * @param currentDuration the remaining duration until the entry expires, in nanoseconds
+   * @return the duration until the entry expires, in nanoseconds
+   */
+  public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+    return currentDuration;
+  }
+}
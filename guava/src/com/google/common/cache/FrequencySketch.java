@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.GwtIncompatible;
+
+/**
+ * A probabilistic estimate of how often each entry of a cache was recently used, in the form of a
+ * count-min sketch with four rows of 4-bit counters. It is used by the
+ * {@linkplain EvictionPolicy#TINY_LFU TinyLFU} eviction policy to decide whether a new entry is
+ * worth keeping at the expense of the eviction candidate.
+ *
+ * <p>The four rows share a single table of {@code long} words holding 16 counters each: each row
+ * picks a word with its own hash function, and the low bits of the item's hash pick the counter
+ * within the word. Counters saturate at 15. Once the number of increments reaches ten times the
+ * length of the table, all counters are halved, so that the sketch follows changes in the
+ * popularity of the entries.
+ *
+ * <p>This class is not thread-safe; each cache segment owns one, guarded by the segment lock.
+ */
+@GwtIncompatible("To be supported")
+final class FrequencySketch {
+
+  /** Seeds of the hash functions of the four rows, from FarmHash and CityHash. */
+  private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+  /** Mask keeping the low three bits of each counter when halving them. */
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  /** Mask of the low bit of each counter, to count the odd counters when halving them. */
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /** Upper bound of the number of words in the table, to bound the memory of weighted caches. */
+  private static final int MAXIMUM_TABLE_LENGTH = 1 << 16;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+
+  /** Number of increments since the last reset. */
+  private int size;
+
+  /**
+   * Creates a sketch suited to a cache segment holding up to {@code maximumSize} entries.
+   */
+  FrequencySketch(long maximumSize) {
+    checkArgument(maximumSize >= 0);
+    int tableLength = 1;
+    while (tableLength < maximumSize && tableLength < MAXIMUM_TABLE_LENGTH) {
+      tableLength <<= 1;
+    }
+    table = new long[tableLength];
+    tableMask = tableLength - 1;
+    sampleSize = 10 * tableLength;
+  }
+
+  /**
+   * Returns the estimated number of recent uses of the item with hash code {@code hash}, at most
+   * 15.
+   */
+  int frequency(int hash) {
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records a use of the item with hash code {@code hash}.
+   */
+  void increment(int hash) {
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++size == sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Increments the counter {@code j} of the word at {@code i}, unless it is saturated.
+   *
+   * @return {@code true} if the counter was incremented
+   */
+  private boolean incrementAt(int i, int j) {
+    int offset = j << 2;
+    long mask = 0xfL << offset;
+    if ((table[i] & mask) != mask) {
+      table[i] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Halves every counter, and the number of increments accordingly.
+   */
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = (size >>> 1) - (odd >>> 2);
+  }
+
+  /**
+   * Returns the index of the word holding the counter of row {@code i} for the item with hash
+   * code {@code item}.
+   */
+  private int indexOf(int item, int i) {
+    long hash = (item + SEEDS[i]) * SEEDS[i];
+    hash += hash >>> 32;
+    return ((int) hash) & tableMask;
+  }
+}
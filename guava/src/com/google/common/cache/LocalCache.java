@@ -40,6 +40,8 @@ import com.google.common.cache.CacheLoader.UnsupportedLoadingOperationException;
 import com.google.common.collect.AbstractSequentialIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
@@ -50,6 +52,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.common.util.concurrent.Uninterruptibles;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
@@ -61,8 +64,10 @@ import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractQueue;
 import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -72,7 +77,11 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
@@ -192,9 +201,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** Weigher to weigh cache entries. */
   final Weigher<K, V> weigher;
 
+  /** Policy choosing the entries to evict when the map exceeds its maximum weight. */
+  final EvictionPolicy evictionPolicy;
+
   /** How long after the last access to an entry the map will retain that entry. */
   final long expireAfterAccessNanos;
 
+  /** Computes how long the map will retain each entry. Null unless entries expire variably. */
+  @Nullable
+  final Expiry<K, V> expiry;
+
   /** How long after the last write to an entry the map will retain that entry. */
   final long expireAfterWriteNanos;
 
@@ -229,6 +245,18 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   @Nullable
   final CacheLoader<? super K, V> defaultLoader;
 
+  /** Runs the maintenance following reads and writes. Null to run it on the calling threads. */
+  @Nullable
+  final Executor maintenanceExecutor;
+
+  /** Records the statistics beyond {@link CacheStats}, or null if stats are not recorded. */
+  @Nullable
+  final CacheDiagnostics.Recorder diagnostics;
+
+  /** Holds the entries evicted by size, or null if they are discarded. */
+  @Nullable
+  final DiskStore<K, V> overflow;
+
   /**
    * Creates a new, empty map with the specified strategy, initial capacity and concurrency level.
    */
@@ -244,19 +272,26 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     maxWeight = builder.getMaximumWeight();
     weigher = builder.getWeigher();
+    evictionPolicy = builder.getEvictionPolicy();
     expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
     expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
+    expiry = builder.getExpiry();
     refreshNanos = builder.getRefreshNanos();
 
+    overflow = openOverflow(builder);
     removalListener = builder.getRemovalListener();
     removalNotificationQueue = (removalListener == NullListener.INSTANCE)
         ? LocalCache.<RemovalNotification<K, V>>discardingQueue()
         : new ConcurrentLinkedQueue<RemovalNotification<K, V>>();
 
     ticker = builder.getTicker(recordsTime());
-    entryFactory = EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
+    entryFactory = expiresVariably()
+        ? EntryFactory.getVariableFactory(keyStrength)
+        : EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
     globalStatsCounter = builder.getStatsCounterSupplier().get();
+    diagnostics = builder.isRecordingStats() ? new CacheDiagnostics.Recorder() : null;
     defaultLoader = loader;
+    maintenanceExecutor = builder.getMaintenanceExecutor();
 
     int initialCapacity = Math.min(builder.getInitialCapacity(), MAXIMUM_CAPACITY);
     if (evictsBySize() && !customWeigher()) {
@@ -307,6 +342,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             createSegment(segmentSize, UNSET_INT, builder.getStatsCounterSupplier().get());
       }
     }
+
+    ScheduledExecutorService maintenanceScheduler = builder.getMaintenanceScheduler();
+    if (maintenanceScheduler != null) {
+      MaintenanceTask.schedule(this, maintenanceScheduler, builder.getMaintenancePeriodNanos());
+    }
   }
 
   boolean evictsBySize() {
@@ -317,8 +357,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return weigher != OneWeigher.INSTANCE;
   }
 
+  boolean admitsByFrequency() {
+    return evictsBySize() && evictionPolicy == EvictionPolicy.TINY_LFU;
+  }
+
   boolean expires() {
-    return expiresAfterWrite() || expiresAfterAccess();
+    return expiresAfterWrite() || expiresAfterAccess() || expiresVariably();
   }
 
   boolean expiresAfterWrite() {
@@ -329,6 +373,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return expireAfterAccessNanos > 0;
   }
 
+  boolean expiresVariably() {
+    return expiry != null;
+  }
+
   boolean refreshes() {
     return refreshNanos > 0;
   }
@@ -350,7 +398,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   boolean recordsTime() {
-    return recordsWrite() || recordsAccess();
+    return recordsWrite() || recordsAccess() || expiresVariably();
   }
 
   boolean usesWriteEntries() {
@@ -493,6 +541,23 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         return newEntry;
       }
     },
+    STRONG_VARIABLE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new StrongVariableEntry<K, V>(key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        copyTimerEntry(original, newEntry);
+        return newEntry;
+      }
+    },
 
     WEAK {
       @Override
@@ -546,6 +611,24 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         copyWriteEntry(original, newEntry);
         return newEntry;
       }
+    },
+    WEAK_VARIABLE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new WeakVariableEntry<K, V>(
+            segment.keyReferenceQueue, key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        copyTimerEntry(original, newEntry);
+        return newEntry;
+      }
     };
 
     /**
@@ -571,6 +654,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return factories[flags];
     }
 
+    /**
+     * Returns the factory of entries that expire variably. Those entries also use both the access
+     * and the write queues.
+     */
+    static EntryFactory getVariableFactory(Strength keyStrength) {
+      return (keyStrength == Strength.WEAK) ? WEAK_VARIABLE : STRONG_VARIABLE;
+    }
+
     /**
      * Creates a new entry.
      *
@@ -617,6 +708,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
       nullifyWriteOrder(original);
     }
+
+    // Guarded By Segment.this
+    <K, V> void copyTimerEntry(ReferenceEntry<K, V> original, ReferenceEntry<K, V> newEntry) {
+      newEntry.setExpirationTime(original.getExpirationTime());
+
+      connectTimerOrder(original.getPreviousInTimerWheel(), newEntry);
+      connectTimerOrder(newEntry, original.getNextInTimerWheel());
+
+      nullifyTimerOrder(original);
+    }
   }
 
   /**
@@ -846,6 +947,41 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Sets the previous entry in the write queue.
      */
     void setPreviousInWriteQueue(ReferenceEntry<K, V> previous);
+
+    /*
+     * Implemented by entries that expire variably. Those entries are maintained in the
+     * doubly-linked lists of the buckets of a timer wheel, according to their expiration time.
+     */
+
+    /**
+     * Returns the time at which this entry expires, in ns.
+     */
+    long getExpirationTime();
+
+    /**
+     * Sets the entry expiration time in ns.
+     */
+    void setExpirationTime(long time);
+
+    /**
+     * Returns the next entry in the bucket of the timer wheel.
+     */
+    ReferenceEntry<K, V> getNextInTimerWheel();
+
+    /**
+     * Sets the next entry in the bucket of the timer wheel.
+     */
+    void setNextInTimerWheel(ReferenceEntry<K, V> next);
+
+    /**
+     * Returns the previous entry in the bucket of the timer wheel.
+     */
+    ReferenceEntry<K, V> getPreviousInTimerWheel();
+
+    /**
+     * Sets the previous entry in the bucket of the timer wheel.
+     */
+    void setPreviousInTimerWheel(ReferenceEntry<K, V> previous);
   }
 
   private enum NullEntry implements ReferenceEntry<Object, Object> {
@@ -921,6 +1057,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Override
     public void setPreviousInWriteQueue(ReferenceEntry<Object, Object> previous) {}
+
+    @Override
+    public long getExpirationTime() {
+      return 0;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {}
+
+    @Override
+    public ReferenceEntry<Object, Object> getNextInTimerWheel() {
+      return this;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<Object, Object> next) {}
+
+    @Override
+    public ReferenceEntry<Object, Object> getPreviousInTimerWheel() {
+      return this;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<Object, Object> previous) {}
   }
 
   static abstract class AbstractReferenceEntry<K, V> implements ReferenceEntry<K, V> {
@@ -1008,6 +1168,36 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
       throw new UnsupportedOperationException();
     }
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
   }
 
   @SuppressWarnings("unchecked") // impl never uses a parameter or returns any non-null value
@@ -1194,7 +1384,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static final class StrongAccessWriteEntry<K, V> extends StrongEntry<K, V> {
+  static class StrongAccessWriteEntry<K, V> extends StrongEntry<K, V> {
     StrongAccessWriteEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
       super(key, hash, next);
     }
@@ -1280,6 +1470,52 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  static final class StrongVariableEntry<K, V> extends StrongAccessWriteEntry<K, V> {
+    StrongVariableEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, hash, next);
+    }
+
+    // The code below is exactly the same for each variable entry type.
+
+    volatile long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
+
+    // Guarded By Segment.this
+    ReferenceEntry<K, V> nextInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      return nextInTimerWheel;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      this.nextInTimerWheel = next;
+    }
+
+    // Guarded By Segment.this
+    ReferenceEntry<K, V> previousInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      return previousInTimerWheel;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      this.previousInTimerWheel = previous;
+    }
+  }
+
   /**
    * Used for weakly-referenced keys.
    */
@@ -1364,6 +1600,38 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       throw new UnsupportedOperationException();
     }
 
+    // null expiration
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
+
     // The code below is exactly the same for each entry type.
 
     final int hash;
@@ -1485,7 +1753,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static final class WeakAccessWriteEntry<K, V> extends WeakEntry<K, V> {
+  static class WeakAccessWriteEntry<K, V> extends WeakEntry<K, V> {
     WeakAccessWriteEntry(
         ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
       super(queue, key, hash, next);
@@ -1572,6 +1840,53 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  static final class WeakVariableEntry<K, V> extends WeakAccessWriteEntry<K, V> {
+    WeakVariableEntry(
+        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(queue, key, hash, next);
+    }
+
+    // The code below is exactly the same for each variable entry type.
+
+    volatile long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
+
+    // Guarded By Segment.this
+    ReferenceEntry<K, V> nextInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      return nextInTimerWheel;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      this.nextInTimerWheel = next;
+    }
+
+    // Guarded By Segment.this
+    ReferenceEntry<K, V> previousInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      return previousInTimerWheel;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      this.previousInTimerWheel = previous;
+    }
+  }
+
   /**
    * References a weak value.
    */
@@ -1913,9 +2228,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         && (now - entry.getWriteTime() >= expireAfterWriteNanos)) {
       return true;
     }
+    if (expiresVariably() && (now - entry.getExpirationTime() >= 0)) {
+      return true;
+    }
     return false;
   }
 
+  /**
+   * Returns the time at which an entry expires when its {@link Expiry} returns {@code duration} at
+   * {@code now}. Durations are capped so that the expiration time does not overflow.
+   */
+  static long expirationTime(long now, long duration) {
+    return now + Math.min(Math.max(duration, 0), Long.MAX_VALUE >> 1);
+  }
+
   // queues
 
   // Guarded By Segment.this
@@ -1944,6 +2270,26 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     nulled.setPreviousInWriteQueue(nullEntry);
   }
 
+  // Guarded By Segment.this
+  static <K, V> void connectTimerOrder(ReferenceEntry<K, V> previous, ReferenceEntry<K, V> next) {
+    previous.setNextInTimerWheel(next);
+    next.setPreviousInTimerWheel(previous);
+  }
+
+  // Guarded By Segment.this
+  static <K, V> void nullifyTimerOrder(ReferenceEntry<K, V> nulled) {
+    ReferenceEntry<K, V> nullEntry = nullEntry();
+    nulled.setNextInTimerWheel(nullEntry);
+    nulled.setPreviousInTimerWheel(nullEntry);
+  }
+
+  /** Records the duration of a load, successful or not, if stats are recorded. */
+  void recordLoadTime(long nanos) {
+    if (diagnostics != null) {
+      diagnostics.recordLoad(nanos);
+    }
+  }
+
   /**
    * Notifies listeners that an entry has been automatically removed due to expiration, eviction,
    * or eligibility for garbage collection. This should be called every time expireEntries or
@@ -2020,6 +2366,18 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("this")
     long totalWeight;
 
+    /**
+     * The time threads spent waiting for this segment's lock, if the map records stats.
+     */
+    @GuardedBy("this")
+    long lockWaitNanos;
+
+    /**
+     * The number of times a thread waited for this segment's lock, if the map records stats.
+     */
+    @GuardedBy("this")
+    long contendedLockCount;
+
     /**
      * Number of updates that alter the size of the table. This is used during bulk-read methods to
      * make sure they see a consistent snapshot: If modCounts change during a traversal of segments
@@ -2059,16 +2417,29 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * The recency queue is used to record which entries were accessed for updating the access
      * list's ordering. It is drained as a batch operation when either the DRAIN_THRESHOLD is
-     * crossed or a write occurs on the segment.
+     * crossed or a write occurs on the segment. It is a lossy {@link ReadBuffer}, so that reads do
+     * not allocate; reads recorded while the buffer is full are dropped.
      */
     final Queue<ReferenceEntry<K, V>> recencyQueue;
 
+    /**
+     * The entries whose expiration time was moved earlier by a read that could not acquire the
+     * lock, to be rescheduled in the timer wheel when the recency queue is drained.
+     */
+    final Queue<ReferenceEntry<K, V>> rescheduleQueue;
+
     /**
      * A counter of the number of reads since the last write, used to drain queues on a small
      * fraction of read operations.
      */
     final AtomicInteger readCount = new AtomicInteger();
 
+    /**
+     * Whether a cleanup was submitted to the maintenance executor of the map and has not started
+     * yet.
+     */
+    final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
     /**
      * A queue of elements currently in the map, ordered by write time. Elements are added to the
      * tail of the queue on write.
@@ -2083,6 +2454,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("this")
     final Queue<ReferenceEntry<K, V>> accessQueue;
 
+    /**
+     * Estimates how often entries were recently used, to decide which entries to evict. Null
+     * unless the map {@linkplain LocalCache#admitsByFrequency admits entries by frequency}.
+     */
+    @GuardedBy("this")
+    @Nullable
+    final FrequencySketch frequencySketch;
+
+    /**
+     * Schedules the expiration of entries. Null unless the map
+     * {@linkplain LocalCache#expiresVariably expires entries variably}.
+     */
+    @GuardedBy("this")
+    @Nullable
+    final TimerWheel<K, V> timerWheel;
+
     /** Accumulates cache statistics. */
     final StatsCounter statsCounter;
 
@@ -2100,6 +2487,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
            ? new ReferenceQueue<V>() : null;
 
       recencyQueue = map.usesAccessQueue()
+          ? new ReadBuffer<ReferenceEntry<K, V>>()
+          : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+
+      rescheduleQueue = map.expiresVariably()
           ? new ConcurrentLinkedQueue<ReferenceEntry<K, V>>()
           : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
 
@@ -2110,6 +2501,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       accessQueue = map.usesAccessQueue()
           ? new AccessQueue<K, V>()
           : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+
+      frequencySketch = map.admitsByFrequency()
+          ? new FrequencySketch(maxSegmentWeight)
+          : null;
+
+      timerWheel = map.expiresVariably()
+          ? new TimerWheel<K, V>(this, map.ticker.read())
+          : null;
+    }
+
+    /**
+     * Acquires the lock, measuring the time spent waiting for it if the map records stats. The
+     * clock is only read when the lock is contended.
+     */
+    @Override
+    public void lock() {
+      if (map.diagnostics == null) {
+        super.lock();
+      } else if (!tryLock()) {
+        long start = System.nanoTime();
+        super.lock();
+        lockWaitNanos += System.nanoTime() - start;
+        contendedLockCount++;
+      }
     }
 
     AtomicReferenceArray<ReferenceEntry<K, V>> newEntryArray(int size) {
@@ -2165,8 +2580,18 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       ValueReference<K, V> valueReference =
           map.valueStrength.referenceValue(this, entry, value, weight);
       entry.setValueReference(valueReference);
+      if (map.expiresVariably()) {
+        long duration = (previous.get() == null)
+            ? map.expiry.expireAfterCreate(key, value, now)
+            : map.expiry.expireAfterUpdate(
+                key, value, now, Math.max(0, entry.getExpirationTime() - now));
+        entry.setExpirationTime(expirationTime(now, duration));
+      }
       recordWrite(entry, weight, now);
       previous.notifyNewValue(value);
+      if (map.overflow != null) {
+        map.overflow.invalidate(key);
+      }
     }
 
     // loading
@@ -2251,6 +2676,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               // immediately reuse invalid entries
               writeQueue.remove(e);
               accessQueue.remove(e);
+              descheduleExpiration(e);
               this.count = newCount; // write-volatile
             }
             break;
@@ -2312,10 +2738,167 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Returns a future of the value of {@code key}, without blocking. If {@code key} is neither
+     * present nor loading, a loading entry is inserted for it and added to {@code newLoads}, which
+     * the caller is responsible for completing.
+     */
+    ListenableFuture<V> getFuture(K key, int hash, List<PendingLoad<K, V>> newLoads) {
+      checkNotNull(key);
+      try {
+        if (count != 0) { // read-volatile
+          ReferenceEntry<K, V> e = getEntry(key, hash);
+          if (e != null) {
+            long now = map.ticker.read();
+            V value = getLiveValue(e, now);
+            if (value != null) {
+              recordRead(e, now);
+              statsCounter.recordHits(1);
+              return Futures.immediateFuture(
+                  scheduleRefresh(e, key, hash, value, now, map.defaultLoader));
+            }
+            ValueReference<K, V> valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              statsCounter.recordMisses(1);
+              return loadingFuture(key, valueReference);
+            }
+          }
+        }
+
+        // at this point e is either null or expired;
+        return lockedGetFuture(key, hash, newLoads);
+      } finally {
+        postReadCleanup();
+      }
+    }
+
+    ListenableFuture<V> lockedGetFuture(K key, int hash, List<PendingLoad<K, V>> newLoads) {
+      ReferenceEntry<K, V> e;
+      ValueReference<K, V> valueReference = null;
+      LoadingValueReference<K, V> loadingValueReference = null;
+      boolean createNewEntry = true;
+
+      lock();
+      try {
+        // re-read ticker once inside the lock
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        int newCount = this.count - 1;
+        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+        int index = hash & (table.length() - 1);
+        ReferenceEntry<K, V> first = table.get(index);
+
+        for (e = first; e != null; e = e.getNext()) {
+          K entryKey = e.getKey();
+          if (e.getHash() == hash && entryKey != null
+              && map.keyEquivalence.equivalent(key, entryKey)) {
+            valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              createNewEntry = false;
+            } else {
+              V value = valueReference.get();
+              if (value == null) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.COLLECTED);
+              } else if (map.isExpired(e, now)) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.EXPIRED);
+              } else {
+                recordLockedRead(e, now);
+                statsCounter.recordHits(1);
+                return Futures.immediateFuture(value);
+              }
+
+              // immediately reuse invalid entries
+              writeQueue.remove(e);
+              accessQueue.remove(e);
+              descheduleExpiration(e);
+              this.count = newCount; // write-volatile
+            }
+            break;
+          }
+        }
+
+        if (createNewEntry) {
+          loadingValueReference = new LoadingValueReference<K, V>();
+
+          if (e == null) {
+            e = newEntry(key, hash, first);
+            e.setValueReference(loadingValueReference);
+            table.set(index, e);
+          } else {
+            e.setValueReference(loadingValueReference);
+          }
+          newLoads.add(new PendingLoad<K, V>(this, key, hash, loadingValueReference));
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+
+      statsCounter.recordMisses(1);
+      return loadingFuture(key, createNewEntry ? loadingValueReference : valueReference);
+    }
+
+    /**
+     * Returns a future of the value being loaded by {@code valueReference}, which cannot cancel
+     * the load.
+     */
+    ListenableFuture<V> loadingFuture(final K key, ValueReference<K, V> valueReference) {
+      LoadingValueReference<K, V> loadingValueReference =
+          (LoadingValueReference<K, V>) valueReference;
+      return Futures.transform(
+          Futures.nonCancellationPropagating(loadingValueReference.futureValue),
+          new Function<V, V>() {
+            @Override
+            public V apply(@Nullable V value) {
+              if (value == null) {
+                throw new InvalidCacheLoadException(
+                    "CacheLoader returned null for key " + key + ".");
+              }
+              return value;
+            }
+          });
+    }
+
+    /**
+     * Completes the pending load of {@code key} with {@code value}, or with {@code failure} if it
+     * is not null, in the manner of {@link LoadingValueReference#loadFuture}. The load is only
+     * recorded in the statistics if {@code recordStats}; the loads of a batch are recorded once,
+     * by the caller.
+     */
+    void completeLoad(K key, int hash, LoadingValueReference<K, V> loadingValueReference,
+        @Nullable V value, @Nullable Throwable failure, boolean recordStats) {
+      ListenableFuture<V> result;
+      if (failure != null) {
+        result = loadingValueReference.setException(failure)
+            ? loadingValueReference.futureValue
+            : Futures.<V>immediateFailedFuture(failure);
+      } else {
+        result = loadingValueReference.set(value)
+            ? loadingValueReference.futureValue
+            : Futures.immediateFuture(value);
+      }
+      try {
+        if (recordStats) {
+          getAndRecordStats(key, hash, loadingValueReference, result);
+        } else if (failure == null) {
+          storeLoadedValue(key, hash, loadingValueReference, value);
+        } else {
+          removeLoadingValue(key, hash, loadingValueReference);
+        }
+      } catch (Throwable t) {
+        // already reported to the callers through the loading future
+        loadingValueReference.setException(t);
+      }
+    }
+
     // at most one of loadSync/loadAsync may be called for any given LoadingValueReference
 
     V loadSync(K key, int hash, LoadingValueReference<K, V> loadingValueReference,
         CacheLoader<? super K, V> loader) throws ExecutionException {
+      if (map.overflow != null) {
+        loader = new OverflowLoader<K, V>(map.overflow, loader);
+      }
       ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
       return getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
     }
@@ -2350,11 +2933,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
         }
         statsCounter.recordLoadSuccess(loadingValueReference.elapsedNanos());
+        map.recordLoadTime(loadingValueReference.elapsedNanos());
         storeLoadedValue(key, hash, loadingValueReference, value);
         return value;
       } finally {
         if (value == null) {
           statsCounter.recordLoadException(loadingValueReference.elapsedNanos());
+          map.recordLoadTime(loadingValueReference.elapsedNanos());
           removeLoadingValue(key, hash, loadingValueReference);
         }
       }
@@ -2533,7 +3118,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * Records the relative order in which this read was performed by adding {@code entry} to the
      * recency queue. At write-time, or when the queue is full past the threshold, the queue will
-     * be drained and the entries therein processed.
+     * be drained and the entries therein processed. The read is not recorded if the queue is
+     * full or contended.
      *
      * <p>Note: locked reads should use {@link #recordLockedRead}.
      */
@@ -2541,7 +3127,32 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
-      recencyQueue.add(entry);
+      if (map.expiresVariably()) {
+        long expirationTime = entry.getExpirationTime();
+        if (updateExpirationTime(entry, now) && entry.getExpirationTime() - expirationTime < 0) {
+          // a later time is picked up once the current bucket is reached, an earlier one is not
+          rescheduleExpiration(entry);
+        }
+      }
+      if (!recencyQueue.offer(entry) && !drainAndOffer(entry) && map.diagnostics != null) {
+        map.diagnostics.recordReadDrop();
+      }
+    }
+
+    /**
+     * Drains the recency queue if the lock is available, then records the read of {@code entry}
+     * again. Called when the queue dropped the read, so that reads are only lost under contention.
+     */
+    boolean drainAndOffer(ReferenceEntry<K, V> entry) {
+      if (!tryLock()) {
+        return false;
+      }
+      try {
+        drainRecencyQueue();
+      } finally {
+        unlock();
+      }
+      return recencyQueue.offer(entry);
     }
 
     /**
@@ -2556,7 +3167,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
+      if (map.expiresVariably() && updateExpirationTime(entry, now)) {
+        timerWheel.schedule(entry);
+      }
       accessQueue.add(entry);
+      recordFrequency(entry);
     }
 
     /**
@@ -2577,6 +3192,66 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
       accessQueue.add(entry);
       writeQueue.add(entry);
+      if (timerWheel != null) {
+        timerWheel.schedule(entry);
+      }
+      recordFrequency(entry);
+    }
+
+    /**
+     * Sets the expiration time of {@code entry} to the one computed by
+     * {@link Expiry#expireAfterRead}.
+     *
+     * @return whether the expiration time changed
+     */
+    boolean updateExpirationTime(ReferenceEntry<K, V> entry, long now) {
+      K key = entry.getKey();
+      V value = entry.getValueReference().get();
+      if (key == null || value == null) {
+        return false;
+      }
+      long expirationTime = entry.getExpirationTime();
+      long duration =
+          map.expiry.expireAfterRead(key, value, now, Math.max(0, expirationTime - now));
+      long newExpirationTime = expirationTime(now, duration);
+      if (newExpirationTime == expirationTime) {
+        return false;
+      }
+      entry.setExpirationTime(newExpirationTime);
+      return true;
+    }
+
+    /**
+     * Moves {@code entry} to the timer wheel bucket of its current expiration time. Called by
+     * unlocked reads that shortened its lifetime; if the lock is not available, the entry is
+     * rescheduled by the next drain instead, so that reads never block.
+     */
+    void rescheduleExpiration(ReferenceEntry<K, V> entry) {
+      if (!tryLock()) {
+        rescheduleQueue.offer(entry);
+        return;
+      }
+      try {
+        rescheduleIfScheduled(entry);
+      } finally {
+        unlock();
+      }
+    }
+
+    /** Reschedules {@code entry}, unless it was removed from the segment meanwhile. */
+    @GuardedBy("this")
+    void rescheduleIfScheduled(ReferenceEntry<K, V> entry) {
+      if (entry.getNextInTimerWheel() != nullEntry()) {
+        timerWheel.schedule(entry);
+      }
+    }
+
+    /** Unlinks {@code entry} from the timer wheel, if there is one. */
+    @GuardedBy("this")
+    void descheduleExpiration(ReferenceEntry<K, V> entry) {
+      if (timerWheel != null) {
+        timerWheel.remove(entry);
+      }
     }
 
     /**
@@ -2595,17 +3270,34 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         // all of the segment's entries.
         if (accessQueue.contains(e)) {
           accessQueue.add(e);
+          recordFrequency(e);
         }
       }
+      while ((e = rescheduleQueue.poll()) != null) {
+        rescheduleIfScheduled(e);
+      }
+    }
+
+    /**
+     * Records a use of {@code entry} in the frequency sketch, if there is one.
+     */
+    @GuardedBy("this")
+    void recordFrequency(ReferenceEntry<K, V> entry) {
+      if (frequencySketch != null) {
+        frequencySketch.increment(entry.getHash());
+      }
     }
 
     // expiration
 
     /**
-     * Cleanup expired entries when the lock is available.
+     * Cleanup expired entries when the lock is available, or on the maintenance executor if there
+     * is one.
      */
     void tryExpireEntries(long now) {
-      if (tryLock()) {
+      if (map.maintenanceExecutor != null) {
+        scheduleCleanUp();
+      } else if (tryLock()) {
         try {
           expireEntries(now);
         } finally {
@@ -2630,6 +3322,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           throw new AssertionError();
         }
       }
+      if (timerWheel != null) {
+        timerWheel.advance(now);
+      }
     }
 
     // eviction
@@ -2646,6 +3341,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (cause.wasEvicted()) {
         statsCounter.recordEviction();
       }
+      if (map.diagnostics != null) {
+        map.diagnostics.recordRemoval(cause);
+      }
+      if (map.overflow != null && cause == RemovalCause.SIZE && key != null) {
+        // spilled under the lock, so that a later write of the key invalidates this value
+        V value = valueReference.get();
+        if (value != null) {
+          try {
+            map.overflow.put(key, value);
+          } catch (Throwable e) {
+            logger.log(Level.WARNING, "Exception thrown while writing to the overflow file", e);
+          }
+        }
+      }
       if (map.removalNotificationQueue != DISCARDING_QUEUE) {
         V value = valueReference.get();
         RemovalNotification<K, V> notification = new RemovalNotification<K, V>(key, value, cause);
@@ -2656,16 +3365,31 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * Performs eviction if the segment is full. This should only be called prior to adding a new
      * entry and increasing {@code count}.
+     *
+     * <p>When the map {@linkplain LocalCache#admitsByFrequency admits entries by frequency},
+     * {@code newest}, the entry just inserted, is evicted instead of the least recently used entry
+     * unless it was used more often recently. {@code newest} is null when the value of a resident
+     * entry was replaced, since updating a key must not evict it.
      */
     @GuardedBy("this")
-    void evictEntries() {
+    void evictEntries(@Nullable ReferenceEntry<K, V> newest) {
       if (!map.evictsBySize()) {
         return;
       }
 
       drainRecencyQueue();
+      // the candidate for admission, until it is either evicted or admitted
+      ReferenceEntry<K, V> candidate = (frequencySketch == null) ? null : newest;
       while (totalWeight > maxSegmentWeight) {
         ReferenceEntry<K, V> e = getNextEvictable();
+        if (candidate != null && e != candidate) {
+          if (candidate.getValueReference().getWeight() > 0
+              && frequencySketch.frequency(candidate.getHash())
+                  <= frequencySketch.frequency(e.getHash())) {
+            e = candidate;
+          }
+          candidate = null;
+        }
         if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
           throw new AssertionError();
         }
@@ -2858,7 +3582,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
                 newCount = this.count + 1;
               }
               this.count = newCount; // write-volatile
-              evictEntries();
+              evictEntries(null);
               return null;
             } else if (onlyIfAbsent) {
               // Mimic
@@ -2871,7 +3595,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               ++modCount;
               enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
               setValue(e, key, value, now);
-              evictEntries();
+              evictEntries(null);
               return entryValue;
             }
           }
@@ -2884,7 +3608,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         table.set(index, newEntry);
         newCount = this.count + 1;
         this.count = newCount; // write-volatile
-        evictEntries();
+        evictEntries(newEntry);
         return null;
       } finally {
         unlock();
@@ -2998,7 +3722,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               ++modCount;
               enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
               setValue(e, key, newValue, now);
-              evictEntries();
+              evictEntries(null);
               return true;
             } else {
               // Mimic
@@ -3050,7 +3774,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             ++modCount;
             enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
             setValue(e, key, newValue, now);
-            evictEntries();
+            evictEntries(null);
             return entryValue;
           }
         }
@@ -3144,7 +3868,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               }
               setValue(e, key, newValue, now);
               this.count = newCount; // write-volatile
-              evictEntries();
+              evictEntries(oldValueReference.isActive() ? null : e);
               return true;
             }
 
@@ -3160,7 +3884,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         setValue(newEntry, key, newValue, now);
         table.set(index, newEntry);
         this.count = newCount; // write-volatile
-        evictEntries();
+        evictEntries(newEntry);
         return true;
       } finally {
         unlock();
@@ -3232,6 +3956,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           clearReferenceQueues();
           writeQueue.clear();
           accessQueue.clear();
+          if (timerWheel != null) {
+            timerWheel.clear();
+          }
           readCount.set(0);
 
           ++modCount;
@@ -3251,6 +3978,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       enqueueNotification(key, hash, valueReference, cause);
       writeQueue.remove(entry);
       accessQueue.remove(entry);
+      descheduleExpiration(entry);
 
       if (valueReference.isLoading()) {
         valueReference.notifyNewValue(null);
@@ -3284,6 +4012,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       enqueueNotification(entry, RemovalCause.COLLECTED);
       writeQueue.remove(entry);
       accessQueue.remove(entry);
+      descheduleExpiration(entry);
     }
 
     /**
@@ -3410,11 +4139,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     /**
      * Performs routine cleanup following a read. Normally cleanup happens during writes. If cleanup
-     * is not observed after a sufficient number of reads, try cleaning up from the read thread.
+     * is not observed after a sufficient number of reads, try cleaning up from the read thread, or
+     * on the maintenance executor if there is one.
      */
     void postReadCleanup() {
       if ((readCount.incrementAndGet() & DRAIN_THRESHOLD) == 0) {
-        cleanUp();
+        if (map.maintenanceExecutor == null) {
+          cleanUp();
+        } else {
+          scheduleCleanUp();
+        }
       }
     }
 
@@ -3430,10 +4164,15 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     /**
-     * Performs routine cleanup following a write.
+     * Performs routine cleanup following a write. With a maintenance executor, the pending
+     * notifications, if any, are sent from the executor.
      */
     void postWriteCleanup() {
-      runUnlockedCleanup();
+      if (map.maintenanceExecutor == null) {
+        runUnlockedCleanup();
+      } else if (!map.removalNotificationQueue.isEmpty()) {
+        scheduleCleanUp();
+      }
     }
 
     void cleanUp() {
@@ -3442,6 +4181,35 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       runUnlockedCleanup();
     }
 
+    /**
+     * Returns the {@code limit} most recently used live entries of this segment, most recent
+     * first. Must only be called with a positive limit, if the segment keeps an access queue.
+     */
+    List<Entry<K, V>> hottestEntries(int limit) {
+      ArrayDeque<Entry<K, V>> entries = new ArrayDeque<Entry<K, V>>();
+      lock();
+      try {
+        long now = map.ticker.read();
+        drainRecencyQueue();
+        // from the least recently used entry to the most recently used; invalid entries are left
+        // to the cleanup, which would modify the queue
+        for (ReferenceEntry<K, V> e : accessQueue) {
+          K key = e.getKey();
+          V value = e.getValueReference().get();
+          if (key != null && value != null && !map.isExpired(e, now)) {
+            if (entries.size() == limit) {
+              entries.removeLast();
+            }
+            entries.addFirst(Maps.immutableEntry(key, value));
+          }
+        }
+      } finally {
+        unlock();
+        postReadCleanup();
+      }
+      return Lists.newArrayList(entries);
+    }
+
     void runLockedCleanup(long now) {
       if (tryLock()) {
         try {
@@ -3461,6 +4229,29 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Submits {@link #cleanUp} to the maintenance executor, unless it was already submitted and
+     * has not started yet. Cleans up from the calling thread if the executor rejects the task.
+     */
+    void scheduleCleanUp() {
+      if (!maintenanceScheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        map.maintenanceExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            maintenanceScheduled.set(false);
+            cleanUp();
+          }
+        });
+      } catch (RuntimeException e) {
+        maintenanceScheduled.set(false);
+        logger.log(Level.WARNING, "Exception thrown when scheduling maintenance", e);
+        cleanUp();
+      }
+    }
+
   }
 
   static class LoadingValueReference<K, V> implements ValueReference<K, V> {
@@ -3578,6 +4369,33 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * A loading entry inserted by {@link Segment#getFuture}, which has yet to be loaded.
+   */
+  static final class PendingLoad<K, V> {
+    final Segment<K, V> segment;
+    final K key;
+    final int hash;
+    final LoadingValueReference<K, V> loadingValueReference;
+
+    PendingLoad(Segment<K, V> segment, K key, int hash,
+        LoadingValueReference<K, V> loadingValueReference) {
+      this.segment = segment;
+      this.key = key;
+      this.hash = hash;
+      this.loadingValueReference = loadingValueReference;
+    }
+
+    void complete(@Nullable V value, @Nullable Throwable failure) {
+      segment.completeLoad(key, hash, loadingValueReference, value, failure, true);
+    }
+
+    /** Completes this load without recording it, as part of a batch recorded once. */
+    void completeInBatch(@Nullable V value, @Nullable Throwable failure) {
+      segment.completeLoad(key, hash, loadingValueReference, value, failure, false);
+    }
+  }
+
   // Queues
 
   /**
@@ -3854,12 +4672,300 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * A hierarchical timer wheel expiring the entries of a segment at variable times, in amortized
+   * constant time. Each level of the wheel is an array of buckets, each spanning a power of two
+   * nanoseconds (about a second, a minute, an hour and a day, then all later times): an entry is
+   * linked in the bucket of the lowest level whose span covers its remaining time to live. As time
+   * advances, the buckets that were passed are emptied, and their entries are either expired or
+   * moved down to a finer level.
+   *
+   * <p>Entries are linked through {@code ReferenceEntry} itself, like the access and write queues;
+   * entries that are not scheduled are linked to {@code NullEntry}. The expiration time of an
+   * entry may be updated without rescheduling it, as long as it is not updated to an earlier
+   * time: the entry is then rescheduled when its bucket is reached.
+   */
+  @GwtIncompatible("To be supported")
+  static final class TimerWheel<K, V> {
+    static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+    static final long[] SPANS = {
+      ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)),
+      ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)),
+      ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),
+      ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+      BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+      BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+    };
+    static final int[] SHIFT = {
+      Long.numberOfTrailingZeros(SPANS[0]),
+      Long.numberOfTrailingZeros(SPANS[1]),
+      Long.numberOfTrailingZeros(SPANS[2]),
+      Long.numberOfTrailingZeros(SPANS[3]),
+      Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    final Segment<K, V> segment;
+    final ReferenceEntry<K, V>[][] wheel;
+
+    /** The time up to which the wheel was advanced, in ns. */
+    long nanos;
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+    TimerWheel(Segment<K, V> segment, long now) {
+      this.segment = segment;
+      this.nanos = now;
+      wheel = new ReferenceEntry[BUCKETS.length][];
+      for (int i = 0; i < BUCKETS.length; i++) {
+        wheel[i] = new ReferenceEntry[BUCKETS[i]];
+        for (int j = 0; j < BUCKETS[i]; j++) {
+          wheel[i][j] = new Sentinel<K, V>();
+        }
+      }
+    }
+
+    static long ceilingPowerOfTwo(long x) {
+      return 1L << -Long.numberOfLeadingZeros(x - 1);
+    }
+
+    /**
+     * Links {@code entry} in the bucket of its expiration time, unlinking it from its current
+     * bucket if it is already scheduled.
+     */
+    void schedule(ReferenceEntry<K, V> entry) {
+      remove(entry);
+      ReferenceEntry<K, V> sentinel = findBucket(entry.getExpirationTime());
+      connectTimerOrder(sentinel.getPreviousInTimerWheel(), entry);
+      connectTimerOrder(entry, sentinel);
+    }
+
+    /** Unlinks {@code entry} from its bucket, if it is scheduled. */
+    void remove(ReferenceEntry<K, V> entry) {
+      ReferenceEntry<K, V> previous = entry.getPreviousInTimerWheel();
+      ReferenceEntry<K, V> next = entry.getNextInTimerWheel();
+      connectTimerOrder(previous, next);
+      nullifyTimerOrder(entry);
+    }
+
+    /** Unlinks all the entries of the wheel. */
+    void clear() {
+      for (ReferenceEntry<K, V>[] buckets : wheel) {
+        for (ReferenceEntry<K, V> sentinel : buckets) {
+          ReferenceEntry<K, V> e = sentinel.getNextInTimerWheel();
+          while (e != sentinel) {
+            ReferenceEntry<K, V> next = e.getNextInTimerWheel();
+            nullifyTimerOrder(e);
+            e = next;
+          }
+          connectTimerOrder(sentinel, sentinel);
+        }
+      }
+    }
+
+    /**
+     * Advances the wheel to {@code now}, removing the entries that expired from the segment and
+     * rescheduling the others from the buckets that were passed.
+     */
+    void advance(long now) {
+      long previousNanos = nanos;
+      nanos = now;
+      for (int i = 0; i < SHIFT.length; i++) {
+        long previousTicks = previousNanos >> SHIFT[i];
+        long currentTicks = now >> SHIFT[i];
+        if (currentTicks - previousTicks <= 0) {
+          break;
+        }
+        expire(i, previousTicks, currentTicks - previousTicks);
+      }
+    }
+
+    /** Empties the buckets of level {@code index} that were passed by {@code delta} ticks. */
+    void expire(int index, long previousTicks, long delta) {
+      ReferenceEntry<K, V>[] buckets = wheel[index];
+      int mask = buckets.length - 1;
+      int steps = (int) Math.min(1 + delta, buckets.length);
+      int start = (int) (previousTicks & mask);
+      ReferenceEntry<K, V> pending = new Sentinel<K, V>();
+      for (int i = start; i < start + steps; i++) {
+        ReferenceEntry<K, V> sentinel = buckets[i & mask];
+        if (sentinel.getNextInTimerWheel() == sentinel) {
+          continue;
+        }
+        connectTimerOrder(pending, sentinel.getNextInTimerWheel());
+        connectTimerOrder(sentinel.getPreviousInTimerWheel(), pending);
+        connectTimerOrder(sentinel, sentinel);
+
+        // removing an entry may copy the entries of its chain, relinking their copies in place
+        ReferenceEntry<K, V> e;
+        while ((e = pending.getNextInTimerWheel()) != pending) {
+          remove(e);
+          if (e.getExpirationTime() - nanos > 0) {
+            schedule(e);
+          } else {
+            segment.removeEntry(e, e.getHash(), RemovalCause.EXPIRED);
+          }
+        }
+      }
+    }
+
+    /** Returns the sentinel of the bucket of {@code time}. */
+    ReferenceEntry<K, V> findBucket(long time) {
+      long duration = time - nanos;
+      int last = wheel.length - 1;
+      for (int i = 0; i < last; i++) {
+        if (duration < SPANS[i + 1]) {
+          int index = (int) ((time >> SHIFT[i]) & (wheel[i].length - 1));
+          return wheel[i][index];
+        }
+      }
+      return wheel[last][0];
+    }
+
+    /** The head of a bucket. */
+    static final class Sentinel<K, V> extends AbstractReferenceEntry<K, V> {
+      ReferenceEntry<K, V> nextInTimerWheel = this;
+      ReferenceEntry<K, V> previousInTimerWheel = this;
+
+      @Override
+      public ReferenceEntry<K, V> getNextInTimerWheel() {
+        return nextInTimerWheel;
+      }
+
+      @Override
+      public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+        this.nextInTimerWheel = next;
+      }
+
+      @Override
+      public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+        return previousInTimerWheel;
+      }
+
+      @Override
+      public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+        this.previousInTimerWheel = previous;
+      }
+    }
+  }
+
+  /**
+   * Periodically cleans up a map on a scheduled executor. The task only weakly references the
+   * map, and cancels itself once the map was garbage collected.
+   */
+  @GwtIncompatible("To be supported")
+  static final class MaintenanceTask implements Runnable {
+    final WeakReference<LocalCache<?, ?>> mapReference;
+    volatile Future<?> future;
+
+    MaintenanceTask(LocalCache<?, ?> map) {
+      this.mapReference = new WeakReference<LocalCache<?, ?>>(map);
+    }
+
+    static void schedule(
+        LocalCache<?, ?> map, ScheduledExecutorService scheduler, long periodNanos) {
+      MaintenanceTask task = new MaintenanceTask(map);
+      task.future =
+          scheduler.scheduleWithFixedDelay(task, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+      LocalCache<?, ?> map = mapReference.get();
+      if (map == null) {
+        Future<?> future = this.future;
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      try {
+        map.cleanUp();
+      } catch (RuntimeException e) {
+        // an exception would suppress the subsequent executions
+        logger.log(Level.WARNING, "Exception thrown during maintenance", e);
+      }
+    }
+  }
+
+  @Nullable
+  static <K, V> DiskStore<K, V> openOverflow(CacheBuilder<? super K, ? super V> builder) {
+    File file = builder.getOverflowFile();
+    if (file == null) {
+      return null;
+    }
+    try {
+      return DiskStore.open(file, (int) builder.getOverflowBytes(),
+          builder.<K>getOverflowKeySerializer(), builder.<V>getOverflowValueSerializer());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to map the overflow file " + file, e);
+    }
+  }
+
+  /** Loads the values found in the overflow store from there, and other values with a loader. */
+  static final class OverflowLoader<K, V> extends CacheLoader<K, V> {
+    final DiskStore<K, V> overflow;
+    final CacheLoader<? super K, V> delegate;
+
+    OverflowLoader(DiskStore<K, V> overflow, CacheLoader<? super K, V> delegate) {
+      this.overflow = overflow;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public V load(K key) throws Exception {
+      V value = overflow.remove(key);
+      return (value == null) ? delegate.load(key) : value;
+    }
+
+    @Override
+    public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+      return delegate.reload(key, oldValue);
+    }
+  }
+
   // Cache support
 
   public void cleanUp() {
     for (Segment<?, ?> segment : segments) {
       segment.cleanUp();
     }
+    if (overflow != null) {
+      overflow.force();
+    }
+  }
+
+  /**
+   * Returns up to {@code limit} live entries, the most recently used first: if the cache keeps its
+   * entries in access order, the most recently used entries of each segment are taken in turn, and
+   * otherwise the entries are in no particular order.
+   */
+  List<Entry<K, V>> hottestEntries(int limit) {
+    if (limit == 0) {
+      return Lists.newArrayList();
+    } else if (!usesAccessQueue()) {
+      List<Entry<K, V>> entries = Lists.newArrayList();
+      for (Entry<K, V> entry : Iterables.limit(entrySet(), limit)) {
+        entries.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
+      }
+      return entries;
+    }
+    List<List<Entry<K, V>>> segmentEntries = Lists.newArrayListWithCapacity(segments.length);
+    for (Segment<K, V> segment : segments) {
+      segmentEntries.add(segment.hottestEntries(limit));
+    }
+    List<Entry<K, V>> entries = Lists.newArrayList();
+    for (int i = 0; entries.size() < limit; i++) {
+      boolean found = false;
+      for (List<Entry<K, V>> hottest : segmentEntries) {
+        if (i < hottest.size() && entries.size() < limit) {
+          entries.add(hottest.get(i));
+          found = true;
+        }
+      }
+      if (!found) {
+        break;
+      }
+    }
+    return entries;
   }
 
   // ConcurrentMap methods
@@ -3941,6 +5047,15 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return get(key, defaultLoader);
   }
 
+  /**
+   * Returns a future of the value of {@code key}, without blocking; see
+   * {@link Segment#getFuture}.
+   */
+  ListenableFuture<V> getFuture(K key, List<PendingLoad<K, V>> newLoads) {
+    int hash = hash(checkNotNull(key));
+    return segmentFor(hash).getFuture(key, hash, newLoads);
+  }
+
   ImmutableMap<K, V> getAllPresent(Iterable<?> keys) {
     int hits = 0;
     int misses = 0;
@@ -4040,11 +5155,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     } finally {
       if (!success) {
         globalStatsCounter.recordLoadException(stopwatch.elapsed(NANOSECONDS));
+        recordLoadTime(stopwatch.elapsed(NANOSECONDS));
       }
     }
 
     if (result == null) {
       globalStatsCounter.recordLoadException(stopwatch.elapsed(NANOSECONDS));
+      recordLoadTime(stopwatch.elapsed(NANOSECONDS));
       throw new InvalidCacheLoadException(loader + " returned null map from loadAll");
     }
 
@@ -4064,11 +5181,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     if (nullsPresent) {
       globalStatsCounter.recordLoadException(stopwatch.elapsed(NANOSECONDS));
+      recordLoadTime(stopwatch.elapsed(NANOSECONDS));
       throw new InvalidCacheLoadException(loader + " returned null keys or values from loadAll");
     }
 
     // TODO(fry): record count of loaded entries
     globalStatsCounter.recordLoadSuccess(stopwatch.elapsed(NANOSECONDS));
+    recordLoadTime(stopwatch.elapsed(NANOSECONDS));
     return result;
   }
 
@@ -4170,7 +5289,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return null;
     }
     int hash = hash(key);
-    return segmentFor(hash).remove(key, hash);
+    V value = segmentFor(hash).remove(key, hash);
+    if (overflow != null) {
+      overflow.invalidate(key);
+    }
+    return value;
   }
 
   @Override
@@ -4206,6 +5329,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     for (Segment<K, V> segment : segments) {
       segment.clear();
     }
+    if (overflow != null) {
+      overflow.invalidateAll();
+    }
   }
 
   void invalidateAll(Iterable<?> keys) {
@@ -4566,8 +5692,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     final Equivalence<Object> valueEquivalence;
     final long expireAfterWriteNanos;
     final long expireAfterAccessNanos;
+    final Expiry<K, V> expiry;
     final long maxWeight;
     final Weigher<K, V> weigher;
+    final EvictionPolicy evictionPolicy;
     final int concurrencyLevel;
     final RemovalListener<? super K, ? super V> removalListener;
     final Ticker ticker;
@@ -4583,8 +5711,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           cache.valueEquivalence,
           cache.expireAfterWriteNanos,
           cache.expireAfterAccessNanos,
+          cache.expiry,
           cache.maxWeight,
           cache.weigher,
+          cache.evictionPolicy,
           cache.concurrencyLevel,
           cache.removalListener,
           cache.ticker,
@@ -4594,8 +5724,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     private ManualSerializationProxy(
         Strength keyStrength, Strength valueStrength,
         Equivalence<Object> keyEquivalence, Equivalence<Object> valueEquivalence,
-        long expireAfterWriteNanos, long expireAfterAccessNanos, long maxWeight,
-        Weigher<K, V> weigher, int concurrencyLevel,
+        long expireAfterWriteNanos, long expireAfterAccessNanos, Expiry<K, V> expiry,
+        long maxWeight, Weigher<K, V> weigher, EvictionPolicy evictionPolicy, int concurrencyLevel,
         RemovalListener<? super K, ? super V> removalListener,
         Ticker ticker, CacheLoader<? super K, V> loader) {
       this.keyStrength = keyStrength;
@@ -4604,8 +5734,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.valueEquivalence = valueEquivalence;
       this.expireAfterWriteNanos = expireAfterWriteNanos;
       this.expireAfterAccessNanos = expireAfterAccessNanos;
+      this.expiry = expiry;
       this.maxWeight = maxWeight;
       this.weigher = weigher;
+      this.evictionPolicy = evictionPolicy;
       this.concurrencyLevel = concurrencyLevel;
       this.removalListener = removalListener;
       this.ticker = (ticker == Ticker.systemTicker() || ticker == NULL_TICKER)
@@ -4628,6 +5760,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (expireAfterAccessNanos > 0) {
         builder.expireAfterAccess(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
       }
+      if (expiry != null) {
+        builder.expireAfter(expiry);
+      }
       if (weigher != OneWeigher.INSTANCE) {
         builder.weigher(weigher);
         if (maxWeight != UNSET_INT) {
@@ -4638,6 +5773,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           builder.maximumSize(maxWeight);
         }
       }
+      if (evictionPolicy != null && evictionPolicy != EvictionPolicy.LRU
+          && maxWeight != UNSET_INT) {
+        builder.evictionPolicy(evictionPolicy);
+      }
       if (ticker != null) {
         builder.ticker(ticker);
       }
@@ -4817,6 +5956,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       super(new LocalCache<K, V>(builder, checkNotNull(loader)));
     }
 
+    LocalLoadingCache(LocalCache<K, V> localCache) {
+      super(localCache);
+    }
+
     // LoadingCache methods
 
     @Override
@@ -4857,4 +6000,192 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return new LoadingSerializationProxy<K, V>(localCache);
     }
   }
+
+  @GwtIncompatible("To be supported")
+  static class LocalAsyncLoadingCache<K, V> implements AsyncLoadingCache<K, V> {
+    final LocalCache<K, V> localCache;
+    final LoadingCache<K, V> synchronous;
+    final Executor executor;
+
+    /** Entries inserted by {@link LocalCache#getFuture}, waiting for the next batch. */
+    final Queue<PendingLoad<K, V>> pendingLoads = new ConcurrentLinkedQueue<PendingLoad<K, V>>();
+
+    /** Whether a batch was submitted to the executor and has not started yet. */
+    final AtomicBoolean batchScheduled = new AtomicBoolean();
+
+    final Runnable loadBatch = new Runnable() {
+      @Override
+      public void run() {
+        batchScheduled.set(false);
+        loadPending();
+      }
+    };
+
+    LocalAsyncLoadingCache(CacheBuilder<? super K, ? super V> builder,
+        CacheLoader<? super K, V> loader, Executor executor) {
+      this.executor = checkNotNull(executor);
+      // refreshes must not block the callers either
+      this.localCache = new LocalCache<K, V>(
+          builder, CacheLoader.asyncReloading(checkNotNull(loader), executor));
+      this.synchronous = new LocalLoadingCache<K, V>(localCache);
+    }
+
+    @Override
+    public ListenableFuture<V> get(K key) {
+      List<PendingLoad<K, V>> newLoads = Lists.newArrayListWithCapacity(1);
+      try {
+        return localCache.getFuture(key, newLoads);
+      } finally {
+        schedule(newLoads);
+      }
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<K, V>> getAll(Iterable<? extends K> keys) {
+      final Map<K, ListenableFuture<V>> futures = Maps.newLinkedHashMap();
+      List<PendingLoad<K, V>> newLoads = Lists.newArrayList();
+      try {
+        for (K key : keys) {
+          if (!futures.containsKey(key)) {
+            futures.put(key, localCache.getFuture(key, newLoads));
+          }
+        }
+      } finally {
+        // all the missing keys go to the same batch
+        schedule(newLoads);
+      }
+      return Futures.transform(Futures.allAsList(futures.values()),
+          new Function<List<V>, ImmutableMap<K, V>>() {
+            @Override
+            public ImmutableMap<K, V> apply(List<V> values) {
+              ImmutableMap.Builder<K, V> result = ImmutableMap.builder();
+              Iterator<V> valueIterator = values.iterator();
+              for (K key : futures.keySet()) {
+                result.put(key, valueIterator.next());
+              }
+              return result.build();
+            }
+          });
+    }
+
+    @Override
+    public void refresh(K key) {
+      localCache.refresh(key);
+    }
+
+    @Override
+    public LoadingCache<K, V> synchronous() {
+      return synchronous;
+    }
+
+    /**
+     * Adds {@code newLoads} to the next batch, submitting it to the executor unless it already
+     * was. Keys requested until the batch starts will be loaded with these ones.
+     */
+    void schedule(List<PendingLoad<K, V>> newLoads) {
+      if (newLoads.isEmpty()) {
+        return;
+      }
+      pendingLoads.addAll(newLoads);
+      if (batchScheduled.compareAndSet(false, true)) {
+        try {
+          executor.execute(loadBatch);
+        } catch (RuntimeException e) {
+          // fail the loads rather than leaving their entries loading forever
+          batchScheduled.set(false);
+          for (PendingLoad<K, V> load; (load = pendingLoads.poll()) != null; ) {
+            load.complete(null, e);
+          }
+        }
+      }
+    }
+
+    void loadPending() {
+      List<PendingLoad<K, V>> batch = Lists.newArrayList();
+      for (PendingLoad<K, V> load; (load = pendingLoads.poll()) != null; ) {
+        batch.add(load);
+      }
+      if (!batch.isEmpty()) {
+        load(batch);
+      }
+    }
+
+    /**
+     * Loads the values of {@code batch} with a single call to {@link CacheLoader#loadAll}, or with
+     * {@link CacheLoader#load} if the loader does not implement {@code loadAll}.
+     */
+    void load(List<PendingLoad<K, V>> batch) {
+      Set<K> keys = Sets.newLinkedHashSet();
+      for (PendingLoad<K, V> load : batch) {
+        keys.add(load.key);
+      }
+
+      CacheLoader<? super K, V> loader = localCache.defaultLoader;
+      Map<K, V> loaded = null;
+      Throwable failure = null;
+      // like getAll, a batch is recorded as a single load
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      try {
+        @SuppressWarnings("unchecked") // safe since all keys extend K
+        Map<K, V> map = (Map<K, V>) loader.loadAll(keys);
+        if (map == null) {
+          failure = new InvalidCacheLoadException(loader + " returned null map from loadAll");
+        }
+        loaded = map;
+      } catch (UnsupportedLoadingOperationException e) {
+        loadEach(batch);
+        return;
+      } catch (Throwable t) {
+        if (t instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        failure = t;
+      }
+      long loadTime = stopwatch.elapsed(NANOSECONDS);
+      if (failure != null) {
+        localCache.globalStatsCounter.recordLoadException(loadTime);
+      } else {
+        localCache.globalStatsCounter.recordLoadSuccess(loadTime);
+      }
+      localCache.recordLoadTime(loadTime);
+
+      for (PendingLoad<K, V> load : batch) {
+        if (failure != null) {
+          load.completeInBatch(null, failure);
+        } else {
+          V value = loaded.get(load.key);
+          load.completeInBatch(value, (value != null) ? null
+              : new InvalidCacheLoadException("loadAll failed to return a value for " + load.key));
+        }
+      }
+      if (loaded != null) {
+        // like getAll, keep the values that were loaded without being requested
+        for (Map.Entry<K, V> entry : loaded.entrySet()) {
+          K key = entry.getKey();
+          V value = entry.getValue();
+          if (key != null && value != null && !keys.contains(key)) {
+            localCache.put(key, value);
+          }
+        }
+      }
+    }
+
+    void loadEach(List<PendingLoad<K, V>> batch) {
+      CacheLoader<? super K, V> loader = localCache.defaultLoader;
+      for (PendingLoad<K, V> load : batch) {
+        load.loadingValueReference.stopwatch.reset().start();
+        V value = null;
+        Throwable failure = null;
+        try {
+          value = loader.load(load.key);
+        } catch (Throwable t) {
+          if (t instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+          }
+          failure = t;
+        }
+        load.complete(value, failure);
+      }
+    }
+  }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.cache.CacheBuilder.UNSET_INT;
+
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.cache.CacheBuilder.NullListener;
+import com.google.common.cache.LocalCache.LocalManualCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache storing its values outside of the Java heap, built by {@link CacheBuilder#buildOffHeap}.
+ * The keys, and a small {@link Slot} locating each value, are held by an ordinary on-heap cache,
+ * which is configured like the builder and handles eviction, expiration and statistics; the
+ * values are serialized into the chunks of a {@link SlabAllocator}.
+ *
+ * <p>A chunk is freed when the removal of its entry is notified, which may happen after a reader
+ * obtained its slot. Slots are therefore reference counted: the cache holds one reference, and
+ * each read holds another while deserializing the value, so that a chunk is never reused while it
+ * is being read.
+ */
+@GwtIncompatible("To be supported")
+final class OffHeapCache<K, V> extends AbstractCache<K, V> {
+
+  final Cache<K, Slot> slots;
+  final SlabAllocator allocator = new SlabAllocator();
+  final ValueSerializer<V> serializer;
+  final RemovalListener<K, V> removalListener;
+
+  OffHeapCache(CacheBuilder<? super K, ? super V> builder, ValueSerializer<V> serializer) {
+    this.serializer = checkNotNull(serializer);
+    this.removalListener = builder.getRemovalListener();
+
+    // only the settings that do not depend on the values apply to the slots
+    CacheBuilder<Object, Object> slotBuilder = new CacheBuilder<Object, Object>();
+    slotBuilder.initialCapacity = builder.initialCapacity;
+    slotBuilder.concurrencyLevel = builder.concurrencyLevel;
+    slotBuilder.maximumSize = builder.maximumSize;
+    slotBuilder.evictionPolicy = builder.evictionPolicy;
+    slotBuilder.keyStrength = builder.keyStrength;
+    slotBuilder.keyEquivalence = builder.keyEquivalence;
+    slotBuilder.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+    slotBuilder.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+    slotBuilder.ticker = builder.ticker;
+    slotBuilder.maintenanceExecutor = builder.maintenanceExecutor;
+    slotBuilder.maintenanceScheduler = builder.maintenanceScheduler;
+    slotBuilder.maintenancePeriodNanos = builder.maintenancePeriodNanos;
+    slotBuilder.statsCounterSupplier = builder.statsCounterSupplier;
+    if (builder.maximumWeight != UNSET_INT) {
+      slotBuilder.maximumWeight(builder.maximumWeight).weigher(SlotWeigher.INSTANCE);
+    }
+    this.slots = slotBuilder.removalListener(new SlotRemovalListener()).build();
+  }
+
+  @Override
+  @Nullable
+  public V getIfPresent(Object key) {
+    Slot slot = slots.getIfPresent(key);
+    return (slot == null) ? null : read(slot);
+  }
+
+  @Override
+  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+    checkNotNull(valueLoader);
+    while (true) {
+      SlotLoader loader = new SlotLoader(valueLoader);
+      Slot slot = slots.get(key, loader);
+      if (loader.value != null) {
+        // the loaded slot may already be evicted, so the value is returned as it was loaded
+        return loader.value;
+      }
+      V value = read(slot);
+      if (value != null) {
+        return value;
+      }
+      // the entry was removed concurrently, before this call could load it
+    }
+  }
+
+  @Override
+  public void put(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    slots.put(key, write(value));
+  }
+
+  @Override
+  public void invalidate(Object key) {
+    slots.invalidate(key);
+  }
+
+  @Override
+  public void invalidateAll() {
+    slots.invalidateAll();
+  }
+
+  @Override
+  public long size() {
+    return slots.size();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return slots.stats();
+  }
+
+  @Override
+  public void cleanUp() {
+    slots.cleanUp();
+  }
+
+  /**
+   * Returns up to {@code limit} entries, the most recently used first, as
+   * {@link LocalCache#hottestEntries} does. Entries removed while they are read are skipped.
+   */
+  List<Entry<K, V>> hottestEntries(int limit) {
+    List<Entry<K, Slot>> slotEntries =
+        ((LocalManualCache<K, Slot>) slots).localCache.hottestEntries(limit);
+    List<Entry<K, V>> entries = Lists.newArrayListWithCapacity(slotEntries.size());
+    for (Entry<K, Slot> entry : slotEntries) {
+      V value = read(entry.getValue());
+      if (value != null) {
+        entries.add(Maps.immutableEntry(entry.getKey(), value));
+      }
+    }
+    return entries;
+  }
+
+  /** Serializes {@code value} into a new chunk. */
+  Slot write(V value) {
+    byte[] bytes = serializer.serialize(value);
+    long chunk = allocator.allocate(bytes.length);
+    ByteBuffer buffer = allocator.slab(chunk).duplicate();
+    buffer.position(SlabAllocator.offset(chunk));
+    buffer.put(bytes);
+    return new Slot(chunk, bytes.length);
+  }
+
+  /** Returns the value of {@code slot}, or null if its chunk was already freed. */
+  @Nullable
+  V read(Slot slot) {
+    if (!slot.retain()) {
+      return null;
+    }
+    try {
+      return serializer.deserialize(view(slot));
+    } finally {
+      release(slot);
+    }
+  }
+
+  ByteBuffer view(Slot slot) {
+    ByteBuffer buffer = allocator.slab(slot.chunk).asReadOnlyBuffer();
+    int offset = SlabAllocator.offset(slot.chunk);
+    buffer.limit(offset + slot.length);
+    buffer.position(offset);
+    return buffer.slice();
+  }
+
+  void release(Slot slot) {
+    if (slot.release()) {
+      allocator.free(slot.chunk, slot.length);
+    }
+  }
+
+  /**
+   * Locates a value in the allocator. Only the reference count is mutable.
+   */
+  static final class Slot {
+    static final AtomicIntegerFieldUpdater<Slot> REFERENCES =
+        AtomicIntegerFieldUpdater.newUpdater(Slot.class, "references");
+
+    final long chunk;
+    final int length;
+
+    /** The number of references to the chunk; 0 once it was freed. */
+    volatile int references = 1;
+
+    Slot(long chunk, int length) {
+      this.chunk = chunk;
+      this.length = length;
+    }
+
+    /** Adds a reference to the chunk, unless it was already freed. */
+    boolean retain() {
+      while (true) {
+        int count = references;
+        if (count == 0) {
+          return false;
+        }
+        if (REFERENCES.compareAndSet(this, count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /** Removes a reference to the chunk, returning whether the chunk should be freed. */
+    boolean release() {
+      return REFERENCES.decrementAndGet(this) == 0;
+    }
+  }
+
+  /** Writes the value of a loader into a new slot, keeping the loaded value for the caller. */
+  final class SlotLoader implements Callable<Slot> {
+    final Callable<? extends V> valueLoader;
+    V value;
+
+    SlotLoader(Callable<? extends V> valueLoader) {
+      this.valueLoader = valueLoader;
+    }
+
+    @Override
+    public Slot call() throws Exception {
+      V loaded = valueLoader.call();
+      if (loaded == null) {
+        // let the slots report the missing value
+        return null;
+      }
+      Slot slot = write(loaded);
+      value = loaded;
+      return slot;
+    }
+  }
+
+  /** Weighs entries by the serialized size of their value. */
+  enum SlotWeigher implements Weigher<Object, Slot> {
+    INSTANCE;
+
+    @Override
+    public int weigh(Object key, Slot slot) {
+      return slot.length;
+    }
+  }
+
+  /**
+   * Notifies the removal listener of the cache, then releases the reference of the cache to the
+   * chunk of the removed value.
+   */
+  final class SlotRemovalListener implements RemovalListener<K, Slot> {
+    @Override
+    public void onRemoval(RemovalNotification<K, Slot> notification) {
+      Slot slot = notification.getValue();
+      try {
+        if (removalListener != NullListener.INSTANCE) {
+          V value = (slot == null) ? null : serializer.deserialize(view(slot));
+          removalListener.onRemoval(
+              new RemovalNotification<K, V>(notification.getKey(), value, notification.getCause()));
+        }
+      } finally {
+        if (slot != null) {
+          release(slot);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.collect.Lists;
+
+import java.util.AbstractQueue;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lossy buffer recording the entries read from a cache segment, until the segment lock
+ * is acquired to replay them. Unlike a {@link java.util.concurrent.ConcurrentLinkedQueue}, adding
+ * an element does not allocate: the buffer is striped by thread, each stripe being a ring of
+ * {@link #STRIPE_CAPACITY} slots, and {@link #offer} drops the element when its stripe is full or
+ * contended. The segment then drains the buffer if its lock is free and offers the element again,
+ * so reads are only lost under contention. Losing some reads only makes the recency ordering
+ * slightly less accurate, which is preferable to having readers pile up behind the thread
+ * draining the buffer.
+ *
+ * <p>Elements are returned in the order they were added by each thread, but not across threads.
+ * {@link #offer} may be called by any thread, but the methods removing or inspecting elements must
+ * only be called by one thread at a time, typically while holding the segment lock. {@link #size}
+ * and {@link #iterator} are only accurate when no element is being added concurrently.
+ */
+@GwtIncompatible("To be supported")
+final class ReadBuffer<E> extends AbstractQueue<E> {
+
+  /**
+   * Number of elements each stripe can hold: twice the number of reads between two attempts to
+   * drain the buffer, leaving room for reads recorded while the segment lock is briefly held.
+   * Must be a power of two.
+   */
+  static final int STRIPE_CAPACITY = 2 * (LocalCache.DRAIN_THRESHOLD + 1);
+
+  /** Upper bound of the number of stripes. */
+  static final int MAXIMUM_STRIPES = 16;
+
+  /** The stripes, created when a thread first adds an element to them. */
+  private final AtomicReferenceArray<Stripe<E>> stripes;
+  private final int stripeMask;
+
+  ReadBuffer() {
+    int stripeCount = 1;
+    int processors = Runtime.getRuntime().availableProcessors();
+    while (stripeCount < processors && stripeCount < MAXIMUM_STRIPES) {
+      stripeCount <<= 1;
+    }
+    stripes = new AtomicReferenceArray<Stripe<E>>(stripeCount);
+    stripeMask = stripeCount - 1;
+  }
+
+  /**
+   * Adds {@code e} to the stripe of the current thread.
+   *
+   * @return {@code false} if the element was dropped because the stripe was full or contended
+   */
+  @Override
+  public boolean offer(E e) {
+    checkNotNull(e);
+    int index = LocalCache.rehash((int) Thread.currentThread().getId()) & stripeMask;
+    Stripe<E> stripe = stripes.get(index);
+    if (stripe == null) {
+      stripes.compareAndSet(index, null, new Stripe<E>());
+      stripe = stripes.get(index);
+    }
+    return stripe.offer(e);
+  }
+
+  @Override
+  public E poll() {
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        E e = stripe.poll();
+        if (e != null) {
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public E peek() {
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        E e = stripe.peek();
+        if (e != null) {
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    List<E> elements = Lists.newArrayList();
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        stripe.copyTo(elements);
+      }
+    }
+    return Collections.unmodifiableList(elements).iterator();
+  }
+
+  /**
+   * A ring buffer with many producers and a single consumer. A producer claims the slot at the
+   * tail by incrementing {@code writeCounter}, then publishes its element in the slot; the
+   * consumer stops at the first slot that is claimed but not yet published.
+   */
+  static final class Stripe<E> {
+    final AtomicLong readCounter = new AtomicLong();
+    final AtomicLong writeCounter = new AtomicLong();
+    final AtomicReferenceArray<E> slots = new AtomicReferenceArray<E>(STRIPE_CAPACITY);
+
+    boolean offer(E e) {
+      long head = readCounter.get();
+      long tail = writeCounter.get();
+      if (tail - head >= STRIPE_CAPACITY) {
+        return false;
+      }
+      // a lost race means another thread is recording a read: drop this one rather than retry
+      if (!writeCounter.compareAndSet(tail, tail + 1)) {
+        return false;
+      }
+      slots.lazySet(slotIndex(tail), e);
+      return true;
+    }
+
+    E poll() {
+      long head = readCounter.get();
+      if (head == writeCounter.get()) {
+        return null;
+      }
+      int index = slotIndex(head);
+      E e = slots.get(index);
+      if (e != null) {
+        slots.lazySet(index, null);
+        readCounter.lazySet(head + 1);
+      }
+      return e;
+    }
+
+    E peek() {
+      long head = readCounter.get();
+      return (head == writeCounter.get()) ? null : slots.get(slotIndex(head));
+    }
+
+    int size() {
+      return (int) (writeCounter.get() - readCounter.get());
+    }
+
+    void copyTo(List<E> elements) {
+      long tail = writeCounter.get();
+      for (long i = readCounter.get(); i < tail; i++) {
+        E e = slots.get(slotIndex(i));
+        if (e == null) {
+          break;
+        }
+        elements.add(e);
+      }
+    }
+
+    static int slotIndex(long counter) {
+      return (int) counter & (STRIPE_CAPACITY - 1);
+    }
+  }
+}
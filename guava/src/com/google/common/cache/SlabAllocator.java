@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.GwtIncompatible;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Allocates chunks of memory outside of the Java heap, in direct {@link ByteBuffer} slabs, for the
+ * values of an off-heap cache.
+ *
+ * <p>Chunks are rounded up to a power of two bytes, and each size class carves its chunks from its
+ * own slabs. Freed chunks are reused by later allocations of the same size class; slabs are never
+ * released, except for the dedicated slabs of chunks larger than {@link #SLAB_SIZE}. The memory
+ * held by the allocator is therefore bounded by the peak memory used by each size class.
+ *
+ * <p>A chunk is identified by a handle encoding its slab and its offset within that slab. The slab
+ * of a chunk is guaranteed to be visible to the threads that obtained its handle safely, for
+ * instance through a concurrent map.
+ */
+@GwtIncompatible("To be supported")
+final class SlabAllocator {
+
+  /** Size of the smallest chunks, 64 bytes. */
+  static final int MIN_CHUNK_SHIFT = 6;
+
+  /** Size of the slabs chunks are carved from, 1 MiB. */
+  static final int SLAB_SIZE = 1 << 20;
+
+  private static final int SLAB_SHIFT = Integer.numberOfTrailingZeros(SLAB_SIZE);
+
+  private final SizeClass[] sizeClasses;
+
+  /**
+   * The slabs, indexed by the high half of handles. Null entries are free indices. Only written
+   * while holding the lock of the allocator.
+   */
+  private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+
+  @GuardedBy("this")
+  private int slabCount;
+
+  @GuardedBy("this")
+  private long reservedBytes;
+
+  SlabAllocator() {
+    sizeClasses = new SizeClass[SLAB_SHIFT - MIN_CHUNK_SHIFT + 1];
+    for (int i = 0; i < sizeClasses.length; i++) {
+      sizeClasses[i] = new SizeClass(MIN_CHUNK_SHIFT + i);
+    }
+  }
+
+  /** Returns the handle of a new chunk of at least {@code size} bytes. */
+  long allocate(int size) {
+    checkArgument(size >= 0, "size must not be negative: %s", size);
+    int shift = chunkShift(size);
+    if (shift > SLAB_SHIFT) {
+      return handle(addSlab(ByteBuffer.allocateDirect(size)), 0);
+    }
+    return sizeClasses[shift - MIN_CHUNK_SHIFT].allocate();
+  }
+
+  /** Frees the chunk of {@code handle}, which was allocated for {@code size} bytes. */
+  void free(long handle, int size) {
+    int shift = chunkShift(size);
+    if (shift > SLAB_SHIFT) {
+      removeSlab(slabIndex(handle));
+    } else {
+      sizeClasses[shift - MIN_CHUNK_SHIFT].free(handle);
+    }
+  }
+
+  /** Returns the slab of the chunk of {@code handle}. */
+  ByteBuffer slab(long handle) {
+    return slabs[slabIndex(handle)];
+  }
+
+  /** Returns the number of bytes of the slabs held by this allocator. */
+  synchronized long reservedBytes() {
+    return reservedBytes;
+  }
+
+  static int slabIndex(long handle) {
+    return (int) (handle >>> 32);
+  }
+
+  static int offset(long handle) {
+    return (int) handle;
+  }
+
+  static long handle(int slabIndex, int offset) {
+    return ((long) slabIndex << 32) | offset;
+  }
+
+  /** Returns the log2 of the size of the chunks holding {@code size} bytes. */
+  static int chunkShift(int size) {
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(shift, MIN_CHUNK_SHIFT);
+  }
+
+  private synchronized int addSlab(ByteBuffer slab) {
+    ByteBuffer[] slabs = this.slabs;
+    int index = 0;
+    while (index < slabCount && slabs[index] != null) {
+      index++;
+    }
+    if (index == slabs.length) {
+      slabs = Arrays.copyOf(slabs, 2 * slabs.length);
+    }
+    slabs[index] = slab;
+    slabCount = Math.max(slabCount, index + 1);
+    reservedBytes += slab.capacity();
+    this.slabs = slabs; // publishes the slab
+    return index;
+  }
+
+  private synchronized void removeSlab(int index) {
+    reservedBytes -= slabs[index].capacity();
+    slabs[index] = null;
+  }
+
+  /** The chunks of the same size. */
+  private final class SizeClass {
+    final int chunkShift;
+
+    /** Handles of the freed chunks. */
+    @GuardedBy("this")
+    long[] freeChunks = new long[16];
+
+    @GuardedBy("this")
+    int freeCount;
+
+    /** Slab the next new chunk is carved from, or -1 before the first allocation. */
+    @GuardedBy("this")
+    int currentSlab = -1;
+
+    @GuardedBy("this")
+    int nextOffset = SLAB_SIZE;
+
+    SizeClass(int chunkShift) {
+      this.chunkShift = chunkShift;
+    }
+
+    synchronized long allocate() {
+      if (freeCount > 0) {
+        return freeChunks[--freeCount];
+      }
+      if (nextOffset == SLAB_SIZE) {
+        currentSlab = addSlab(ByteBuffer.allocateDirect(SLAB_SIZE));
+        nextOffset = 0;
+      }
+      long handle = handle(currentSlab, nextOffset);
+      nextOffset += 1 << chunkShift;
+      return handle;
+    }
+
+    synchronized void free(long handle) {
+      if (freeCount == freeChunks.length) {
+        freeChunks = Arrays.copyOf(freeChunks, 2 * freeChunks.length);
+      }
+      freeChunks[freeCount++] = handle;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the values of an off-heap cache to and from the bytes stored outside of the Java heap.
+ * See {@link CacheBuilder#buildOffHeap}.
+ *
+ * <p>Implementations must be thread-safe, and {@code deserialize(serialize(value))} must return a
+ * value equivalent to {@code value}.
+ */
+@Beta
+@GwtIncompatible("To be supported")
+public interface ValueSerializer<V> {
+
+  /**
+   * Returns the serialized form of {@code value}. The returned array is copied by the cache, and
+   * may be reused once this method is called again.
+   */
+  byte[] serialize(V value);
+
+  /**
+   * Returns the value serialized in the remaining bytes of {@code buffer}. The buffer is a
+   * read-only view of the storage of the cache, which is only valid until this method returns: it
+   * must not be retained by the returned value.
+   */
+  V deserialize(ByteBuffer buffer);
+}
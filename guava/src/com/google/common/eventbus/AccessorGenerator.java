@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.SubscriberInvoker.Accessor;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Generates {@link Accessor} subclasses that call a subscriber method directly.
+ *
+ * <p>The generated class has no branches and no exception handlers, so it is emitted as a Java 6
+ * class file without any stack map frames. Each class is defined by its own class loader whose
+ * parent is the loader of the class declaring the subscriber method; that makes the generated
+ * class collectable together with the listener class.
+ */
+final class AccessorGenerator {
+
+  private static final Logger logger = Logger.getLogger(AccessorGenerator.class.getName());
+
+  private static final String ACCESSOR_NAME = internalName(Accessor.class);
+
+  private static final String CALL_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;)V";
+
+  /** Used to give each generated class a unique name. */
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  private AccessorGenerator() {}
+
+  /**
+   * Returns a new accessor for {@code method}, or {@code null} if no accessor can be generated for
+   * it, in which case the caller should fall back to reflection.
+   */
+  @Nullable
+  static Accessor tryGenerate(Method method) {
+    Class<?> owner = method.getDeclaringClass();
+    ClassLoader loader = owner.getClassLoader();
+    if (!isEligible(method, loader)) {
+      return null;
+    }
+    String name = owner.getName() + "$$SubscriberAccessor$" + counter.incrementAndGet();
+    try {
+      byte[] bytes = generate(name.replace('.', '/'), method);
+      Class<?> accessorClass = new AccessorClassLoader(loader).define(name, bytes);
+      return accessorClass.asSubclass(Accessor.class).newInstance();
+    } catch (Exception e) {
+      logger.log(Level.FINE, "Could not generate accessor for " + method, e);
+      return null;
+    } catch (LinkageError e) {
+      logger.log(Level.FINE, "Could not generate accessor for " + method, e);
+      return null;
+    }
+  }
+
+  /**
+   * Checks that a class defined by a child of {@code loader} is allowed to call {@code method}
+   * and to reference every type the call needs.
+   */
+  private static boolean isEligible(Method method, @Nullable ClassLoader loader) {
+    if (loader == null) {
+      // bootstrap classes can't see Accessor
+      return false;
+    }
+    int modifiers = method.getModifiers();
+    if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers)) {
+      return false;
+    }
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    if (parameterTypes.length != 1) {
+      return false;
+    }
+    Class<?> eventType = parameterTypes[0];
+    if (eventType.isPrimitive() || eventType.isArray()) {
+      return false;
+    }
+    return isVisible(method.getDeclaringClass(), loader)
+        && isVisible(eventType, loader)
+        && isVisible(Accessor.class, loader)
+        && (method.getReturnType().isPrimitive() || isVisible(method.getReturnType(), loader));
+  }
+
+  private static boolean isVisible(Class<?> type, ClassLoader loader) {
+    if (!Modifier.isPublic(type.getModifiers())) {
+      return false;
+    }
+    try {
+      return Class.forName(type.getName(), false, loader) == type;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Emits the class file of an accessor named {@code className} calling {@code method}.
+   */
+  private static byte[] generate(String className, Method method) {
+    Class<?> owner = method.getDeclaringClass();
+    ConstantPool pool = new ConstantPool();
+    int thisClass = pool.classRef(className);
+    int superClass = pool.classRef(ACCESSOR_NAME);
+    int superInit = pool.methodRef(ACCESSOR_NAME, "<init>", "()V", false);
+    int ownerClass = pool.classRef(internalName(owner));
+    int eventClass = pool.classRef(internalName(method.getParameterTypes()[0]));
+    int target = pool.methodRef(
+        internalName(owner), method.getName(), methodDescriptor(method), owner.isInterface());
+    int initName = pool.utf8("<init>");
+    int initDescriptor = pool.utf8("()V");
+    int callName = pool.utf8("call");
+    int callDescriptor = pool.utf8(CALL_DESCRIPTOR);
+    int code = pool.utf8("Code");
+
+    ByteArrayDataOutput init = ByteStreams.newDataOutput();
+    init.writeByte(ALOAD_0);
+    init.writeByte(INVOKESPECIAL);
+    init.writeShort(superInit);
+    init.writeByte(RETURN);
+
+    ByteArrayDataOutput call = ByteStreams.newDataOutput();
+    call.writeByte(ALOAD_1);
+    call.writeByte(CHECKCAST);
+    call.writeShort(ownerClass);
+    call.writeByte(ALOAD_2);
+    call.writeByte(CHECKCAST);
+    call.writeShort(eventClass);
+    if (owner.isInterface()) {
+      call.writeByte(INVOKEINTERFACE);
+      call.writeShort(target);
+      call.writeByte(2); // receiver + event
+      call.writeByte(0);
+    } else {
+      call.writeByte(INVOKEVIRTUAL);
+      call.writeShort(target);
+    }
+    Class<?> returnType = method.getReturnType();
+    if (returnType == long.class || returnType == double.class) {
+      call.writeByte(POP2);
+    } else if (returnType != void.class) {
+      call.writeByte(POP);
+    }
+    call.writeByte(RETURN);
+
+    ByteArrayDataOutput out = ByteStreams.newDataOutput();
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0); // minor version
+    out.writeShort(50); // major version: Java 6
+    pool.writeTo(out);
+    out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(0); // interfaces
+    out.writeShort(0); // fields
+    out.writeShort(2); // methods
+    writeMethod(out, ACC_PUBLIC, initName, initDescriptor, code, 1, 1, init.toByteArray());
+    writeMethod(out, ACC_PROTECTED, callName, callDescriptor, code, 2, 3, call.toByteArray());
+    out.writeShort(0); // attributes
+    return out.toByteArray();
+  }
+
+  private static void writeMethod(ByteArrayDataOutput out, int access, int name, int descriptor,
+      int codeAttribute, int maxStack, int maxLocals, byte[] code) {
+    out.writeShort(access);
+    out.writeShort(name);
+    out.writeShort(descriptor);
+    out.writeShort(1); // attributes
+    out.writeShort(codeAttribute);
+    out.writeInt(12 + code.length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(code.length);
+    out.write(code);
+    out.writeShort(0); // exception table
+    out.writeShort(0); // code attributes
+  }
+
+  private static String internalName(Class<?> type) {
+    return type.getName().replace('.', '/');
+  }
+
+  private static String descriptor(Class<?> type) {
+    if (type.isPrimitive()) {
+      if (type == void.class) {
+        return "V";
+      } else if (type == boolean.class) {
+        return "Z";
+      } else if (type == byte.class) {
+        return "B";
+      } else if (type == char.class) {
+        return "C";
+      } else if (type == short.class) {
+        return "S";
+      } else if (type == int.class) {
+        return "I";
+      } else if (type == long.class) {
+        return "J";
+      } else if (type == float.class) {
+        return "F";
+      } else {
+        return "D";
+      }
+    }
+    return type.isArray() ? internalName(type) : "L" + internalName(type) + ";";
+  }
+
+  private static String methodDescriptor(Method method) {
+    StringBuilder builder = new StringBuilder("(");
+    for (Class<?> parameterType : method.getParameterTypes()) {
+      builder.append(descriptor(parameterType));
+    }
+    return builder.append(')').append(descriptor(method.getReturnType())).toString();
+  }
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PROTECTED = 0x0004;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int ALOAD_2 = 0x2c;
+  private static final int POP = 0x57;
+  private static final int POP2 = 0x58;
+  private static final int RETURN = 0xb1;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKEINTERFACE = 0xb9;
+  private static final int CHECKCAST = 0xc0;
+
+  /**
+   * Constant pool of the class being generated. Entries are deduplicated.
+   */
+  private static final class ConstantPool {
+    private static final int UTF8 = 1;
+    private static final int CLASS = 7;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+
+    private final ByteArrayDataOutput entries = ByteStreams.newDataOutput();
+    private final Map<String, Integer> indexes = Maps.newHashMap();
+    private int size = 1;
+
+    int utf8(String value) {
+      Integer index = indexes.get("U" + value);
+      if (index == null) {
+        entries.writeByte(UTF8);
+        entries.writeUTF(value);
+        index = add("U" + value);
+      }
+      return index;
+    }
+
+    int classRef(String internalName) {
+      Integer index = indexes.get("C" + internalName);
+      if (index == null) {
+        int name = utf8(internalName);
+        entries.writeByte(CLASS);
+        entries.writeShort(name);
+        index = add("C" + internalName);
+      }
+      return index;
+    }
+
+    int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+      String key = "M" + owner + '.' + name + descriptor;
+      Integer index = indexes.get(key);
+      if (index == null) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        entries.writeByte(NAME_AND_TYPE);
+        entries.writeShort(nameIndex);
+        entries.writeShort(descriptorIndex);
+        int nameAndType = add("N" + key);
+        entries.writeByte(isInterface ? INTERFACE_METHOD_REF : METHOD_REF);
+        entries.writeShort(ownerIndex);
+        entries.writeShort(nameAndType);
+        index = add(key);
+      }
+      return index;
+    }
+
+    private int add(String key) {
+      int index = size++;
+      indexes.put(key, index);
+      return index;
+    }
+
+    void writeTo(ByteArrayDataOutput out) {
+      out.writeShort(size);
+      out.write(entries.toByteArray());
+    }
+  }
+
+  /**
+   * Class loader defining a single generated accessor.
+   */
+  private static final class AccessorClassLoader extends ClassLoader {
+
+    AccessorClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
@@ -44,6 +44,68 @@ public class AsyncEventBus extends EventBus {
     super(identifier, executor, Dispatcher.legacyAsync(), LoggingHandler.INSTANCE,annotation);
   }
 
+  /**
+   * Creates a new AsyncEventBus whose pending event deliveries are held in a
+   * queue of at most {@code queueCapacity} elements, drained by a bounded number
+   * of tasks submitted to {@code executor}.  When the queue is full,
+   * {@code overflowPolicy} decides what happens to further deliveries.  The
+   * current number of queued deliveries is available from
+   * {@link #queueDepth()}.
+   *
+   * @param identifier short name for the bus, for logging purposes.
+   * @param executor   Executor to use to dispatch events. It is the caller's
+   *        responsibility to shut down the executor after the last event has
+   *        been posted to this event bus.
+   * @param queueCapacity maximum number of queued event deliveries (one event
+   *        for one subscriber).
+   * @param overflowPolicy what to do with deliveries when the queue is full.
+   */
+  public AsyncEventBus(String identifier, Executor executor, int queueCapacity,
+      OverflowPolicy overflowPolicy, Class<? extends Annotation> annotation) {
+    super(identifier, executor,
+        Dispatcher.boundedAsync(executor, queueCapacity, overflowPolicy),
+        LoggingHandler.INSTANCE, annotation);
+  }
+
+  /**
+   * Creates a new AsyncEventBus that will use {@code executor} to dispatch
+   * events, and {@code serializationMode} to keep subscribers that are not
+   * marked with {@link AllowConcurrentEvents} from being called concurrently.
+   * With {@link SerializationMode#MAILBOX}, such subscribers handle their events
+   * one at a time and in order, without ever blocking a thread of
+   * {@code executor}.
+   *
+   * @param identifier short name for the bus, for logging purposes.
+   * @param executor   Executor to use to dispatch events. It is the caller's
+   *        responsibility to shut down the executor after the last event has
+   *        been posted to this event bus.
+   * @param serializationMode how to serialize calls to non-concurrent
+   *        subscribers.
+   */
+  public AsyncEventBus(String identifier, Executor executor,
+      SerializationMode serializationMode, Class<? extends Annotation> annotation) {
+    super(identifier, executor, Dispatcher.legacyAsync(), LoggingHandler.INSTANCE,
+        serializationMode, annotation);
+  }
+
+  /**
+   * Creates a new AsyncEventBus that will use {@code executor} to dispatch
+   * events, and whose dispatching statistics are recorded by
+   * {@code statsCounter} and available from {@link #stats()}.
+   *
+   * @param identifier short name for the bus, for logging purposes.
+   * @param executor   Executor to use to dispatch events. It is the caller's
+   *        responsibility to shut down the executor after the last event has
+   *        been posted to this event bus.
+   * @param statsCounter counter recording the statistics of this bus, usually
+   *        a new {@link EventBus.SimpleStatsCounter}.
+   */
+  public AsyncEventBus(String identifier, Executor executor, StatsCounter statsCounter,
+      Class<? extends Annotation> annotation) {
+    super(identifier, executor, Dispatcher.legacyAsync(), LoggingHandler.INSTANCE,
+        SerializationMode.SYNCHRONIZED, statsCounter, annotation);
+  }
+
   /**
    * Creates a new AsyncEventBus that will use {@code executor} to dispatch
    * events.
@@ -2,13 +2,15 @@ package com.google.common.eventbus;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.base.Function;
 import com.google.common.eventbus.EventBus.LoggingHandler;
 
 /**
@@ -16,6 +18,8 @@ import com.google.common.eventbus.EventBus.LoggingHandler;
  * 
  * In case of synchronous dispatching this is the calling thread that executes the dispatching otherwise it is the specified executor
  * 
+ * Posted events of {@linkplain Coalesced coalesced} classes are coalesced: each subscriber has at most one pending event of such a class, and only receives the latest one posted before its delivery task runs. Fired events are never coalesced, so that each of them is dispatched before {@link #fire(Object)} returns, and posted events are not coalesced when the bus is partitioned in lanes.
+ * 
  * @author Nicolas Gaud
  *
  */
@@ -24,27 +28,96 @@ public class AsyncSyncEventBus extends EventBus {
 	private Dispatcher syncDispatcher = Dispatcher.perThreadDispatchQueue();
 
 	public AsyncSyncEventBus(String identifier, Executor executor, Class<? extends Annotation> annotation) {
-		super(identifier, executor, Dispatcher.legacyAsync(), LoggingHandler.INSTANCE,annotation);
+		super(identifier, executor, Dispatcher.coalescing(executor, Dispatcher.legacyAsync()), LoggingHandler.INSTANCE,annotation);
+	}
+
+	/**
+	 * Creates a new AsyncSyncEventBus whose asynchronously posted event deliveries are held in a queue of at most {@code queueCapacity} elements, drained by a bounded number of tasks submitted to {@code executor}. When the queue is full, {@code overflowPolicy} decides what happens to further deliveries. Events fired synchronously are not affected.
+	 *
+	 * @param identifier short name for the bus, for logging purposes.
+	 * @param executor executor used to dispatch events.
+	 * @param queueCapacity maximum number of queued event deliveries (one event for one subscriber).
+	 * @param overflowPolicy what to do with deliveries when the queue is full.
+	 * @param annotation annotation marking subscriber methods.
+	 */
+	public AsyncSyncEventBus(String identifier, Executor executor, int queueCapacity, OverflowPolicy overflowPolicy, Class<? extends Annotation> annotation) {
+		super(identifier, executor, Dispatcher.coalescing(executor, Dispatcher.boundedAsync(executor, queueCapacity, overflowPolicy)), LoggingHandler.INSTANCE, annotation);
+	}
+
+	/**
+	 * Creates a new AsyncSyncEventBus whose subscribers that are not marked with {@link AllowConcurrentEvents} are serialized according to {@code serializationMode}.
+	 *
+	 * @param identifier short name for the bus, for logging purposes.
+	 * @param executor executor used to dispatch events.
+	 * @param serializationMode how to serialize calls to non-concurrent subscribers.
+	 * @param annotation annotation marking subscriber methods.
+	 */
+	public AsyncSyncEventBus(String identifier, Executor executor, SerializationMode serializationMode, Class<? extends Annotation> annotation) {
+		super(identifier, executor, Dispatcher.coalescing(executor, Dispatcher.legacyAsync()), LoggingHandler.INSTANCE, serializationMode, annotation);
+	}
+
+	/**
+	 * Creates a new AsyncSyncEventBus whose dispatching statistics, for both posted and fired events, are recorded by {@code statsCounter} and available from {@link #stats()}.
+	 *
+	 * @param identifier short name for the bus, for logging purposes.
+	 * @param executor executor used to dispatch events.
+	 * @param statsCounter counter recording the statistics of this bus, usually a new {@link EventBus.SimpleStatsCounter}.
+	 * @param annotation annotation marking subscriber methods.
+	 */
+	public AsyncSyncEventBus(String identifier, Executor executor, StatsCounter statsCounter, Class<? extends Annotation> annotation) {
+		super(identifier, executor, Dispatcher.coalescing(executor, Dispatcher.legacyAsync()), LoggingHandler.INSTANCE, SerializationMode.SYNCHRONIZED, statsCounter, annotation);
+	}
+
+	/**
+	 * Creates a new AsyncSyncEventBus whose asynchronously posted events are partitioned in {@code lanes}: each posted event is routed, according to the hash code of the key {@code partitionKey} computes for it (for instance the identifier of the agent the event is about), to one of the lanes, which delivers it to all its subscribers. Events for which {@code partitionKey} returns null, including {@link DeadEvent}s unless the function handles them, go to the first lane. Events fired synchronously are not affected.
+	 *
+	 * <p>
+	 * When each lane is a single-threaded executor, all the events with equal keys are handled on the same thread, in the order they were posted by any one thread, while events with different keys are handled in parallel. The bus does not manage the lifecycle of the lanes.
+	 *
+	 * @param identifier short name for the bus, for logging purposes.
+	 * @param executor executor used to dispatch fired events.
+	 * @param lanes executors, usually single-threaded, to which posted events are routed.
+	 * @param partitionKey function computing the key of each posted event.
+	 * @param annotation annotation marking subscriber methods.
+	 */
+	public AsyncSyncEventBus(String identifier, Executor executor, List<? extends Executor> lanes, Function<Object, ?> partitionKey, Class<? extends Annotation> annotation) {
+		super(identifier, executor, Dispatcher.partitioned(lanes.toArray(new Executor[lanes.size()]), partitionKey), LoggingHandler.INSTANCE, annotation);
 	}
 
 	public AsyncSyncEventBus(Executor executor, SubscriberExceptionHandler subscriberExceptionHandler, Class<? extends Annotation> annotation) {
-		super("default", executor, Dispatcher.legacyAsync(), subscriberExceptionHandler,annotation);
+		super("default", executor, Dispatcher.coalescing(executor, Dispatcher.legacyAsync()), subscriberExceptionHandler,annotation);
 	}
 
 	public AsyncSyncEventBus(Executor executor, Class<? extends Annotation> annotation) {
-		super("default", executor, Dispatcher.legacyAsync(), LoggingHandler.INSTANCE,annotation);
+		super("default", executor, Dispatcher.coalescing(executor, Dispatcher.legacyAsync()), LoggingHandler.INSTANCE,annotation);
 	}
 
 	public void fire(Object event) {
-		Iterator<Subscriber> eventSubscribers = getSubscribers().getSubscribers(event);
-		if (eventSubscribers.hasNext()) {
-			this.syncDispatcher.dispatch(event, eventSubscribers);
-		} else if (!(event instanceof DeadEvent)) {
-			// the event had no subscribers and was not itself a DeadEvent
+		if (!dispatch(event, this.syncDispatcher) && isDeadEventObserved(event)) {
 			this.fire(new DeadEvent(this, event));
 		}
 	}
 
+	/**
+	 * Fires all of {@code events} through the synchronous dispatcher, as {@link #fire(Object)} would, but with each subscriber receiving all the events it subscribes to as a single batch, in order. See {@link #postAll(Iterable)}.
+	 *
+	 * @param events events to fire.
+	 */
+	public void fireAll(Iterable<?> events) {
+		for (Object deadEvent : dispatchAll(events, this.syncDispatcher)) {
+			this.fire(new DeadEvent(this, deadEvent));
+		}
+	}
+
+	/**
+	 * Fires all of {@code events}. See {@link #fireAll(Iterable)}.
+	 *
+	 * @param events events to fire.
+	 */
+	public void fireAll(Object[] events) {
+		fireAll(Arrays.asList(events));
+	}
+
 	/*
 	 * public AsyncSyncEventBus(String identifier, Executor executor) { super(identifier, executor); }
 	 * 
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.common.annotations.Beta;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an event class whose events supersede each other, such as the latest known state of
+ * something.  An {@link AsyncSyncEventBus} keeps at most one such event pending per subscriber
+ * and event class: an event posted while an earlier event of the same class is still waiting to
+ * be delivered to a subscriber replaces it, and the subscriber only receives the latest one.
+ *
+ * <p>When its delivery task runs, the latest event of a coalesced class is handed to the bus's
+ * dispatcher like any other posted event, so bounded queues and subscriber priorities apply to it,
+ * but no ordering is guaranteed between it and other events. Events fired with
+ * {@link AsyncSyncEventBus#fire} are not coalesced.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+@Beta
+public @interface Coalesced {
+}
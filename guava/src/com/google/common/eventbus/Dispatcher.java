@@ -16,13 +16,35 @@
 
 package com.google.common.eventbus;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Function;
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.Uninterruptibles;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Queue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 /**
  * Handler for dispatching events to subscribers, providing different event ordering guarantees that
@@ -55,11 +77,63 @@ abstract class Dispatcher {
    * behavior matches the original behavior of AsyncEventBus exactly, but is otherwise not
    * especially useful. For async dispatch, an {@linkplain #immediate() immediate} dispatcher
    * should generally be preferable.
+   *
+   * <p>Deliveries to subscribers with a positive {@linkplain SubscriberPriority priority} are kept
+   * in a separate queue that is always polled first.
    */
   static Dispatcher legacyAsync() {
     return new LegacyAsyncDispatcher();
   }
 
+  /**
+   * Returns a dispatcher that queues event deliveries in a bounded queue that is drained by tasks
+   * submitted to {@code executor}. At most one drain task per available processor is pending or
+   * running at any time, so neither the queue nor the executor's own work queue can grow beyond a
+   * fixed size; when the queue is full, {@code overflowPolicy} decides what happens to new
+   * deliveries. Subscribers are called directly by the drain tasks, not through their own
+   * executor.
+   *
+   * <p>Deliveries to subscribers with a positive {@linkplain SubscriberPriority priority} go to a
+   * second queue, which is always drained first. Both queues share {@code capacity}: at most that
+   * many deliveries are pending in total, whatever their priority. When {@code overflowPolicy} is
+   * {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST}, the oldest delivery to a subscriber without a
+   * priority is dropped first.
+   *
+   * <p>Each batch of events posted together to a subscriber is queued as a single delivery, subject
+   * to the same bound and policy, and its events are delivered in order by one drain task.
+   *
+   * <p>As with the {@linkplain #legacyAsync() legacy async} dispatcher, no ordering is guaranteed
+   * when the executor runs several drain tasks concurrently.
+   */
+  static Dispatcher boundedAsync(
+      Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+    return new BoundedAsyncDispatcher(executor, capacity, overflowPolicy);
+  }
+
+  /**
+   * Returns a dispatcher that coalesces events of {@linkplain Coalesced coalesced} classes: at most
+   * one such event per subscriber and class is pending at any time, and later events replace the
+   * pending one. A task submitted to {@code executor} hands the latest event to {@code delegate}
+   * for that subscriber. Other events are dispatched by {@code delegate} directly.
+   */
+  static Dispatcher coalescing(Executor executor, Dispatcher delegate) {
+    return new CoalescingDispatcher(executor, delegate);
+  }
+
+  /**
+   * Returns a dispatcher that routes each event to one of {@code lanes}, according to the hash code
+   * of the key {@code partitionKey} computes for it, and delivers it to all its subscribers in a
+   * single task on that lane. Events for which {@code partitionKey} returns null go to the first
+   * lane. Subscribers are called directly by the lane tasks, not through their own executor.
+   *
+   * <p>When each lane is a single-threaded executor, all the events posted with equal keys are
+   * handled on the same thread, in the order they were posted by any one thread. Subscribers are
+   * still serialized as usual, but their locks are uncontended when only one lane calls them.
+   */
+  static Dispatcher partitioned(Executor[] lanes, Function<Object, ?> partitionKey) {
+    return new PartitionedDispatcher(lanes, partitionKey);
+  }
+
   /**
    * Returns a dispatcher that dispatches events to subscribers immediately as they're posted
    * without using an intermediate queue to change the dispatch order. This is effectively a
@@ -72,7 +146,35 @@ abstract class Dispatcher {
   /**
    * Dispatches the given {@code event} to the given {@code subscribers}.
    */
-  abstract void dispatch(Object event, Iterator<Subscriber> subscribers);
+  final void dispatch(Object event, Iterator<Subscriber> subscribers) {
+    dispatch(event, Iterators.toArray(subscribers, Subscriber.class));
+  }
+
+  /**
+   * Dispatches the given {@code event} to the given {@code subscribers}. The array is a shared
+   * snapshot owned by the {@link SubscriberRegistry} and must not be modified.
+   */
+  abstract void dispatch(Object event, Subscriber[] subscribers);
+
+  /**
+   * Returns the number of event deliveries currently waiting in this dispatcher's queue, or 0 if
+   * this dispatcher has no shared queue.
+   */
+  int queueDepth() {
+    return 0;
+  }
+
+  /**
+   * Dispatches each list of events in {@code batches} to its subscriber. The events of a batch are
+   * delivered in order, using a single task on the subscriber's executor.
+   *
+   * <p>By default, the batches are dispatched immediately.
+   */
+  void dispatchBatches(Map<Subscriber, List<Object>> batches) {
+    for (Map.Entry<Subscriber, List<Object>> batch : batches.entrySet()) {
+      batch.getKey().dispatchEvents(batch.getValue());
+    }
+  }
 
   /**
    * Implementation of a {@link #perThreadDispatchQueue()} dispatcher.
@@ -82,57 +184,150 @@ abstract class Dispatcher {
     // This dispatcher matches the original dispatch behavior of EventBus.
 
     /**
-     * Per-thread queue of events to dispatch.
-     */
-    private final ThreadLocal<Queue<Event>> queue =
-        new ThreadLocal<Queue<Event>>() {
-          @Override
-          protected Queue<Event> initialValue() {
-            return Queues.newArrayDeque();
-          }
-        };
-
-    /**
-     * Per-thread dispatch state, used to avoid reentrant event dispatching.
+     * Per-thread dispatch state. It is kept for the lifetime of the thread, so that posting
+     * allocates nothing once the thread's queue has grown to its steady-state size.
      */
-    private final ThreadLocal<Boolean> dispatching =
-        new ThreadLocal<Boolean>() {
+    private final ThreadLocal<DispatchContext> context =
+        new ThreadLocal<DispatchContext>() {
           @Override
-          protected Boolean initialValue() {
-            return false;
+          protected DispatchContext initialValue() {
+            return new DispatchContext();
           }
         };
 
     @Override
-    void dispatch(Object event, Iterator<Subscriber> subscribers) {
+    void dispatch(Object event, Subscriber[] subscribers) {
       checkNotNull(event);
       checkNotNull(subscribers);
-      Queue<Event> queueForThread = queue.get();
-      queueForThread.offer(new Event(event, subscribers));
-
-      if (!dispatching.get()) {
-        dispatching.set(true);
-        try {
-          Event nextEvent;
-          while ((nextEvent = queueForThread.poll()) != null) {
-            while (nextEvent.subscribers.hasNext()) {
-              nextEvent.subscribers.next().dispatchEvent(nextEvent.event);
-            }
+      DispatchContext contextForThread = context.get();
+      if (contextForThread.dispatching) {
+        // reentrant post: let the outermost dispatch deliver it after the current event
+        contextForThread.enqueue(event, subscribers);
+      } else {
+        dispatchAndDrain(contextForThread, event, subscribers);
+      }
+    }
+
+    @Override
+    void dispatchBatches(Map<Subscriber, List<Object>> batches) {
+      checkNotNull(batches);
+      DispatchContext contextForThread = context.get();
+      if (contextForThread.dispatching) {
+        contextForThread.enqueue(batches, null);
+      } else {
+        dispatchAndDrain(contextForThread, batches, null);
+      }
+    }
+
+    /**
+     * Dispatches the given entry directly, since the queue is necessarily empty, then the entries
+     * queued by its subscribers.
+     */
+    private void dispatchAndDrain(DispatchContext contextForThread, Object eventOrBatches,
+        @Nullable Subscriber[] subscribers) {
+      contextForThread.dispatching = true;
+      try {
+        dispatchEntry(eventOrBatches, subscribers);
+        while (contextForThread.next()) {
+          dispatchEntry(contextForThread.nextEvent, contextForThread.nextSubscribers);
+        }
+      } finally {
+        contextForThread.reset();
+      }
+    }
+
+    @SuppressWarnings("unchecked") // subscribers is null for batches only
+    private void dispatchEntry(Object eventOrBatches, @Nullable Subscriber[] subscribers) {
+      if (subscribers == null) {
+        super.dispatchBatches((Map<Subscriber, List<Object>>) eventOrBatches);
+      } else {
+        for (Subscriber subscriber : subscribers) {
+          if (subscriber.accepts(eventOrBatches)) {
+            subscriber.dispatchEvent(eventOrBatches);
           }
-        } finally {
-          dispatching.remove();
-          queue.remove();
         }
       }
     }
 
-    private static final class Event {
-      private final Object event;
-      private final Iterator<Subscriber> subscribers;
+    /**
+     * The queue and dispatch flag of a thread. The queue is a growable ring buffer of slots, each
+     * holding either an event and its subscribers, or a set of batches and {@code null}.
+     */
+    private static final class DispatchContext {
+      private static final int INITIAL_CAPACITY = 16;
 
-      private Event(Object event, Iterator<Subscriber> subscribers) {
-        this.event = event;
-        this.subscribers = subscribers;
+      /** Larger queues are released after the dispatch that made them grow. */
+      private static final int MAX_RETAINED_CAPACITY = 1024;
+
+      boolean dispatching;
+
+      /** Event or batches of the entry returned by the last call to {@link #next()}. */
+      Object nextEvent;
+
+      /** Subscribers of the entry returned by the last call to {@link #next()}. */
+      Subscriber[] nextSubscribers;
+
+      /** Two array elements per slot; the capacity is always a power of two. */
+      private Object[] slots = new Object[2 * INITIAL_CAPACITY];
+      private int head;
+      private int size;
+
+      void enqueue(Object eventOrBatches, @Nullable Subscriber[] subscribers) {
+        int capacity = slots.length >> 1;
+        if (size == capacity) {
+          grow();
+          capacity = slots.length >> 1;
+        }
+        int index = ((head + size) & (capacity - 1)) << 1;
+        slots[index] = eventOrBatches;
+        slots[index + 1] = subscribers;
+        size++;
+      }
+
+      /**
+       * Moves the oldest queued entry to {@link #nextEvent} and {@link #nextSubscribers}, returning
+       * {@code false} if the queue is empty.
+       */
+      boolean next() {
+        if (size == 0) {
+          nextEvent = null;
+          nextSubscribers = null;
+          return false;
+        }
+        int index = head << 1;
+        nextEvent = slots[index];
+        nextSubscribers = (Subscriber[]) slots[index + 1];
+        slots[index] = null;
+        slots[index + 1] = null;
+        head = (head + 1) & ((slots.length >> 1) - 1);
+        size--;
+        return true;
+      }
+
+      /**
+       * Ends the outermost dispatch. Entries left in the queue, if a subscriber threw, are
+       * discarded.
+       */
+      void reset() {
+        dispatching = false;
+        nextEvent = null;
+        nextSubscribers = null;
+        if (slots.length > 2 * MAX_RETAINED_CAPACITY) {
+          slots = new Object[2 * INITIAL_CAPACITY];
+        } else if (size > 0) {
+          Arrays.fill(slots, null);
+        }
+        head = 0;
+        size = 0;
+      }
+
+      private void grow() {
+        Object[] newSlots = new Object[slots.length << 1];
+        int tail = slots.length - (head << 1);
+        System.arraycopy(slots, head << 1, newSlots, 0, tail);
+        System.arraycopy(slots, 0, newSlots, tail, head << 1);
+        slots = newSlots;
+        head = 0;
       }
     }
   }
@@ -166,27 +361,412 @@ abstract class Dispatcher {
     private final ConcurrentLinkedQueue<EventWithSubscriber> queue =
         Queues.newConcurrentLinkedQueue();
 
+    /**
+     * Global queue of events for {@linkplain Subscriber#isUrgent() urgent} subscribers, polled
+     * before {@link #queue}.
+     */
+    private final ConcurrentLinkedQueue<EventWithSubscriber> urgentQueue =
+        Queues.newConcurrentLinkedQueue();
+
     @Override
-    void dispatch(Object event, Iterator<Subscriber> subscribers) {
+    void dispatch(Object event, Subscriber[] subscribers) {
       checkNotNull(event);
-      while (subscribers.hasNext()) {
-        queue.add(new EventWithSubscriber(event, subscribers.next()));
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.accepts(event)) {
+          (subscriber.isUrgent() ? urgentQueue : queue)
+              .add(new EventWithSubscriber(event, subscriber));
+        }
       }
 
       EventWithSubscriber e;
-      while ((e = queue.poll()) != null) {
+      while ((e = poll()) != null) {
         e.subscriber.dispatchEvent(e.event);
       }
     }
 
-    private static final class EventWithSubscriber {
-      private final Object event;
-      private final Subscriber subscriber;
+    @Nullable
+    private EventWithSubscriber poll() {
+      EventWithSubscriber e = urgentQueue.poll();
+      return e != null ? e : queue.poll();
+    }
+
+    @Override
+    int queueDepth() {
+      return urgentQueue.size() + queue.size();
+    }
+  }
+
+  /**
+   * An event along with one of its subscribers, as queued by the asynchronous dispatchers.
+   */
+  private static final class EventWithSubscriber {
+    private final Object event;
+    private final Subscriber subscriber;
 
-      private EventWithSubscriber(Object event, Subscriber subscriber) {
-        this.event = event;
-        this.subscriber = subscriber;
+    private EventWithSubscriber(Object event, Subscriber subscriber) {
+      this.event = event;
+      this.subscriber = subscriber;
+    }
+  }
+
+  /**
+   * Implementation of a {@link #boundedAsync} dispatcher.
+   */
+  private static final class BoundedAsyncDispatcher extends Dispatcher {
+
+    private final Executor executor;
+    private final BlockingQueue<EventWithSubscriber> queue;
+    /** Deliveries to {@linkplain Subscriber#isUrgent() urgent} subscribers, drained first. */
+    private final BlockingQueue<EventWithSubscriber> urgentQueue;
+    /**
+     * Room left in the two queues together. A permit is taken before adding to a queue and given
+     * back after polling from it, so the queues can't overflow.
+     */
+    private final Semaphore room;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxDrainers;
+
+    /**
+     * How long a {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST} producer waits for room when the
+     * queues are full of permits taken by other producers, before looking for a delivery to drop.
+     */
+    private static final long DROP_OLDEST_WAIT_MILLIS = 1;
+
+    /** Number of drain tasks submitted to the executor and not yet finished. */
+    private final AtomicInteger drainers = new AtomicInteger();
+
+    private final Runnable drainTask = new Runnable() {
+      @Override
+      public void run() {
+        drain();
       }
+    };
+
+    BoundedAsyncDispatcher(Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+      checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+      this.executor = checkNotNull(executor);
+      this.queue = new ArrayBlockingQueue<EventWithSubscriber>(capacity);
+      this.urgentQueue = new ArrayBlockingQueue<EventWithSubscriber>(capacity);
+      this.room = new Semaphore(capacity);
+      this.overflowPolicy = checkNotNull(overflowPolicy);
+      this.maxDrainers = Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    void dispatch(Object event, Subscriber[] subscribers) {
+      checkNotNull(event);
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.accepts(event)) {
+          enqueue(new EventWithSubscriber(event, subscriber));
+        }
+      }
+      scheduleDrainers();
+    }
+
+    @Override
+    void dispatchBatches(Map<Subscriber, List<Object>> batches) {
+      for (Map.Entry<Subscriber, List<Object>> batch : batches.entrySet()) {
+        enqueue(new EventWithSubscriber(new Batch(batch.getValue()), batch.getKey()));
+      }
+      scheduleDrainers();
+    }
+
+    private void enqueue(EventWithSubscriber e) {
+      BlockingQueue<EventWithSubscriber> queue = e.subscriber.isUrgent() ? urgentQueue : this.queue;
+      if (room.tryAcquire()) {
+        queue.add(e);
+        return;
+      }
+      switch (overflowPolicy) {
+        case BLOCK:
+          // make sure someone is draining before waiting for room
+          scheduleDrainers();
+          room.acquireUninterruptibly();
+          queue.add(e);
+          break;
+        case DROP_OLDEST:
+          while (!room.tryAcquire()) {
+            EventWithSubscriber dropped = this.queue.poll();
+            if (dropped == null) {
+              dropped = urgentQueue.poll();
+            }
+            if (dropped != null) {
+              room.release();
+            } else if (Uninterruptibles.tryAcquireUninterruptibly(
+                room, DROP_OLDEST_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+              // the room was taken by producers that have yet to add to the queues
+              break;
+            }
+          }
+          queue.add(e);
+          break;
+        case DROP_NEWEST:
+          break;
+        case CALLER_RUNS:
+          deliver(e);
+          break;
+        default:
+          throw new AssertionError(overflowPolicy);
+      }
+    }
+
+    /**
+     * Submits a drain task if fewer drain tasks are pending or running than deliveries are queued,
+     * and the maximum number of drain tasks isn't reached. Running drain tasks keep polling until
+     * the queues are empty, so a single new task per call is enough to keep up with the queues.
+     */
+    private void scheduleDrainers() {
+      while (true) {
+        int current = drainers.get();
+        if (current >= maxDrainers || current >= queueDepth()) {
+          return;
+        }
+        if (drainers.compareAndSet(current, current + 1)) {
+          try {
+            executor.execute(drainTask);
+          } catch (RuntimeException e) {
+            drainers.decrementAndGet();
+            throw e;
+          }
+          return;
+        }
+      }
+    }
+
+    private void drain() {
+      try {
+        EventWithSubscriber e;
+        while ((e = poll()) != null) {
+          deliver(e);
+        }
+      } finally {
+        drainers.decrementAndGet();
+      }
+      // a producer may have seen all drainers busy just before we stopped polling
+      scheduleDrainers();
+    }
+
+    @Nullable
+    private EventWithSubscriber poll() {
+      EventWithSubscriber e = urgentQueue.poll();
+      if (e == null) {
+        e = queue.poll();
+      }
+      if (e != null) {
+        room.release();
+      }
+      return e;
+    }
+
+    private static void deliver(EventWithSubscriber e) {
+      if (e.event instanceof Batch) {
+        for (Object event : ((Batch) e.event).events) {
+          e.subscriber.deliverEvent(event);
+        }
+      } else {
+        e.subscriber.deliverEvent(e.event);
+      }
+    }
+
+    @Override
+    int queueDepth() {
+      return urgentQueue.size() + queue.size();
+    }
+
+    /**
+     * Events posted together to a subscriber, queued in place of a single event.
+     */
+    private static final class Batch {
+      final List<Object> events;
+
+      Batch(List<Object> events) {
+        this.events = events;
+      }
+    }
+  }
+
+  /**
+   * Implementation of a {@link #coalescing} dispatcher.
+   */
+  private static final class CoalescingDispatcher extends Dispatcher {
+
+    /**
+     * Whether each event class is {@linkplain Coalesced coalesced}. Reading annotations may
+     * synchronize on the class, so the result is cached.
+     */
+    private static final LoadingCache<Class<?>, Boolean> coalescedClasses =
+        CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<Class<?>, Boolean>() {
+          @Override
+          public Boolean load(Class<?> eventClass) {
+            return eventClass.isAnnotationPresent(Coalesced.class);
+          }
+        });
+
+    private final Executor executor;
+    private final Dispatcher delegate;
+
+    /**
+     * Latest undelivered event of each coalesced class, for each subscriber. Subscribers are
+     * weakly held, and compared by identity, so unregistered subscribers don't leak.
+     */
+    private final ConcurrentMap<Subscriber, ConcurrentMap<Class<?>, Object>> pending =
+        new MapMaker().weakKeys().makeMap();
+
+    CoalescingDispatcher(Executor executor, Dispatcher delegate) {
+      this.executor = checkNotNull(executor);
+      this.delegate = checkNotNull(delegate);
+    }
+
+    @Override
+    void dispatch(Object event, Subscriber[] subscribers) {
+      checkNotNull(event);
+      Class<?> eventClass = event.getClass();
+      if (!coalescedClasses.getUnchecked(eventClass)) {
+        delegate.dispatch(event, subscribers);
+        return;
+      }
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.accepts(event)) {
+          coalesce(event, eventClass, subscriber);
+        }
+      }
+    }
+
+    private void coalesce(Object event, final Class<?> eventClass, final Subscriber subscriber) {
+      final ConcurrentMap<Class<?>, Object> pendingForSubscriber = pendingFor(subscriber);
+      if (pendingForSubscriber.put(eventClass, event) != null) {
+        // the pending delivery will deliver this event instead
+        return;
+      }
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            Object latest = pendingForSubscriber.remove(eventClass);
+            if (latest != null) {
+              delegate.dispatch(latest, new Subscriber[] {subscriber});
+            }
+          }
+        });
+      } catch (RuntimeException e) {
+        pendingForSubscriber.remove(eventClass);
+        throw e;
+      }
+    }
+
+    private ConcurrentMap<Class<?>, Object> pendingFor(Subscriber subscriber) {
+      ConcurrentMap<Class<?>, Object> pendingForSubscriber = pending.get(subscriber);
+      if (pendingForSubscriber == null) {
+        ConcurrentMap<Class<?>, Object> newMap = Maps.newConcurrentMap();
+        pendingForSubscriber =
+            MoreObjects.firstNonNull(pending.putIfAbsent(subscriber, newMap), newMap);
+      }
+      return pendingForSubscriber;
+    }
+
+    @Override
+    void dispatchBatches(Map<Subscriber, List<Object>> batches) {
+      // a batch is already a single delivery per subscriber
+      delegate.dispatchBatches(batches);
+    }
+
+    @Override
+    int queueDepth() {
+      return delegate.queueDepth();
+    }
+  }
+
+  /**
+   * Implementation of a {@link #partitioned} dispatcher.
+   */
+  private static final class PartitionedDispatcher extends Dispatcher {
+    private final Executor[] lanes;
+    private final Function<Object, ?> partitionKey;
+
+    PartitionedDispatcher(Executor[] lanes, Function<Object, ?> partitionKey) {
+      checkArgument(lanes.length > 0, "no lanes");
+      this.lanes = lanes.clone();
+      for (Executor lane : this.lanes) {
+        checkNotNull(lane);
+      }
+      this.partitionKey = checkNotNull(partitionKey);
+    }
+
+    @Override
+    void dispatch(final Object event, Subscriber[] subscribers) {
+      checkNotNull(event);
+      final Subscriber[] accepting = accepting(event, subscribers);
+      if (accepting.length == 0) {
+        return;
+      }
+      lane(event).execute(new Runnable() {
+        @Override
+        public void run() {
+          for (Subscriber subscriber : accepting) {
+            subscriber.deliverEvent(event);
+          }
+        }
+      });
+    }
+
+    /**
+     * Returns the subscribers accepting {@code event}, which are usually all of them.
+     */
+    private static Subscriber[] accepting(Object event, Subscriber[] subscribers) {
+      for (int i = 0; i < subscribers.length; i++) {
+        if (!subscribers[i].accepts(event)) {
+          List<Subscriber> accepting =
+              Lists.newArrayList(Arrays.asList(subscribers).subList(0, i));
+          for (int j = i + 1; j < subscribers.length; j++) {
+            if (subscribers[j].accepts(event)) {
+              accepting.add(subscribers[j]);
+            }
+          }
+          return accepting.toArray(new Subscriber[accepting.size()]);
+        }
+      }
+      return subscribers;
+    }
+
+    @Override
+    void dispatchBatches(Map<Subscriber, List<Object>> batches) {
+      for (Map.Entry<Subscriber, List<Object>> batch : batches.entrySet()) {
+        // split the batch by lane, keeping the order of the events within each lane
+        Map<Executor, List<Object>> eventsByLane = Maps.newLinkedHashMap();
+        for (Object event : batch.getValue()) {
+          Executor lane = lane(event);
+          List<Object> laneEvents = eventsByLane.get(lane);
+          if (laneEvents == null) {
+            laneEvents = Lists.newArrayList();
+            eventsByLane.put(lane, laneEvents);
+          }
+          laneEvents.add(event);
+        }
+        final Subscriber subscriber = batch.getKey();
+        for (Map.Entry<Executor, List<Object>> laneEvents : eventsByLane.entrySet()) {
+          final List<Object> events = laneEvents.getValue();
+          laneEvents.getKey().execute(new Runnable() {
+            @Override
+            public void run() {
+              for (Object event : events) {
+                subscriber.deliverEvent(event);
+              }
+            }
+          });
+        }
+      }
+    }
+
+    private Executor lane(Object event) {
+      Object key = partitionKey.apply(event);
+      if (key == null) {
+        return lanes[0];
+      }
+      int hash = key.hashCode();
+      // spread the high bits, which are often the only varying ones
+      hash ^= (hash >>> 20) ^ (hash >>> 12);
+      hash ^= (hash >>> 7) ^ (hash >>> 4);
+      return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
     }
   }
 
@@ -197,10 +777,12 @@ abstract class Dispatcher {
     private static final ImmediateDispatcher INSTANCE = new ImmediateDispatcher();
 
     @Override
-    void dispatch(Object event, Iterator<Subscriber> subscribers) {
+    void dispatch(Object event, Subscriber[] subscribers) {
       checkNotNull(event);
-      while (subscribers.hasNext()) {
-        subscribers.next().dispatchEvent(event);
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.accepts(event)) {
+          subscriber.dispatchEvent(event);
+        }
       }
     }
   }
@@ -20,13 +20,24 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.Beta;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.MoreExecutors;
 
 
@@ -83,7 +94,10 @@ import com.google.common.util.concurrent.MoreExecutors;
  * <h2>Dead Events</h2>
  * <p>If an event is posted, but no registered subscribers can accept it, it is
  * considered "dead."  To give the system a second chance to handle dead events,
- * they are wrapped in an instance of {@link DeadEvent} and reposted.
+ * they are wrapped in an instance of {@link DeadEvent} and reposted.  If no
+ * subscriber is registered for DeadEvent, no DeadEvent is created, and dead
+ * events are only counted, per type, in the bus's {@linkplain #stats()
+ * statistics}.
  *
  * <p>If a subscriber for a supertype of all events (such as Object) is registered,
  * no event will ever be considered dead, and no DeadEvents will be generated.
@@ -113,6 +127,12 @@ public class EventBus {
   /* END -- Additions made by ngaud */
   
   private final Dispatcher dispatcher;
+  private final SerializationMode serializationMode;
+  private final StatsCounter statsCounter;
+  /** Last sticky event of each event class. */
+  private final ConcurrentMap<Class<?>, Object> stickyEvents = Maps.newConcurrentMap();
+  /** Whether {@link #statsCounter} records anything, so that disabled stats cost no timing. */
+  private final boolean recordsStats;
   /* BEGIN -- Additions made by ngaud */
 
 //  /**
@@ -184,15 +204,48 @@ public class EventBus {
   
   EventBus(String identifier, Executor executor, Dispatcher dispatcher,
 	      SubscriberExceptionHandler exceptionHandler, Class<? extends Annotation> annotation) {
-	    this.identifier = checkNotNull(identifier);
-	    this.executor = checkNotNull(executor);
-	    this.dispatcher = checkNotNull(dispatcher);
-	    this.exceptionHandler = checkNotNull(exceptionHandler);
-
-	    this.subscribers = new SubscriberRegistry(this, annotation);
+    this(identifier, executor, dispatcher, exceptionHandler, SerializationMode.SYNCHRONIZED,
+        annotation);
   }
   /* END -- Additions made by ngaud */
 
+  /**
+   * Creates a new EventBus with the given {@code identifier}, whose dispatching
+   * statistics are recorded by {@code statsCounter} and available from
+   * {@link #stats()}.
+   *
+   * @param identifier  a brief name for this bus, for logging purposes.  Should
+   *                    be a valid Java identifier.
+   * @param statsCounter  counter recording the statistics of this bus, usually
+   *                      a new {@link SimpleStatsCounter}.
+   */
+  public EventBus(String identifier, StatsCounter statsCounter,
+      Class<? extends Annotation> annotation) {
+    this(identifier, MoreExecutors.directExecutor(), Dispatcher.perThreadDispatchQueue(),
+        LoggingHandler.INSTANCE, SerializationMode.SYNCHRONIZED, statsCounter, annotation);
+  }
+
+  EventBus(String identifier, Executor executor, Dispatcher dispatcher,
+      SubscriberExceptionHandler exceptionHandler, SerializationMode serializationMode,
+      Class<? extends Annotation> annotation) {
+    this(identifier, executor, dispatcher, exceptionHandler, serializationMode,
+        NULL_STATS_COUNTER, annotation);
+  }
+
+  EventBus(String identifier, Executor executor, Dispatcher dispatcher,
+      SubscriberExceptionHandler exceptionHandler, SerializationMode serializationMode,
+      StatsCounter statsCounter, Class<? extends Annotation> annotation) {
+    this.identifier = checkNotNull(identifier);
+    this.executor = checkNotNull(executor);
+    this.dispatcher = checkNotNull(dispatcher);
+    this.exceptionHandler = checkNotNull(exceptionHandler);
+    this.serializationMode = checkNotNull(serializationMode);
+    this.statsCounter = checkNotNull(statsCounter);
+    this.recordsStats = statsCounter != NULL_STATS_COUNTER;
+
+    this.subscribers = new SubscriberRegistry(this, annotation);
+  }
+
   /**
    * Returns the identifier for this event bus.
  * @return 
@@ -209,12 +262,53 @@ public class EventBus {
     return this.executor;
   }
 
+  /**
+   * Returns how this event bus serializes calls to subscriber methods that are
+   * not marked with {@link AllowConcurrentEvents}.
+   */
+  final SerializationMode serializationMode() {
+    return this.serializationMode;
+  }
+
+  /**
+   * Returns whether this bus records dispatching statistics.
+   */
+  final boolean recordsStats() {
+    return this.recordsStats;
+  }
+
+  /**
+   * Returns the counter recording the dispatching statistics of this bus.
+   */
+  final StatsCounter statsCounter() {
+    return this.statsCounter;
+  }
+
+  /**
+   * Returns a current snapshot of this bus's dispatching statistics.  All the
+   * statistics are zero unless the bus was created with a {@link StatsCounter}.
+   */
+  public EventBusStats stats() {
+    return statsCounter.snapshot();
+  }
+
+  /**
+   * Returns the number of event deliveries waiting in this bus's shared
+   * dispatch queue.  This is only meaningful for asynchronous buses created with
+   * a bounded queue, where producers may use it to throttle themselves; it is
+   * always zero or close to zero otherwise.
+   */
+  public int queueDepth() {
+    return dispatcher.queueDepth();
+  }
+
   /**
    * Handles the given exception thrown by a subscriber with the given context.
    */
   void handleSubscriberException(Throwable e, SubscriberExceptionContext context) {
     checkNotNull(e);
     checkNotNull(context);
+    statsCounter.recordSubscriberException();
     try {
       exceptionHandler.handleException(e, context);
     } catch (Throwable e2) {
@@ -230,7 +324,53 @@ public class EventBus {
    * @param object  object whose subscriber methods should be registered.
    */
   public void register(Object object) {
-    subscribers.register(object);
+    replayStickyEvents(subscribers.register(object, null));
+  }
+
+  /**
+   * Registers all subscriber methods on {@code object} to receive the events accepted by
+   * {@code filter}. The filter is evaluated on the posting thread before an event is queued or
+   * handed to a subscriber's executor, so it should be cheap and must be thread-safe; an event
+   * rejected by the filter is not delivered to any of the subscriber methods on {@code object}.
+   *
+   * <p>Events rejected by every subscriber are not considered dead. If {@code object} is already
+   * registered, its subscriber methods keep their current filter.
+   *
+   * @param object  object whose subscriber methods should be registered.
+   * @param filter  predicate selecting the events delivered to {@code object}.
+   */
+  public void register(Object object, Predicate<Object> filter) {
+    replayStickyEvents(subscribers.register(object, checkNotNull(filter)));
+  }
+
+  /**
+   * Registers all subscriber methods on {@code object} to receive events, but
+   * only holds {@code object} weakly: registering it does not keep it from
+   * being garbage-collected.  Once it has been collected, its subscriber
+   * methods no longer receive events, and they are removed from the bus in a
+   * batch, together with those of every other collected listener, by the next
+   * call to {@code register}, {@code registerWeakly} or {@code unregister}.
+   *
+   * <p>This suits buses with many short-lived listeners, which would otherwise
+   * be leaked by a forgotten call to {@link #unregister}.  The listener must be
+   * strongly referenced elsewhere for as long as it should receive events.
+   *
+   * @param object  object whose subscriber methods should be registered.
+   */
+  public void registerWeakly(Object object) {
+    replayStickyEvents(subscribers.registerWeakly(object, null));
+  }
+
+  /**
+   * Registers all subscriber methods on {@code object} to receive the events
+   * accepted by {@code filter}, holding {@code object} weakly.  See
+   * {@link #register(Object, Predicate)} and {@link #registerWeakly(Object)}.
+   *
+   * @param object  object whose subscriber methods should be registered.
+   * @param filter  predicate selecting the events delivered to {@code object}.
+   */
+  public void registerWeakly(Object object, Predicate<Object> filter) {
+    replayStickyEvents(subscribers.registerWeakly(object, checkNotNull(filter)));
   }
 
   /**
@@ -250,21 +390,204 @@ public class EventBus {
    *
    * <p>If no subscribers have been subscribed for {@code event}'s class, and
    * {@code event} is not already a {@link DeadEvent}, it will be wrapped in a
-   * DeadEvent and reposted.
+   * DeadEvent and reposted, if some subscriber is registered for DeadEvent.
    *
    * @param event  event to post.
    */
   public void post(Object event) {
-    Iterator<Subscriber> eventSubscribers = subscribers.getSubscribers(event);
-    if (eventSubscribers.hasNext()) {
-      dispatcher.dispatch(event, eventSubscribers);
-    } else if (!(event instanceof DeadEvent)) {
-      // the event had no subscribers and was not itself a DeadEvent
+    if (!dispatch(event, dispatcher) && isDeadEventObserved(event)) {
       post(new DeadEvent(this, event));
     }
   }
-  
-  
+
+  /**
+   * Posts an event like {@link #post(Object)}, and keeps it as the sticky
+   * event of its class: until another sticky event of the same class is
+   * posted, or {@link #removeStickyEvent} is called, the event is also
+   * delivered to every listener registered afterwards, by the
+   * {@code register} methods, if that listener subscribes to it.
+   *
+   * <p>A listener registered while a sticky event is being posted may receive
+   * it twice.
+   *
+   * @param event  event to post.
+   */
+  public void postSticky(Object event) {
+    stickyEvents.put(event.getClass(), event);
+    post(event);
+  }
+
+  /**
+   * Returns the sticky event of class {@code eventClass}, or {@code null} if
+   * there is none.
+   */
+  @Nullable
+  public <T> T getStickyEvent(Class<T> eventClass) {
+    return eventClass.cast(stickyEvents.get(eventClass));
+  }
+
+  /**
+   * Removes the sticky event of class {@code eventClass}, so that it is no
+   * longer delivered to new listeners.
+   *
+   * @return the removed event, or {@code null} if there was none.
+   */
+  @Nullable
+  public <T> T removeStickyEvent(Class<T> eventClass) {
+    return eventClass.cast(stickyEvents.remove(eventClass));
+  }
+
+  /**
+   * Dispatches the sticky events to the subscribers of a newly registered
+   * listener.
+   */
+  private void replayStickyEvents(Subscriber[] listenerSubscribers) {
+    if (stickyEvents.isEmpty() || listenerSubscribers.length == 0) {
+      return;
+    }
+    for (Object event : stickyEvents.values()) {
+      List<Subscriber> eventSubscribers = Lists.newArrayList();
+      for (Subscriber subscriber : listenerSubscribers) {
+        if (subscriber.eventType().isInstance(event)) {
+          eventSubscribers.add(subscriber);
+        }
+      }
+      if (!eventSubscribers.isEmpty()) {
+        dispatcher.dispatch(event, eventSubscribers.iterator());
+      }
+    }
+  }
+
+  /**
+   * Dispatches {@code event} to its subscribers with {@code dispatcher}, and
+   * records the post in this bus's statistics.
+   *
+   * @return {@code false} if {@code event} has no subscribers.
+   */
+  final boolean dispatch(Object event, Dispatcher dispatcher) {
+    Subscriber[] eventSubscribers = subscribers.getDispatchSubscribers(event.getClass());
+    if (eventSubscribers.length == 0) {
+      if (recordsStats) {
+        statsCounter.recordPosts(1);
+        if (!(event instanceof DeadEvent)) {
+          statsCounter.recordDeadEvents(event.getClass(), 1);
+        }
+      }
+      return false;
+    }
+    if (!recordsStats) {
+      dispatcher.dispatch(event, eventSubscribers);
+      return true;
+    }
+    statsCounter.recordPosts(1);
+    long start = System.nanoTime();
+    try {
+      dispatcher.dispatch(event, eventSubscribers);
+    } finally {
+      statsCounter.recordDispatch(event.getClass(), System.nanoTime() - start);
+    }
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if {@code deadEvent}, which had no subscribers, should
+   * be wrapped in a {@link DeadEvent} and reposted: it is not itself a
+   * DeadEvent, and some subscriber would receive the DeadEvent.  Since the
+   * registry caches the subscribers of DeadEvent like those of any other
+   * class, this costs a single lookup until the next registration change.
+   */
+  final boolean isDeadEventObserved(Object deadEvent) {
+    return !(deadEvent instanceof DeadEvent)
+        && subscribers.getDispatchSubscribers(DeadEvent.class).length != 0;
+  }
+
+  /**
+   * Posts all of {@code events} to their registered subscribers.  This is
+   * equivalent to calling {@link #post(Object)} for each event in turn, except
+   * that subscribers are looked up once per run of events of the same type, and
+   * that each subscriber receives all the events it subscribes to as a single
+   * batch, in a single task on its executor.
+   *
+   * <p>Each subscriber receives its events in the order they appear in
+   * {@code events}; no ordering is guaranteed between different subscribers.
+   * Events that have no subscribers are wrapped in a {@link DeadEvent} and
+   * reposted, unless they are already DeadEvents or no subscriber is
+   * registered for DeadEvent.
+   *
+   * @param events  events to post.
+   */
+  public void postAll(Iterable<?> events) {
+    for (Object deadEvent : dispatchAll(events, dispatcher)) {
+      post(new DeadEvent(this, deadEvent));
+    }
+  }
+
+  /**
+   * Posts all of {@code events} to their registered subscribers.  See
+   * {@link #postAll(Iterable)}.
+   *
+   * @param events  events to post.
+   */
+  public void postAll(Object[] events) {
+    postAll(Arrays.asList(events));
+  }
+
+  /**
+   * Groups {@code events} by subscriber and hands the resulting batches to
+   * {@code dispatcher}.
+   *
+   * @return the events that had no subscribers and should be wrapped in a
+   *     DeadEvent, see {@link #isDeadEventObserved}.
+   */
+  final List<Object> dispatchAll(Iterable<?> events, Dispatcher dispatcher) {
+    Map<Subscriber, List<Object>> batches = Maps.newLinkedHashMap();
+    boolean deadEventsObserved =
+        subscribers.getDispatchSubscribers(DeadEvent.class).length != 0;
+    List<Object> deadEvents = ImmutableList.of();
+    Class<?> eventClass = null;
+    Subscriber[] eventSubscribers = null;
+    int eventCount = 0;
+    for (Object event : events) {
+      eventCount++;
+      if (event.getClass() != eventClass) {
+        eventClass = event.getClass();
+        eventSubscribers = subscribers.getDispatchSubscribers(eventClass);
+      }
+      if (eventSubscribers.length == 0) {
+        if (!(event instanceof DeadEvent)) {
+          if (recordsStats) {
+            statsCounter.recordDeadEvents(eventClass, 1);
+          }
+          if (deadEventsObserved) {
+            if (deadEvents.isEmpty()) {
+              deadEvents = Lists.newArrayList();
+            }
+            deadEvents.add(event);
+          }
+        }
+        continue;
+      }
+      for (Subscriber subscriber : eventSubscribers) {
+        if (!subscriber.accepts(event)) {
+          continue;
+        }
+        List<Object> batch = batches.get(subscriber);
+        if (batch == null) {
+          batch = Lists.newArrayList();
+          batches.put(subscriber, batch);
+        }
+        batch.add(event);
+      }
+    }
+    if (recordsStats) {
+      statsCounter.recordPosts(eventCount);
+    }
+    if (!batches.isEmpty()) {
+      dispatcher.dispatchBatches(batches);
+    }
+    return deadEvents;
+  }
+
   SubscriberRegistry getSubscribers() {
 	  return this.subscribers;
   }
@@ -276,6 +599,170 @@ public class EventBus {
         .toString();
   }
 
+  /**
+   * Accumulates statistics during the dispatching of events by an
+   * {@link EventBus}.  Implementations must be thread-safe and cheap: every
+   * method but {@link #snapshot()} may be called on the posting thread or from
+   * within a subscriber call.
+   */
+  @Beta
+  public interface StatsCounter {
+    /**
+     * Records that {@code count} events were posted.
+     */
+    void recordPosts(int count);
+
+    /**
+     * Records that {@code count} posted events of type {@code eventType} had
+     * no subscribers.
+     */
+    void recordDeadEvents(Class<?> eventType, int count);
+
+    /**
+     * Records the time, in nanoseconds, the posting thread spent handing an
+     * event of type {@code eventType} to the dispatcher.
+     */
+    void recordDispatch(Class<?> eventType, long dispatchTime);
+
+    /**
+     * Records the time, in nanoseconds, of a call to the subscriber method
+     * {@code method}.
+     */
+    void recordSubscriberCall(Method method, long callTime);
+
+    /**
+     * Records that a subscriber method threw an exception.
+     */
+    void recordSubscriberException();
+
+    /**
+     * Returns a snapshot of this counter's values.  Note that this may be an
+     * inconsistent view, as it may be interleaved with update operations.
+     */
+    EventBusStats snapshot();
+  }
+
+  /**
+   * A thread-safe {@link StatsCounter} implementation backed by atomic
+   * counters, keeping a {@link LatencyStats} histogram for every event type and
+   * every subscriber method.
+   */
+  @Beta
+  public static final class SimpleStatsCounter implements StatsCounter {
+    private final AtomicLong postCount = new AtomicLong();
+    private final AtomicLong deadEventCount = new AtomicLong();
+    private final AtomicLong exceptionCount = new AtomicLong();
+    private final ConcurrentMap<Class<?>, AtomicLong> deadEventCounts = Maps.newConcurrentMap();
+    private final ConcurrentMap<Class<?>, LatencyStats.Recorder> dispatchLatencies =
+        Maps.newConcurrentMap();
+    private final ConcurrentMap<Method, LatencyStats.Recorder> subscriberLatencies =
+        Maps.newConcurrentMap();
+
+    /**
+     * Constructs an instance with all counts initialized to zero.
+     */
+    public SimpleStatsCounter() {}
+
+    @Override
+    public void recordPosts(int count) {
+      postCount.addAndGet(count);
+    }
+
+    @Override
+    public void recordDeadEvents(Class<?> eventType, int count) {
+      deadEventCount.addAndGet(count);
+      AtomicLong counter = deadEventCounts.get(eventType);
+      if (counter == null) {
+        AtomicLong newCounter = new AtomicLong();
+        counter = MoreObjects.firstNonNull(deadEventCounts.putIfAbsent(eventType, newCounter),
+            newCounter);
+      }
+      counter.addAndGet(count);
+    }
+
+    @Override
+    public void recordDispatch(Class<?> eventType, long dispatchTime) {
+      recorder(dispatchLatencies, eventType).record(dispatchTime);
+    }
+
+    @Override
+    public void recordSubscriberCall(Method method, long callTime) {
+      recorder(subscriberLatencies, method).record(callTime);
+    }
+
+    @Override
+    public void recordSubscriberException() {
+      exceptionCount.incrementAndGet();
+    }
+
+    @Override
+    public EventBusStats snapshot() {
+      return new EventBusStats(
+          postCount.get(),
+          deadEventCount.get(),
+          exceptionCount.get(),
+          deadEventCounts(),
+          snapshot(dispatchLatencies),
+          snapshot(subscriberLatencies));
+    }
+
+    private ImmutableMap<Class<?>, Long> deadEventCounts() {
+      ImmutableMap.Builder<Class<?>, Long> builder = ImmutableMap.builder();
+      for (Map.Entry<Class<?>, AtomicLong> entry : deadEventCounts.entrySet()) {
+        builder.put(entry.getKey(), entry.getValue().get());
+      }
+      return builder.build();
+    }
+
+    private static <K> LatencyStats.Recorder recorder(
+        ConcurrentMap<K, LatencyStats.Recorder> recorders, K key) {
+      LatencyStats.Recorder recorder = recorders.get(key);
+      if (recorder == null) {
+        LatencyStats.Recorder newRecorder = new LatencyStats.Recorder();
+        recorder = MoreObjects.firstNonNull(recorders.putIfAbsent(key, newRecorder), newRecorder);
+      }
+      return recorder;
+    }
+
+    private static <K> ImmutableMap<K, LatencyStats> snapshot(
+        Map<K, LatencyStats.Recorder> recorders) {
+      ImmutableMap.Builder<K, LatencyStats> builder = ImmutableMap.builder();
+      for (Map.Entry<K, LatencyStats.Recorder> entry : recorders.entrySet()) {
+        builder.put(entry.getKey(), entry.getValue().snapshot());
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * The counter of buses that don't record statistics.
+   */
+  static final StatsCounter NULL_STATS_COUNTER = new StatsCounter() {
+    @Override
+    public void recordPosts(int count) {}
+
+    @Override
+    public void recordDeadEvents(Class<?> eventType, int count) {}
+
+    @Override
+    public void recordDispatch(Class<?> eventType, long dispatchTime) {}
+
+    @Override
+    public void recordSubscriberCall(Method method, long callTime) {}
+
+    @Override
+    public void recordSubscriberException() {}
+
+    @Override
+    public EventBusStats snapshot() {
+      return EMPTY_STATS;
+    }
+  };
+
+  private static final EventBusStats EMPTY_STATS = new EventBusStats(0, 0, 0,
+      ImmutableMap.<Class<?>, Long>of(),
+      ImmutableMap.<Class<?>, LatencyStats>of(), ImmutableMap.<Method, LatencyStats>of());
+
   /**
    * Simple logging handler for subscriber exceptions.
    */
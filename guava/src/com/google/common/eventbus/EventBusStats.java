@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.Nullable;
+
+/**
+ * Statistics about the dispatching of an {@link EventBus}. Instances of this class are immutable.
+ *
+ * <p>Statistics are recorded by the {@link EventBus.StatsCounter} given to the bus when it was
+ * created, and only if one was given; the statistics of a {@link EventBus.SimpleStatsCounter}
+ * follow these rules:
+ *
+ * <ul>
+ * <li>{@code postCount} is incremented for every event posted, including the events posted
+ *     through {@code postAll} and the {@link DeadEvent}s posted by the bus itself.
+ * <li>{@code deadEventCount} is incremented for every event that had no subscribers, except for
+ *     {@link DeadEvent}s, and so is the {@linkplain #deadEventCounts() count of the event's type}.
+ * <li>{@code exceptionCount} is incremented for every exception thrown by a subscriber and passed
+ *     to the bus's {@link SubscriberExceptionHandler}.
+ * <li>The time the posting thread spends handing an event to the dispatcher is recorded in the
+ *     {@linkplain #dispatchLatencies() histogram of the event's type}; events posted through
+ *     {@code postAll} are not timed.
+ * <li>The time spent in every call to a subscriber method, including any time spent waiting for
+ *     the subscriber's lock, is recorded in the {@linkplain #subscriberLatencies() histogram of
+ *     that method}.
+ * </ul>
+ *
+ * <p>The number of deliveries waiting in the bus's queue is a gauge rather than a statistic, see
+ * {@link EventBus#queueDepth()}.
+ */
+@Beta
+public final class EventBusStats {
+  private final long postCount;
+  private final long deadEventCount;
+  private final long exceptionCount;
+  private final ImmutableMap<Class<?>, Long> deadEventCounts;
+  private final ImmutableMap<Class<?>, LatencyStats> dispatchLatencies;
+  private final ImmutableMap<Method, LatencyStats> subscriberLatencies;
+
+  /**
+   * Constructs a new {@code EventBusStats} instance.
+   */
+  public EventBusStats(long postCount, long deadEventCount, long exceptionCount,
+      ImmutableMap<Class<?>, Long> deadEventCounts,
+      ImmutableMap<Class<?>, LatencyStats> dispatchLatencies,
+      ImmutableMap<Method, LatencyStats> subscriberLatencies) {
+    checkArgument(postCount >= 0);
+    checkArgument(deadEventCount >= 0);
+    checkArgument(exceptionCount >= 0);
+    this.postCount = postCount;
+    this.deadEventCount = deadEventCount;
+    this.exceptionCount = exceptionCount;
+    this.deadEventCounts = checkNotNull(deadEventCounts);
+    this.dispatchLatencies = checkNotNull(dispatchLatencies);
+    this.subscriberLatencies = checkNotNull(subscriberLatencies);
+  }
+
+  /**
+   * Returns the number of events posted to the bus.
+   */
+  public long postCount() {
+    return postCount;
+  }
+
+  /**
+   * Returns the number of posted events that had no subscribers, and were therefore reposted
+   * wrapped in a {@link DeadEvent} if any subscriber was registered for DeadEvent.
+   */
+  public long deadEventCount() {
+    return deadEventCount;
+  }
+
+  /**
+   * Returns, for every type of posted event that had no subscribers, the number of such events.
+   */
+  public ImmutableMap<Class<?>, Long> deadEventCounts() {
+    return deadEventCounts;
+  }
+
+  /**
+   * Returns the number of exceptions thrown by subscriber methods.
+   */
+  public long exceptionCount() {
+    return exceptionCount;
+  }
+
+  /**
+   * Returns the ratio of posted events that had no subscribers, or {@code 0.0} if no event was
+   * posted.
+   */
+  public double deadEventRate() {
+    return (postCount == 0) ? 0.0 : (double) deadEventCount / postCount;
+  }
+
+  /**
+   * Returns, for every type of posted event, the histogram of the times spent dispatching it.
+   */
+  public ImmutableMap<Class<?>, LatencyStats> dispatchLatencies() {
+    return dispatchLatencies;
+  }
+
+  /**
+   * Returns, for every subscriber method that was called, the histogram of its call times.
+   */
+  public ImmutableMap<Method, LatencyStats> subscriberLatencies() {
+    return subscriberLatencies;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(postCount, deadEventCount, exceptionCount, deadEventCounts,
+        dispatchLatencies, subscriberLatencies);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object instanceof EventBusStats) {
+      EventBusStats other = (EventBusStats) object;
+      return postCount == other.postCount
+          && deadEventCount == other.deadEventCount
+          && exceptionCount == other.exceptionCount
+          && deadEventCounts.equals(other.deadEventCounts)
+          && dispatchLatencies.equals(other.dispatchLatencies)
+          && subscriberLatencies.equals(other.subscriberLatencies);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("postCount", postCount)
+        .add("deadEventCount", deadEventCount)
+        .add("exceptionCount", exceptionCount)
+        .add("deadEventCounts", deadEventCounts)
+        .add("dispatchLatencies", dispatchLatencies)
+        .add("subscriberLatencies", subscriberLatencies)
+        .toString();
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * A histogram of the times, in nanoseconds, recorded by an {@link EventBus.SimpleStatsCounter}.
+ * Instances of this class are immutable.
+ *
+ * <p>Times are counted in buckets whose bounds are powers of two: bucket 0 holds times of 0ns,
+ * and bucket {@code i > 0} holds times in the range {@code [2^(i-1), 2^i)}, except for the last
+ * bucket which also holds every longer time. Percentiles are therefore only accurate to within a
+ * factor of two, which is enough to spot the slow subscribers and event types.
+ */
+@Beta
+public final class LatencyStats {
+
+  /** Number of buckets of every histogram. */
+  public static final int BUCKET_COUNT = 40;
+
+  private final long[] bucketCounts;
+  private final long count;
+  private final long totalTime;
+
+  LatencyStats(long[] bucketCounts, long totalTime) {
+    checkArgument(bucketCounts.length == BUCKET_COUNT);
+    checkArgument(totalTime >= 0);
+    long count = 0;
+    for (long bucketCount : bucketCounts) {
+      checkArgument(bucketCount >= 0);
+      count += bucketCount;
+    }
+    this.bucketCounts = bucketCounts;
+    this.count = count;
+    this.totalTime = totalTime;
+  }
+
+  /**
+   * Returns the number of recorded times.
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Returns the sum of the recorded times, in nanoseconds.
+   */
+  public long totalTime() {
+    return totalTime;
+  }
+
+  /**
+   * Returns the average recorded time, in nanoseconds, or {@code 0.0} if no time was recorded.
+   */
+  public double averageTime() {
+    return (count == 0) ? 0.0 : (double) totalTime / count;
+  }
+
+  /**
+   * Returns the number of recorded times that fell into bucket {@code index}.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or not less than
+   *     {@link #BUCKET_COUNT}
+   */
+  public long bucketCount(int index) {
+    return bucketCounts[checkElementIndex(index, BUCKET_COUNT)];
+  }
+
+  /**
+   * Returns the exclusive upper bound, in nanoseconds, of the times held by bucket {@code index},
+   * or {@link Long#MAX_VALUE} for the last bucket.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or not less than
+   *     {@link #BUCKET_COUNT}
+   */
+  public static long bucketUpperBound(int index) {
+    checkElementIndex(index, BUCKET_COUNT);
+    return (index == BUCKET_COUNT - 1) ? Long.MAX_VALUE : 1L << index;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile of the recorded times, or
+   * {@code 0} if no time was recorded.
+   *
+   * @param percentile  a percentile in the range {@code [0, 100]}, such as 50 for the median
+   */
+  public long percentile(double percentile) {
+    checkArgument(percentile >= 0.0 && percentile <= 100.0,
+        "percentile must be in [0, 100]: %s", percentile);
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += bucketCounts[i];
+      if (seen >= rank) {
+        return bucketUpperBound(i);
+      }
+    }
+    throw new AssertionError();
+  }
+
+  /**
+   * Returns the index of the bucket holding {@code nanos}.
+   */
+  static int bucketIndex(long nanos) {
+    int index = Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos));
+    return Math.min(index, BUCKET_COUNT - 1);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(bucketCounts) * 31 + (int) (totalTime ^ (totalTime >>> 32));
+  }
+
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object instanceof LatencyStats) {
+      LatencyStats other = (LatencyStats) object;
+      return totalTime == other.totalTime && Arrays.equals(bucketCounts, other.bucketCounts);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("count", count)
+        .add("averageTime", averageTime())
+        .add("p50", percentile(50))
+        .add("p99", percentile(99))
+        .toString();
+  }
+
+  /**
+   * Concurrent recorder of a histogram, with one atomic counter per bucket.
+   */
+  static final class Recorder {
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalTime = new AtomicLong();
+
+    Recorder() {}
+
+    void record(long nanos) {
+      buckets.incrementAndGet(bucketIndex(nanos));
+      totalTime.addAndGet(Math.max(0, nanos));
+    }
+
+    LatencyStats snapshot() {
+      long[] counts = new long[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] = buckets.get(i);
+      }
+      return new LatencyStats(counts, totalTime.get());
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * What an asynchronous event bus with a bounded queue does with an event delivery when its queue
+ * is full.
+ *
+ * <p>A delivery is one event for one subscriber, so a single posted event may be partly queued and
+ * partly subject to the overflow policy.
+ */
+@Beta
+public enum OverflowPolicy {
+
+  /**
+   * The posting thread waits until the queue has room for the delivery. Subscribers that post
+   * events themselves may deadlock with this policy if every draining thread ends up waiting.
+   */
+  BLOCK,
+
+  /**
+   * The oldest queued delivery is discarded to make room for the new one.
+   */
+  DROP_OLDEST,
+
+  /**
+   * The new delivery is discarded.
+   */
+  DROP_NEWEST,
+
+  /**
+   * The subscriber is called directly on the posting thread, which slows producers down to the
+   * rate at which the subscribers consume.
+   */
+  CALLER_RUNS
+}
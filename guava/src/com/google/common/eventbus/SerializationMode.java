@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * How an event bus keeps a subscriber method that is not marked with
+ * {@link AllowConcurrentEvents} from being called by several threads at once.
+ */
+@Beta
+public enum SerializationMode {
+
+  /**
+   * Each call to the subscriber method holds the subscriber's monitor. Threads delivering events
+   * to a busy subscriber wait for it, and the order in which they then enter is unspecified.
+   */
+  SYNCHRONIZED,
+
+  /**
+   * Each subscriber owns a lock-free mailbox of pending events. Delivering an event adds it to the
+   * mailbox; the thread that finds the mailbox idle becomes its only consumer and drains it, while
+   * every other thread returns immediately. Events are therefore handled one at a time, in the order
+   * in which they were delivered to the subscriber, and no thread ever waits for a busy subscriber.
+   *
+   * <p>With an asynchronous executor, the mailbox is drained by a single task submitted to the
+   * executor; with a direct executor, it is drained by the posting thread that found it idle, so
+   * {@code post} may return before the event has been handled when another thread is already
+   * draining the subscriber's mailbox.
+   */
+  MAILBOX
+}
@@ -19,10 +19,16 @@ package com.google.common.eventbus;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
@@ -41,89 +47,224 @@ class Subscriber {
    * Creates a {@code Subscriber} for {@code method} on {@code listener}.
    */
   static Subscriber create(EventBus bus, Object listener, Method method) {
-    return isDeclaredThreadSafe(method)
-        ? new Subscriber(bus, listener, method)
-        : new SynchronizedSubscriber(bus, listener, method);
+    return create(bus, listener, SubscriberInvoker.create(method));
+  }
+
+  /**
+   * Creates a {@code Subscriber} calling the method of {@code invoker} on {@code listener}.
+   */
+  static Subscriber create(EventBus bus, Object listener, SubscriberInvoker invoker) {
+    return create(bus, listener, invoker, null);
+  }
+
+  /**
+   * Creates a {@code Subscriber} calling the method of {@code invoker} on {@code listener} for the
+   * events accepted by {@code filter}, or for all events if {@code filter} is null.
+   */
+  static Subscriber create(EventBus bus, Object listener, SubscriberInvoker invoker,
+      @Nullable Predicate<Object> filter) {
+    return create(bus, listener, invoker, filter, null);
+  }
+
+  /**
+   * Creates a {@code Subscriber} like {@link #create(EventBus, Object, SubscriberInvoker,
+   * Predicate)}, which only holds {@code listener} through {@code listenerReference} if that is not
+   * null.
+   */
+  static Subscriber create(EventBus bus, Object listener, SubscriberInvoker invoker,
+      @Nullable Predicate<Object> filter, @Nullable WeakReference<Object> listenerReference) {
+    if (isDeclaredThreadSafe(invoker.method())) {
+      return new Subscriber(bus, listener, invoker, filter, listenerReference);
+    }
+    return bus.serializationMode() == SerializationMode.MAILBOX
+        ? new MailboxSubscriber(bus, listener, invoker, filter, listenerReference)
+        : new SynchronizedSubscriber(bus, listener, invoker, filter, listenerReference);
   }
 
   /** The event bus this subscriber belongs to. */
   private EventBus bus;
 
-  /** Object sporting the subscriber method. */
+  /** Object sporting the subscriber method, or null if it is only weakly referenced. */
   @VisibleForTesting
+  @Nullable
   final Object target;
 
+  /** Weak reference to the object sporting the subscriber method, if {@link #target} is null. */
+  @Nullable
+  private final WeakReference<Object> targetReference;
+
+  /** Hash code, computed while the target is known to be reachable. */
+  private final int hashCode;
+
   /** Subscriber method. */
   private final Method method;
 
+  /** Invoker calling {@link #method}, shared with other subscribers for the same method. */
+  @VisibleForTesting
+  final SubscriberInvoker invoker;
+
   /** Executor to use for dispatching events to this subscriber. */
   private final Executor executor;
 
-  private Subscriber(EventBus bus, Object target, Method method) {
+  /** Filter given at registration, or null if this subscriber accepts all events. */
+  @Nullable
+  private final Predicate<Object> filter;
+
+  private Subscriber(EventBus bus, Object target, SubscriberInvoker invoker,
+      @Nullable Predicate<Object> filter, @Nullable WeakReference<Object> targetReference) {
+    checkNotNull(target);
     this.bus = bus;
-    this.target = checkNotNull(target);
-    this.method = method;
-    method.setAccessible(true);
+    this.target = (targetReference == null) ? target : null;
+    this.targetReference = targetReference;
+    this.hashCode = (31 + invoker.method().hashCode()) * 31 + System.identityHashCode(target);
+    this.method = invoker.method();
+    this.invoker = invoker;
+    this.filter = filter;
 
     this.executor = bus.executor();
   }
 
+  /**
+   * Returns {@code true} if {@code event} passes the filter this subscriber was registered with.
+   * Dispatchers call this on the posting thread, before queueing the event or handing it to the
+   * executor, so that rejected events cost neither an allocation nor a thread hop.
+   */
+  final boolean accepts(Object event) {
+    return filter == null || filter.apply(event);
+  }
+
+  /**
+   * Returns the type of the events this subscriber subscribes to.
+   */
+  final Class<?> eventType() {
+    return invoker.eventType();
+  }
+
+  /**
+   * Returns the priority of this subscriber, as given by {@link SubscriberPriority}.
+   */
+  final int priority() {
+    return invoker.priority();
+  }
+
+  /**
+   * Returns {@code true} if deliveries to this subscriber may overtake queued deliveries to
+   * subscribers without a positive priority.
+   */
+  final boolean isUrgent() {
+    return invoker.priority() > 0;
+  }
+
   /**
    * Dispatches {@code event} to this subscriber using the proper executor.
    */
-  final void dispatchEvent(final Object event) {
+  void dispatchEvent(final Object event) {
     executor.execute(new Runnable() {
       @Override
       public void run() {
-        try {
-          invokeSubscriberMethod(event);
-        } catch (InvocationTargetException e) {
-          bus.handleSubscriberException(e.getCause(), context(event));
+        callSubscriber(event);
+      }
+    });
+  }
+
+  /**
+   * Dispatches all of {@code events} to this subscriber, in order, using a single task on the
+   * proper executor.
+   */
+  void dispatchEvents(final List<?> events) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (Object event : events) {
+          callSubscriber(event);
         }
       }
     });
   }
 
+  /**
+   * Delivers {@code event} to this subscriber on the current thread, bypassing the executor.
+   */
+  void deliverEvent(Object event) {
+    callSubscriber(event);
+  }
+
+  /**
+   * Calls the subscriber method on the current thread. Any exception thrown by the subscriber
+   * method is passed to the event bus's exception handler.
+   */
+  final void callSubscriber(Object event) {
+    if (!bus.recordsStats()) {
+      callSubscriberUntimed(event);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      callSubscriberUntimed(event);
+    } finally {
+      bus.statsCounter().recordSubscriberCall(method, System.nanoTime() - start);
+    }
+  }
+
+  private void callSubscriberUntimed(Object event) {
+    // holding the target keeps it reachable until the exception context is built
+    Object target = target();
+    if (target == null) {
+      // the weakly registered listener was collected and is waiting to be purged
+      return;
+    }
+    try {
+      invokeSubscriberMethod(event);
+    } catch (InvocationTargetException e) {
+      bus.handleSubscriberException(e.getCause(), context(target, event));
+    }
+  }
+
   /**
    * Invokes the subscriber method. This method can be overridden to make the invocation
    * synchronized.
    */
   @VisibleForTesting
   void invokeSubscriberMethod(Object event) throws InvocationTargetException {
-    try {
-      method.invoke(target, checkNotNull(event));
-    } catch (IllegalArgumentException e) {
-      throw new Error("Method rejected target/argument: " + event, e);
-    } catch (IllegalAccessException e) {
-      throw new Error("Method became inaccessible: " + event, e);
-    } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof Error) {
-        throw (Error) e.getCause();
-      }
-      throw e;
+    Object target = target();
+    if (target != null) {
+      invoker.invoke(target, checkNotNull(event));
     }
   }
 
+  /**
+   * Returns the object sporting the subscriber method, or null if it was weakly registered and
+   * has been collected.
+   */
+  @Nullable
+  final Object target() {
+    return (targetReference == null) ? target : targetReference.get();
+  }
+
   /**
    * Gets the context for the given event.
    */
-  private SubscriberExceptionContext context(Object event) {
+  private SubscriberExceptionContext context(Object target, Object event) {
     return new SubscriberExceptionContext(bus, event, target, method);
   }
 
   @Override
   public final int hashCode() {
-    return (31 + method.hashCode()) * 31 + System.identityHashCode(target);
+    return hashCode;
   }
 
   @Override
   public final boolean equals(@Nullable Object obj) {
+    if (obj == this) {
+      return true;
+    }
     if (obj instanceof Subscriber) {
       Subscriber that = (Subscriber) obj;
       // Use == so that different equal instances will still receive events.
       // We only guard against the case that the same object is registered
-      // multiple times
-      return target == that.target && method.equals(that.method);
+      // multiple times. A collected target is only equal to itself.
+      Object target = target();
+      return target != null && target == that.target() && method.equals(that.method);
     }
     return false;
   }
@@ -143,8 +284,9 @@ class Subscriber {
   @VisibleForTesting
   static final class SynchronizedSubscriber extends Subscriber {
 
-    private SynchronizedSubscriber(EventBus bus, Object target, Method method) {
-      super(bus, target, method);
+    private SynchronizedSubscriber(EventBus bus, Object target, SubscriberInvoker invoker,
+        @Nullable Predicate<Object> filter, @Nullable WeakReference<Object> targetReference) {
+      super(bus, target, invoker, filter, targetReference);
     }
 
     @Override
@@ -154,4 +296,88 @@ class Subscriber {
       }
     }
   }
+
+  /**
+   * Subscriber that serializes invocations of a method through a mailbox: events are queued, and
+   * only the thread that wins the race to mark the mailbox as scheduled drains it. Events are
+   * handled in the order in which they were queued, and no thread blocks on a busy subscriber.
+   */
+  @VisibleForTesting
+  static final class MailboxSubscriber extends Subscriber {
+
+    private final Queue<Object> mailbox = new ConcurrentLinkedQueue<Object>();
+
+    /** Whether a thread is draining, or a task has been submitted to drain, the mailbox. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Runnable drainTask = new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    };
+
+    private MailboxSubscriber(EventBus bus, Object target, SubscriberInvoker invoker,
+        @Nullable Predicate<Object> filter, @Nullable WeakReference<Object> targetReference) {
+      super(bus, target, invoker, filter, targetReference);
+    }
+
+    @Override
+    void dispatchEvent(Object event) {
+      mailbox.add(checkNotNull(event));
+      scheduleDrain();
+    }
+
+    @Override
+    void dispatchEvents(List<?> events) {
+      mailbox.addAll(events);
+      scheduleDrain();
+    }
+
+    @Override
+    void deliverEvent(Object event) {
+      mailbox.add(checkNotNull(event));
+      if (scheduled.compareAndSet(false, true)) {
+        drain();
+      }
+    }
+
+    private void scheduleDrain() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          super.executor.execute(drainTask);
+        } catch (RuntimeException e) {
+          scheduled.set(false);
+          throw e;
+        }
+      }
+    }
+
+    /**
+     * Handles queued events until the mailbox is empty. Must only be called by the thread that
+     * set {@link #scheduled}.
+     */
+    private void drain() {
+      boolean completed = false;
+      try {
+        while (true) {
+          Object event;
+          while ((event = mailbox.poll()) != null) {
+            callSubscriber(event);
+          }
+          scheduled.set(false);
+          // an event may have been queued after the last poll by a thread that saw us scheduled
+          if (mailbox.isEmpty() || !scheduled.compareAndSet(false, true)) {
+            completed = true;
+            return;
+          }
+        }
+      } finally {
+        if (!completed) {
+          // an Error escaped the subscriber; let the next delivery restart draining
+          scheduled.set(false);
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.annotation.Nullable;
+
+/**
+ * Calls a single subscriber method on listener objects.
+ *
+ * <p>An invoker depends only on the method, not on the listener, so one invoker is created per
+ * subscriber method and shared by every {@link Subscriber} for that method. Whenever possible the
+ * invoker is backed by a small generated class that calls the method directly; otherwise it falls
+ * back to {@link Method#invoke}.
+ */
+abstract class SubscriberInvoker {
+
+  /**
+   * Creates an invoker for {@code method}, generating a direct accessor if the method and the
+   * types it refers to are public and visible from the class loader that declares the method.
+   */
+  static SubscriberInvoker create(Method method) {
+    Accessor accessor = AccessorGenerator.tryGenerate(method);
+    return accessor != null
+        ? new GeneratedInvoker(method, accessor)
+        : new ReflectiveInvoker(method);
+  }
+
+  /**
+   * Creates an invoker for {@code method} that always uses reflection.
+   */
+  @VisibleForTesting
+  static SubscriberInvoker reflective(Method method) {
+    return new ReflectiveInvoker(method);
+  }
+
+  /** Subscriber method. */
+  private final Method method;
+
+  /** Type of the events the subscriber method subscribes to, the type of its parameter. */
+  private final Class<?> eventType;
+
+  /** Priority of the subscriber method, as given by {@link SubscriberPriority}. */
+  private final int priority;
+
+  private SubscriberInvoker(Method method) {
+    this.method = checkNotNull(method);
+    this.eventType = method.getParameterTypes()[0];
+    SubscriberPriority annotation = method.getAnnotation(SubscriberPriority.class);
+    this.priority = annotation == null ? 0 : annotation.value();
+  }
+
+  /**
+   * Returns the subscriber method called by this invoker.
+   */
+  final Method method() {
+    return method;
+  }
+
+  /**
+   * Returns the type of the events the subscriber method subscribes to.
+   */
+  final Class<?> eventType() {
+    return eventType;
+  }
+
+  /**
+   * Returns the priority of the subscriber method, 0 if it has none.
+   */
+  final int priority() {
+    return priority;
+  }
+
+  /**
+   * Calls the subscriber method on {@code target} with {@code event}.
+   *
+   * @throws InvocationTargetException if the subscriber method throws any {@link Throwable} that
+   *     is not an {@link Error} ({@code Error} instances are propagated as-is).
+   */
+  abstract void invoke(Object target, Object event) throws InvocationTargetException;
+
+  /**
+   * Returns {@code true} if this invoker calls the method directly rather than through
+   * reflection.
+   */
+  abstract boolean isGenerated();
+
+  /**
+   * Invoker that calls the subscriber method through {@link Method#invoke}.
+   */
+  private static final class ReflectiveInvoker extends SubscriberInvoker {
+
+    ReflectiveInvoker(Method method) {
+      super(method);
+      method.setAccessible(true);
+    }
+
+    @Override
+    void invoke(Object target, Object event) throws InvocationTargetException {
+      try {
+        method().invoke(target, event);
+      } catch (IllegalArgumentException e) {
+        throw new Error("Method rejected target/argument: " + event, e);
+      } catch (IllegalAccessException e) {
+        throw new Error("Method became inaccessible: " + event, e);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    boolean isGenerated() {
+      return false;
+    }
+  }
+
+  /**
+   * Invoker that delegates to a generated {@link Accessor}.
+   */
+  private static final class GeneratedInvoker extends SubscriberInvoker {
+
+    private final Accessor accessor;
+
+    GeneratedInvoker(Method method, Accessor accessor) {
+      super(method);
+      this.accessor = accessor;
+    }
+
+    @Override
+    void invoke(Object target, Object event) throws InvocationTargetException {
+      try {
+        accessor.call(target, event);
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new InvocationTargetException(e);
+      }
+    }
+
+    @Override
+    boolean isGenerated() {
+      return true;
+    }
+  }
+
+  /**
+   * Superclass of the generated accessors. Each generated subclass casts its arguments and calls
+   * one subscriber method with a plain {@code invokevirtual} (or {@code invokeinterface}), so no
+   * argument array is allocated and no access check is performed per call.
+   *
+   * <p>This class is public only because the generated subclasses are defined by a different
+   * class loader, and hence live in a different runtime package. It is not part of the API.
+   */
+  public abstract static class Accessor {
+
+    protected Accessor() {}
+
+    /**
+     * Calls the subscriber method on {@code target} with {@code event}.
+     */
+    protected abstract void call(@Nullable Object target, @Nullable Object event)
+        throws Throwable;
+  }
+}
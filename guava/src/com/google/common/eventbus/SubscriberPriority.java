@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.eventbus;
+
+import com.google.common.annotations.Beta;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Gives an event subscriber method a priority.  Subscribers with a higher
+ * priority are dispatched an event before subscribers with a lower one;
+ * subscribers with equal priorities keep their usual order.  Methods without
+ * this annotation have priority 0.
+ *
+ * <p>Asynchronous event buses additionally let deliveries to subscribers with a
+ * positive priority overtake queued deliveries to other subscribers.
+ *
+ * <p>The order is computed once per event type after each registration change,
+ * so priorities add no cost to posting.  This does not mark the method, and so
+ * should be used in combination with {@link Subscribe}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Beta
+public @interface SubscriberPriority {
+
+  /**
+   * The priority of the subscriber method; higher values are dispatched first.
+   */
+  int value();
+}
@@ -20,9 +20,13 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +39,7 @@ import javax.annotation.Nullable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -44,8 +49,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
@@ -70,6 +79,37 @@ final class SubscriberRegistry {
 	 */
 	private final ConcurrentMap<Class<?>, CopyOnWriteArraySet<Subscriber>> subscribers = Maps.newConcurrentMap();
 
+	/**
+	 * Dispatch table mapping each concrete event class posted so far to the flattened array of its subscribers, for all the types in its hierarchy.
+	 *
+	 * <p>
+	 * Each map instance is one version of the table: it is only ever added to, and is replaced by a new empty map whenever a registration changes {@link #subscribers}. Since the replacement is published after the change, an entry computed from a stale view of {@link #subscribers} can only land in a map that is no longer in use.
+	 */
+	private volatile ConcurrentMap<Class<?>, Subscriber[]> dispatchTable = Maps.newConcurrentMap();
+
+	/**
+	 * Negative cache of the event classes posted so far that have no subscribers at all.
+	 *
+	 * <p>
+	 * Removing subscribers cannot give subscribers to a class that had none, so unlike {@link #dispatchTable} this set is only replaced when subscribers are added, and the dispatch table can be rebuilt without flattening the hierarchy of dead event classes again. The same versioning argument applies.
+	 */
+	private volatile Set<Class<?>> deadEventClasses = Sets.newConcurrentHashSet();
+
+	private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+	/**
+	 * The subscribers of each registered listener, keyed by the identity of the listener.
+	 *
+	 * <p>
+	 * This lets {@link #unregister} find the subscribers to remove without scanning the listener's class again. The keys are weak so that weakly registered listeners can still be collected; the subscribers of strongly registered listeners keep them reachable anyway.
+	 */
+	private final ConcurrentMap<Object, Subscriber[]> listeners = new MapMaker().weakKeys().makeMap();
+
+	/**
+	 * Queue to which the references to weakly registered listeners are enqueued once the listeners have been collected.
+	 */
+	private final ReferenceQueue<Object> collectedListeners = new ReferenceQueue<Object>();
+
 	/* BEGIN -- Additions made by ngaud */
 	/**
 	 * The event bus this registry belongs to.
@@ -99,45 +139,106 @@ final class SubscriberRegistry {
 	 * Registers all subscriber methods on the given listener object.
 	 */
 	void register(Object listener) {
-		Multimap<Class<?>, Subscriber> listenerMethods = findAllSubscribers(listener);
+		register(listener, null);
+	}
 
-		for (Map.Entry<Class<?>, Collection<Subscriber>> entry : listenerMethods.asMap().entrySet()) {
-			Class<?> eventType = entry.getKey();
-			Collection<Subscriber> eventMethodsInListener = entry.getValue();
+	/**
+	 * Registers all subscriber methods on the given listener object, to be called only for events accepted by {@code filter}, or for all events if {@code filter} is null.
+	 *
+	 * @return the newly registered subscribers of the listener, which are none if it was already registered.
+	 */
+	Subscriber[] register(Object listener, @Nullable Predicate<Object> filter) {
+		purgeCollectedListeners();
+		return addSubscribers(listener, createSubscribers(listener, filter, null));
+	}
 
-			CopyOnWriteArraySet<Subscriber> eventSubscribers = subscribers.get(eventType);
+	/**
+	 * Registers all subscriber methods on the given listener object like {@link #register(Object, Predicate)}, but only holds the listener weakly. Once it has been collected, its subscribers are skipped, and they are removed by the next registration change.
+	 *
+	 * @return the newly registered subscribers of the listener, which are none if it was already registered.
+	 */
+	Subscriber[] registerWeakly(Object listener, @Nullable Predicate<Object> filter) {
+		purgeCollectedListeners();
+		ListenerReference reference = new ListenerReference(listener, collectedListeners);
+		Subscriber[] listenerSubscribers = createSubscribers(listener, filter, reference);
+		reference.subscribers = listenerSubscribers;
+		return addSubscribers(listener, listenerSubscribers);
+	}
 
-			if (eventSubscribers == null) {
-				CopyOnWriteArraySet<Subscriber> newSet = new CopyOnWriteArraySet<Subscriber>();
-				eventSubscribers = MoreObjects.firstNonNull(subscribers.putIfAbsent(eventType, newSet), newSet);
+	private Subscriber[] addSubscribers(Object listener, Subscriber[] listenerSubscribers) {
+		if (listenerSubscribers.length == 0) {
+			return NO_SUBSCRIBERS;
+		}
+		// a concurrent unregister removes from the sets as soon as the listener is indexed, so they must
+		// exist by then; sets are never removed once created
+		for (Subscriber subscriber : listenerSubscribers) {
+			if (!subscribers.containsKey(subscriber.eventType())) {
+				subscribers.putIfAbsent(subscriber.eventType(), new CopyOnWriteArraySet<Subscriber>());
 			}
-
-			eventSubscribers.addAll(eventMethodsInListener);
 		}
+		if (listeners.putIfAbsent(listener, listenerSubscribers) != null) {
+			// registering the listener again would not change anything, since its subscribers would be equal to the current ones
+			return NO_SUBSCRIBERS;
+		}
+		for (Subscriber subscriber : listenerSubscribers) {
+			subscribers.get(subscriber.eventType()).add(subscriber);
+		}
+		this.deadEventClasses = Sets.newConcurrentHashSet();
+		invalidateDispatchTable();
+		return listenerSubscribers;
 	}
 
 	/**
 	 * Unregisters all subscribers on the given listener object.
 	 */
 	void unregister(Object listener) {
-		Multimap<Class<?>, Subscriber> listenerMethods = findAllSubscribers(listener);
-
-		for (Map.Entry<Class<?>, Collection<Subscriber>> entry : listenerMethods.asMap().entrySet()) {
-			Class<?> eventType = entry.getKey();
-			Collection<Subscriber> listenerMethodsForType = entry.getValue();
-
-			CopyOnWriteArraySet<Subscriber> currentSubscribers = subscribers.get(eventType);
-			if (currentSubscribers == null || !currentSubscribers.removeAll(listenerMethodsForType)) {
-				// if removeAll returns true, all we really know is that at least one subscriber was
-				// removed... however, barring something very strange we can assume that if at least one
-				// subscriber was removed, all subscribers on listener for that event type were... after
-				// all, the definition of subscribers on a particular class is totally static
-				throw new IllegalArgumentException("missing event subscriber for an annotated method. Is " + listener + " registered?");
-			}
+		purgeCollectedListeners();
+		Subscriber[] listenerSubscribers = listeners.remove(listener);
+		if (listenerSubscribers == null) {
+			// listeners without subscriber methods are never indexed
+			checkArgument(getAnnotatedMethods(listener.getClass()).length == 0, "missing event subscriber for an annotated method. Is %s registered?", listener);
+			return;
+		}
 
+		for (Subscriber subscriber : listenerSubscribers) {
 			// don't try to remove the set if it's empty; that can't be done safely without a lock
 			// anyway, if the set is empty it'll just be wrapping an array of length 0
+			subscribers.get(subscriber.eventType()).remove(subscriber);
+		}
+		invalidateDispatchTable();
+	}
+
+	/**
+	 * Removes the subscribers of all the weakly registered listeners collected so far. The subscribers of each event type are removed at once, so that each set is copied only once per purge.
+	 */
+	@VisibleForTesting
+	void purgeCollectedListeners() {
+		Reference<?> reference = collectedListeners.poll();
+		if (reference == null) {
+			return;
 		}
+		Multimap<Class<?>, Subscriber> collected = HashMultimap.create();
+		do {
+			for (Subscriber subscriber : ((ListenerReference) reference).subscribers) {
+				collected.put(subscriber.eventType(), subscriber);
+			}
+		} while ((reference = collectedListeners.poll()) != null);
+
+		for (Map.Entry<Class<?>, Collection<Subscriber>> entry : collected.asMap().entrySet()) {
+			CopyOnWriteArraySet<Subscriber> eventSubscribers = subscribers.get(entry.getKey());
+			if (eventSubscribers != null) {
+				// a collected subscriber is only equal to itself
+				eventSubscribers.removeAll(entry.getValue());
+			}
+		}
+		invalidateDispatchTable();
+	}
+
+	/**
+	 * Discards the current version of the dispatch table. Must be called after {@link #subscribers} has been updated.
+	 */
+	private void invalidateDispatchTable() {
+		this.dispatchTable = Maps.newConcurrentMap();
 	}
 
 	@VisibleForTesting
@@ -149,55 +250,116 @@ final class SubscriberRegistry {
 	 * Gets an iterator representing an immutable snapshot of all subscribers to the given event at the time this method is called.
 	 */
 	Iterator<Subscriber> getSubscribers(Object event) {
-		ImmutableSet<Class<?>> eventTypes = flattenHierarchy(event.getClass());
-
-		List<Iterator<Subscriber>> subscriberIterators = Lists.newArrayListWithCapacity(eventTypes.size());
+		return Iterators.forArray(getDispatchSubscribers(event.getClass()));
+	}
 
-		for (Class<?> eventType : eventTypes) {
-			CopyOnWriteArraySet<Subscriber> eventSubscribers = subscribers.get(eventType);
-			if (eventSubscribers != null) {
-				// eager no-copy snapshot
-				subscriberIterators.add(eventSubscribers.iterator());
+	/**
+	 * Gets an immutable snapshot of all subscribers to events of the given concrete class, for all the types in its hierarchy. The returned array is shared and must not be modified.
+	 *
+	 * <p>
+	 * Once the subscribers of an event class have been computed, this costs a single map lookup and allocates nothing until the next registration change. Event classes without subscribers are remembered until subscribers are added.
+	 */
+	Subscriber[] getDispatchSubscribers(Class<?> eventClass) {
+		ConcurrentMap<Class<?>, Subscriber[]> table = this.dispatchTable;
+		Subscriber[] eventSubscribers = table.get(eventClass);
+		if (eventSubscribers == null) {
+			Set<Class<?>> deadClasses = this.deadEventClasses;
+			if (deadClasses.contains(eventClass)) {
+				eventSubscribers = NO_SUBSCRIBERS;
+			} else {
+				eventSubscribers = flattenSubscribers(eventClass);
+				if (eventSubscribers.length == 0) {
+					deadClasses.add(eventClass);
+				}
+			}
+			Subscriber[] existing = table.putIfAbsent(eventClass, eventSubscribers);
+			if (existing != null) {
+				eventSubscribers = existing;
 			}
 		}
+		return eventSubscribers;
+	}
 
-		return Iterators.concat(subscriberIterators.iterator());
+	/**
+	 * Collects the subscribers of all the types in the hierarchy of {@code eventClass}, ordered by decreasing {@linkplain SubscriberPriority priority}. Subscribers with equal priorities keep the order of the type hierarchy and of registration.
+	 */
+	private Subscriber[] flattenSubscribers(Class<?> eventClass) {
+		List<Subscriber> eventSubscribers = Lists.newArrayList();
+		boolean prioritized = false;
+		for (Class<?> eventType : flattenHierarchy(eventClass)) {
+			CopyOnWriteArraySet<Subscriber> subscribersForType = subscribers.get(eventType);
+			if (subscribersForType != null) {
+				for (Subscriber subscriber : subscribersForType) {
+					eventSubscribers.add(subscriber);
+					prioritized |= subscriber.priority() != 0;
+				}
+			}
+		}
+		if (eventSubscribers.isEmpty()) {
+			return NO_SUBSCRIBERS;
+		}
+		if (prioritized) {
+			// stable sort
+			Collections.sort(eventSubscribers, BY_DECREASING_PRIORITY);
+		}
+		return eventSubscribers.toArray(new Subscriber[eventSubscribers.size()]);
 	}
 
+	private static final Ordering<Subscriber> BY_DECREASING_PRIORITY = new Ordering<Subscriber>() {
+		@Override
+		public int compare(Subscriber left, Subscriber right) {
+			return Ints.compare(right.priority(), left.priority());
+		}
+	};
+
 	/**
-	 * A thread-safe cache that contains the mapping from each class to all methods in that class and all super-classes, that are annotated with {@code @Subscribe}. The cache is shared across all instances of this class; this greatly improves performance if multiple EventBus instances are created and objects of the same class are registered on all of them.
+	 * A thread-safe cache that contains, for each subscriber annotation, the mapping from each class to the invokers of all methods in that class and all super-classes, that are annotated with that annotation. The invokers are created once per method, when the method is first found, and are then shared by all subscribers for that method, whatever their event bus. The arrays are shared and must not be modified.
+	 *
+	 * <p>
+	 * Both levels have weak keys, so that the generated invokers don't keep annotation and listener classes from being unloaded.
 	 */
-	private final LoadingCache<Class<?>, ImmutableList<Method>> subscriberMethodsCache = CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<Class<?>, ImmutableList<Method>>() {
+	private static final LoadingCache<Class<? extends Annotation>, LoadingCache<Class<?>, SubscriberInvoker[]>> subscriberMethodsCache = CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<Class<? extends Annotation>, LoadingCache<Class<?>, SubscriberInvoker[]>>() {
 		@Override
-		public ImmutableList<Method> load(Class<?> concreteClass) throws Exception {
-			return getAnnotatedMethodsNotCached(concreteClass);
+		public LoadingCache<Class<?>, SubscriberInvoker[]> load(final Class<? extends Annotation> annotation) {
+			return CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<Class<?>, SubscriberInvoker[]>() {
+				@Override
+				public SubscriberInvoker[] load(Class<?> concreteClass) throws Exception {
+					ImmutableList<Method> methods = getAnnotatedMethodsNotCached(concreteClass, annotation);
+					SubscriberInvoker[] invokers = new SubscriberInvoker[methods.size()];
+					for (int i = 0; i < invokers.length; i++) {
+						invokers[i] = SubscriberInvoker.create(methods.get(i));
+					}
+					return invokers;
+				}
+			});
 		}
 	});
 
 	/**
-	 * Returns all subscribers for the given listener grouped by the type of event they subscribe to.
+	 * Creates the subscribers for all the subscriber methods of the given listener.
 	 */
-	private Multimap<Class<?>, Subscriber> findAllSubscribers(Object listener) {
-		Multimap<Class<?>, Subscriber> methodsInListener = HashMultimap.create();
-		Class<?> clazz = listener.getClass();
-		for (Method method : getAnnotatedMethods(clazz)) {
-			Class<?>[] parameterTypes = method.getParameterTypes();
-			Class<?> eventType = parameterTypes[0];
-			methodsInListener.put(eventType, Subscriber.create(bus, listener, method));
+	private Subscriber[] createSubscribers(Object listener, @Nullable Predicate<Object> filter, @Nullable ListenerReference reference) {
+		SubscriberInvoker[] invokers = getAnnotatedMethods(listener.getClass());
+		if (invokers.length == 0) {
+			return NO_SUBSCRIBERS;
 		}
-		return methodsInListener;
+		Subscriber[] listenerSubscribers = new Subscriber[invokers.length];
+		for (int i = 0; i < invokers.length; i++) {
+			listenerSubscribers[i] = Subscriber.create(bus, listener, invokers[i], filter, reference);
+		}
+		return listenerSubscribers;
 	}
 
-	private ImmutableList<Method> getAnnotatedMethods(Class<?> clazz) {
-		return subscriberMethodsCache.getUnchecked(clazz);
+	private SubscriberInvoker[] getAnnotatedMethods(Class<?> clazz) {
+		return subscriberMethodsCache.getUnchecked(this.subscriberAnnotation).getUnchecked(clazz);
 	}
 
-	private ImmutableList<Method> getAnnotatedMethodsNotCached(Class<?> clazz) {
+	private static ImmutableList<Method> getAnnotatedMethodsNotCached(Class<?> clazz, Class<? extends Annotation> annotation) {
 		Set<? extends Class<?>> supertypes = TypeToken.of(clazz).getTypes().rawTypes();
 		Map<MethodIdentifier, Method> identifiers = Maps.newHashMap();
 		for (Class<?> supertype : supertypes) {
 			for (Method method : supertype.getDeclaredMethods()) {
-				if (method.isAnnotationPresent(this.subscriberAnnotation) && !method.isSynthetic()) {
+				if (method.isAnnotationPresent(annotation) && !method.isSynthetic()) {
 					// TODO(user): Should check for a generic parameter type and error out
 					Class<?>[] parameterTypes = method.getParameterTypes();
 					checkArgument(parameterTypes.length == 1, "Method %s has @Subscribe annotation but has %s parameters." + "Subscriber methods must have exactly 1 parameter.", method, parameterTypes.length);
@@ -260,4 +422,15 @@ final class SubscriberRegistry {
 			return false;
 		}
 	}
+
+	/**
+	 * Weak reference to a listener, remembering the subscribers to remove once the listener has been collected.
+	 */
+	private static final class ListenerReference extends WeakReference<Object> {
+		volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
+
+		ListenerReference(Object listener, ReferenceQueue<Object> queue) {
+			super(listener, queue);
+		}
+	}
 }